@@ -0,0 +1,113 @@
+package com.message.benchmarks;
+
+import com.message.broker.InMemorySqsClient;
+import com.message.util.SQSUtility;
+import com.message.util.SendMessageBatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Ten single calls against one batch call, for sends and deletes, through SQSUtility and the in-memory broker.
+ * sendBatcher goes through SendMessageBatcher with an explicit flush, i.e. without the linger delay.
+ *
+ * The delete benchmarks have to receive what they delete: they send and receive one batch as well, so compare
+ * deleteSingle with deleteBatch rather than with the send numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsqs.client.backend=memory", "-Dsqs.log.maxLinesPerSecond=0"})
+public class BatchingBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark-batching";
+    private static final int BATCH = 10;
+
+    private String queueUrl;
+    private List<SendMessageRequest> singles;
+    private SendMessageBatchRequest batch;
+    private ReceiveMessageRequest receive;
+
+    @Setup
+    public void setUp() {
+        queueUrl = SQSUtility.resolveQueueUrl(QUEUE_NAME);
+        singles = new ArrayList<>();
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            singles.add(SendMessageRequest.builder().queueUrl(queueUrl).messageBody("complexity " + i).build());
+            entries.add(SendMessageBatchRequestEntry.builder().id(String.valueOf(i)).messageBody("complexity " + i)
+                    .build());
+        }
+        batch = SendMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build();
+        receive = ReceiveMessageRequest.builder().queueUrl(queueUrl).maxNumberOfMessages(BATCH).build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() {
+        InMemorySqsClient.getInstance().purgeQueue(PurgeQueueRequest.builder().queueUrl(queueUrl).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendSingle(Blackhole blackhole) {
+        for (SendMessageRequest request : singles) {
+            blackhole.consume(SQSUtility.sendMessage(request));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public SendMessageBatchResponse sendBatch() {
+        return SQSUtility.sendMessageBatch(batch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sendBatcher(Blackhole blackhole) {
+        List<CompletableFuture<SendMessageResponse>> results = new ArrayList<>(BATCH);
+        for (SendMessageRequest request : singles) {
+            results.add(SendMessageBatcher.getInstance().send(request));
+        }
+        SendMessageBatcher.getInstance().flush(queueUrl);
+        for (CompletableFuture<SendMessageResponse> result : results) {
+            blackhole.consume(result.join());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void deleteSingle() {
+        SQSUtility.sendMessageBatch(batch);
+        for (Message message : SQSUtility.receiveMessages(receive)) {
+            SQSUtility.deleteMessage(DeleteMessageRequest.builder()
+                    .queueUrl(queueUrl)
+                    .receiptHandle(message.receiptHandle())
+                    .build());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public DeleteMessageBatchResponse deleteBatch() {
+        SQSUtility.sendMessageBatch(batch);
+        List<Message> messages = SQSUtility.receiveMessages(receive);
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(messages.get(i).receiptHandle())
+                    .build());
+        }
+        return SQSUtility.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+    }
+}
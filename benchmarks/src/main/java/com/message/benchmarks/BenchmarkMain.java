@@ -0,0 +1,50 @@
+package com.message.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * Entry point of benchmarks.jar. Takes the usual JMH command line, but unless told otherwise it runs with the GC
+ * (allocation) profiler and writes JSON results to jmh-result.json in the benchmarks target directory (next to
+ * benchmarks.jar, whatever the working directory), so two builds can be diffed, e.g.
+ *
+ *     java -jar benchmarks/target/benchmarks.jar -rff before.json
+ *     java -jar benchmarks/target/benchmarks.jar -rff after.json
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(targetDirectory().resolve("jmh-result.json").toString());
+        }
+        new Runner(options.build()).run();
+    }
+
+    // benchmarks/target: the directory of benchmarks.jar, or of target/classes when run from the build output
+    private static Path targetDirectory() throws URISyntaxException {
+        return Paths.get(BenchmarkMain.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getParent();
+    }
+}
@@ -0,0 +1,73 @@
+package com.message.benchmarks;
+
+import com.message.broker.InMemorySqsClient;
+import com.message.endpoints.ProcessMessage;
+import com.message.util.SQSUtility;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.sqs.model.PurgeQueueRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * ProcessMessage end to end against the in-memory broker: receive, dedupe check, processing (complexity 0, so no
+ * simulated work), delete and response. Every invocation first sends the ten messages it then processes, so the
+ * numbers include one SendMessageBatch per ten messages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsqs.client.backend=memory", "-Dsqs.log.maxLinesPerSecond=0"})
+public class ProcessMessageBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark-process";
+    private static final int BATCH = 10;
+
+    @Param({"json", "ndjson"})
+    public String format;
+
+    private final ProcessMessage servlet = new ProcessMessage();
+    private String queueUrl;
+    private SendMessageBatchRequest batch;
+    private HttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        queueUrl = SQSUtility.resolveQueueUrl(QUEUE_NAME);
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            entries.add(SendMessageBatchRequestEntry.builder().id(String.valueOf(i)).messageBody("complexity 0").build());
+        }
+        batch = SendMessageBatchRequest.builder().queueUrl(queueUrl).entries(entries).build();
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("queueName", QUEUE_NAME);
+        parameters.put("maxNumberOfMessages", String.valueOf(BATCH));
+        parameters.put("waitTimeSeconds", "0");
+        parameters.put("visibilityTimeoutExtensionAllowed", "false");
+        parameters.put("format", format);
+        request = ServletStubs.request(parameters, Map.of("RequestCorrelationId", "benchmark"), new byte[0]);
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() {
+        InMemorySqsClient.getInstance().purgeQueue(PurgeQueueRequest.builder().queueUrl(queueUrl).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void receiveProcessDelete() throws ServletException {
+        SQSUtility.sendMessageBatch(batch);
+        servlet.doGet(request, ServletStubs.response(Writer.nullWriter()));
+    }
+}
@@ -0,0 +1,86 @@
+package com.message.benchmarks;
+
+import com.message.broker.InMemorySqsClient;
+import com.message.codec.JsonCodec;
+import com.message.endpoints.CreateQueue;
+import com.message.endpoints.SendMessage;
+import com.message.request.CreateQueuePayload;
+import com.message.request.SendMessagePayload;
+import com.message.util.SQSUtility;
+import jakarta.servlet.ServletException;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.services.sqs.model.PurgeQueueRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Request binding of the SendMessage and CreateQueue endpoints: JSON body to payload, validation and the SDK request
+ * built from it - alone and as part of a whole doPost against the in-memory broker.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsqs.client.backend=memory", "-Dsqs.log.maxLinesPerSecond=0"})
+public class RequestParsingBenchmark {
+
+    private static final String QUEUE_NAME = "benchmark-parsing";
+
+    private final SendMessage sendMessage = new SendMessage();
+    private final CreateQueue createQueue = new CreateQueue();
+
+    private byte[] sendMessageBody;
+    private byte[] createQueueBody;
+    private String queueUrl;
+
+    @Setup
+    public void setUp() {
+        sendMessageBody = ("{\"queueName\":\"" + QUEUE_NAME + "\",\"messageBody\":\"complexity 3\","
+                + "\"messageAttributeKey\":\"origin\",\"messageAttributeValue\":\"benchmark\",\"delay\":0}")
+                .getBytes(StandardCharsets.UTF_8);
+        createQueueBody = ("{\"queueName\":\"" + QUEUE_NAME + "\",\"visibilityTimeOut\":\"30\","
+                + "\"longPolling\":false}")
+                .getBytes(StandardCharsets.UTF_8);
+        queueUrl = SQSUtility.resolveQueueUrl(QUEUE_NAME);
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() {
+        InMemorySqsClient.getInstance().purgeQueue(PurgeQueueRequest.builder().queueUrl(queueUrl).build());
+    }
+
+    @Benchmark
+    public SendMessageRequest sendMessagePayload() throws IOException {
+        SendMessagePayload payload = JsonCodec.read(new ByteArrayInputStream(sendMessageBody),
+                SendMessagePayload.class);
+        payload.validate();
+        return SendMessage.toSendMessageRequest(payload, queueUrl, null);
+    }
+
+    @Benchmark
+    public CreateQueuePayload createQueuePayload() throws IOException {
+        CreateQueuePayload payload = JsonCodec.read(new ByteArrayInputStream(createQueueBody),
+                CreateQueuePayload.class);
+        payload.validate();
+        return payload;
+    }
+
+    @Benchmark
+    public void sendMessageEndpoint() throws ServletException {
+        sendMessage.doPost(ServletStubs.request(Map.of(), Map.of(), sendMessageBody),
+                ServletStubs.response(Writer.nullWriter()));
+    }
+
+    @Benchmark
+    public void createQueueEndpoint() throws ServletException {
+        createQueue.doPost(ServletStubs.request(Map.of(), Map.of(), createQueueBody),
+                ServletStubs.response(Writer.nullWriter()));
+    }
+}
@@ -0,0 +1,63 @@
+package com.message.benchmarks;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.message.codec.JsonCodec;
+import com.message.response.StandardMessageResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Serialization of StandardMessageResponse the way the endpoints write it: one object (SendMessage), a JSON array
+ * and an NDJSON stream of a ten message receive (ProcessMessage).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dsqs.log.maxLinesPerSecond=0"})
+public class ResponseSerializationBenchmark {
+
+    private StandardMessageResponse single;
+    private List<StandardMessageResponse> batch;
+
+    @Setup
+    public void setUp() {
+        batch = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            batch.add(new StandardMessageResponse(UUID.randomUUID().toString(), "complexity " + i,
+                    "benchmark-serialization"));
+        }
+        single = batch.get(0);
+    }
+
+    @Benchmark
+    public void singleResponse() throws IOException {
+        JsonCodec.write(Writer.nullWriter(), single);
+    }
+
+    @Benchmark
+    public String singleResponseAsString() throws IOException {
+        return JsonCodec.writeValueAsString(single);
+    }
+
+    @Benchmark
+    public void jsonArrayOfTen() throws IOException {
+        JsonCodec.write(Writer.nullWriter(), batch);
+    }
+
+    @Benchmark
+    public void ndjsonOfTen() throws IOException {
+        try (SequenceWriter ndjson = JsonCodec.ndjson(Writer.nullWriter())) {
+            for (StandardMessageResponse response : batch) {
+                ndjson.write(response);
+            }
+        }
+    }
+}
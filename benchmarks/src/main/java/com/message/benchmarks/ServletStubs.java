@@ -0,0 +1,97 @@
+package com.message.benchmarks;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/*
+ * Minimal request/response stand-ins so the servlets can be driven without a container. Every method that is not
+ * needed by the endpoints returns null, false or 0.
+ */
+final class ServletStubs {
+
+    private ServletStubs() {
+    }
+
+    static HttpServletRequest request(Map<String, String> parameters, Map<String, String> headers, byte[] body) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getParameter":
+                            return parameters.get(args[0]);
+                        case "getHeader":
+                            return headers.get(args[0]);
+                        case "getInputStream":
+                            return new ByteArrayServletInputStream(body);
+                        case "getServletPath":
+                            return "";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    static HttpServletResponse response(Writer sink) {
+        PrintWriter writer = new PrintWriter(sink);
+        return (HttpServletResponse) Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+                    if ("getWriter".equals(method.getName())) {
+                        return writer;
+                    }
+                    return defaultValue(method.getReturnType());
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static class ByteArrayServletInputStream extends ServletInputStream {
+        private final ByteArrayInputStream in;
+
+        ByteArrayServletInputStream(byte[] body) {
+            this.in = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new IllegalStateException("blocking stream");
+        }
+
+        @Override
+        public int read() {
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return in.read(b, off, len);
+        }
+    }
+}
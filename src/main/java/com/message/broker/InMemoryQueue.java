@@ -0,0 +1,683 @@
+package com.message.broker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.message.codec.JsonCodec;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * One queue of the in-memory broker. All state is guarded by the queue's lock; receivers in a long poll wait on a
+ * condition that is signalled by sends, by FIFO deletes and by receivers that made messages visible again.
+ *
+ * Delayed and in-flight messages sit in one timer heap ordered by the moment they become visible. A visibility change
+ * pushes a new timer and bumps the message generation, so older timers of that message are skipped once due.
+ *
+ * FIFO queues keep each message in its group until it is deleted. A group whose head is in flight is locked, which
+ * gives the per-group ordering SQS guarantees.
+ */
+final class InMemoryQueue {
+
+    static final int MAX_VISIBILITY_TIMEOUT = 43200;
+    private static final int MAX_DELAY_SECONDS = 900;
+    private static final long DEDUPLICATION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final String SEQUENCE_PADDING = "00000000000000000000";
+
+    final String name;
+    final String url;
+    final String arn;
+    final boolean fifo;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition visible = lock.newCondition();
+
+    private final ArrayDeque<StoredMessage> ready = new ArrayDeque<>();
+    private final LinkedHashMap<String, ArrayDeque<StoredMessage>> groups = new LinkedHashMap<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final HashMap<String, StoredMessage> inFlight = new HashMap<>();
+    private final LinkedHashMap<String, Deduplication> deduplication = new LinkedHashMap<>();
+    private final EnumMap<QueueAttributeName, String> attributes = new EnumMap<>(QueueAttributeName.class);
+    private final long createdTimestamp = System.currentTimeMillis();
+
+    private int fifoCount;
+    private int delayedCount;
+    private long sequenceNumber;
+    private long receiptSequence;
+    private long lastModifiedTimestamp = createdTimestamp;
+
+    private volatile int visibilityTimeout = 30;
+    private volatile int delaySeconds;
+    private volatile int receiveMessageWaitTimeSeconds;
+    private volatile int maximumMessageSize = 262144;
+    private volatile long retentionMillis = TimeUnit.DAYS.toMillis(4);
+    private volatile boolean contentBasedDeduplication;
+    private volatile String deadLetterTargetArn;
+    private volatile int maxReceiveCount;
+
+    InMemoryQueue(String name, String url, String arn, boolean fifo) {
+        this.name = name;
+        this.url = url;
+        this.arn = arn;
+        this.fifo = fifo;
+        attributes.put(QueueAttributeName.VISIBILITY_TIMEOUT, "30");
+        attributes.put(QueueAttributeName.DELAY_SECONDS, "0");
+        attributes.put(QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS, "0");
+        attributes.put(QueueAttributeName.MAXIMUM_MESSAGE_SIZE, "262144");
+        attributes.put(QueueAttributeName.MESSAGE_RETENTION_PERIOD, "345600");
+        if (fifo) {
+            attributes.put(QueueAttributeName.FIFO_QUEUE, "true");
+            attributes.put(QueueAttributeName.CONTENT_BASED_DEDUPLICATION, "false");
+        }
+    }
+
+    int getVisibilityTimeout() {
+        return visibilityTimeout;
+    }
+
+    int getReceiveMessageWaitTimeSeconds() {
+        return receiveMessageWaitTimeSeconds;
+    }
+
+    String getDeadLetterTargetArn() {
+        return deadLetterTargetArn;
+    }
+
+    void setAttributes(Map<QueueAttributeName, String> values) {
+        lock.lock();
+        try {
+            for (Map.Entry<QueueAttributeName, String> value : values.entrySet()) {
+                applyAttribute(value.getKey(), value.getValue());
+                attributes.put(value.getKey(), value.getValue());
+            }
+            lastModifiedTimestamp = System.currentTimeMillis();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * True if every given attribute has the same value on this queue - CreateQueue on an existing queue is only
+     * allowed in that case.
+     */
+    boolean hasAttributes(Map<QueueAttributeName, String> values) {
+        lock.lock();
+        try {
+            for (Map.Entry<QueueAttributeName, String> value : values.entrySet()) {
+                if (!value.getValue().equals(attributes.get(value.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Map<QueueAttributeName, String> getAttributes(Collection<QueueAttributeName> names) {
+        boolean all = names.contains(QueueAttributeName.ALL);
+        Map<QueueAttributeName, String> values = new EnumMap<>(QueueAttributeName.class);
+        lock.lock();
+        try {
+            // the approximate counts must not wait for the next receive to see expired delays and visibility timeouts
+            if (promoteDue(System.nanoTime())) {
+                visible.signalAll();
+            }
+            Map<QueueAttributeName, String> current = new EnumMap<>(attributes);
+            current.put(QueueAttributeName.QUEUE_ARN, arn);
+            current.put(QueueAttributeName.CREATED_TIMESTAMP, String.valueOf(createdTimestamp / 1000));
+            current.put(QueueAttributeName.LAST_MODIFIED_TIMESTAMP, String.valueOf(lastModifiedTimestamp / 1000));
+            current.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE,
+                    String.valueOf(inFlight.size()));
+            current.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_DELAYED, String.valueOf(delayedCount));
+            current.put(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES, String.valueOf(fifo
+                    ? fifoCount - inFlight.size() - delayedCount
+                    : ready.size()));
+            for (Map.Entry<QueueAttributeName, String> value : current.entrySet()) {
+                if (all || names.contains(value.getKey())) {
+                    values.put(value.getKey(), value.getValue());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return values;
+    }
+
+    StoredMessage send(String body, Map<String, MessageAttributeValue> messageAttributes, Integer messageDelaySeconds,
+                       String groupId, String deduplicationId) {
+        if (isNull(body) || body.isEmpty()) {
+            throw SqsErrors.error(SqsException.builder(), SqsErrors.MISSING_PARAMETER,
+                    "The request must contain the parameter MessageBody.");
+        }
+        if (body.length() > maximumMessageSize / 4 && utf8Length(body) > maximumMessageSize) {
+            throw SqsErrors.invalidParameter("One or more parameters are invalid. Reason: Message must be shorter than "
+                    + maximumMessageSize + " bytes.");
+        }
+        int delay = nonNull(messageDelaySeconds) ? messageDelaySeconds : delaySeconds;
+        if (delay < 0 || delay > MAX_DELAY_SECONDS) {
+            throw SqsErrors.invalidParameter("Value " + delay + " for parameter DelaySeconds is invalid.");
+        }
+        if (fifo) {
+            if (isNull(groupId)) {
+                throw SqsErrors.error(SqsException.builder(), SqsErrors.MISSING_PARAMETER,
+                        "The request must contain the parameter MessageGroupId.");
+            }
+            if (nonNull(messageDelaySeconds) && messageDelaySeconds != 0) {
+                throw SqsErrors.invalidParameter("Value " + messageDelaySeconds + " for parameter DelaySeconds is "
+                        + "invalid. Reason: The request include parameter that is not valid for this queue type.");
+            }
+            if (isNull(deduplicationId)) {
+                if (!contentBasedDeduplication) {
+                    throw SqsErrors.invalidParameter("The queue should either have ContentBasedDeduplication "
+                            + "enabled or MessageDeduplicationId provided explicitly");
+                }
+                deduplicationId = sha256(body);
+            }
+        } else {
+            groupId = null;
+            deduplicationId = null;
+        }
+
+        long now = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        StoredMessage message = new StoredMessage(newMessageId(), body,
+                isNull(messageAttributes) ? Collections.emptyMap() : messageAttributes,
+                nowMillis, groupId, deduplicationId);
+        lock.lock();
+        try {
+            if (fifo) {
+                expireDeduplication(nowMillis);
+                Deduplication previous = deduplication.get(deduplicationId);
+                if (nonNull(previous)) {
+                    return previous.message;
+                }
+                deduplication.put(deduplicationId, new Deduplication(message, nowMillis));
+                enqueueFifo(message);
+            }
+            if (delay > 0) {
+                message.delayed = true;
+                delayedCount++;
+                timers.add(new Timer(now + TimeUnit.SECONDS.toNanos(delay), message));
+            } else {
+                if (!fifo) {
+                    ready.addLast(message);
+                }
+                visible.signal();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a message redriven from a source queue. It keeps its id, body and attributes but starts over with a
+     * receive count of zero.
+     */
+    void acceptRedriven(StoredMessage source) {
+        StoredMessage message = new StoredMessage(source.messageId, source.body, source.messageAttributes,
+                source.sentTimestamp, source.groupId, source.deduplicationId);
+        lock.lock();
+        try {
+            if (fifo) {
+                enqueueFifo(message);
+            } else {
+                ready.addLast(message);
+            }
+            visible.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Receives up to maxNumberOfMessages, waiting at most waitTimeSeconds for the first one. Messages that exceeded
+     * the maxReceiveCount of the redrive policy are not returned but added to deadLetters.
+     */
+    List<Message> receive(int maxNumberOfMessages, int waitTimeSeconds, int visibility,
+                          Collection<String> attributeNames, Collection<String> messageAttributeNames,
+                          List<StoredMessage> deadLetters) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+        List<Message> received = new ArrayList<>(maxNumberOfMessages);
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long nowMillis = System.currentTimeMillis();
+                if (promoteDue(now) && fifo) {
+                    visible.signalAll();
+                }
+                Receive receive = new Receive(maxNumberOfMessages, now, nowMillis, visibility, attributeNames,
+                        messageAttributeNames, received, deadLetters);
+                if (fifo) {
+                    takeFifo(receive);
+                } else {
+                    takeStandard(receive);
+                }
+                long waitNanos = deadline - now;
+                if (!received.isEmpty() || waitNanos <= 0) {
+                    return received;
+                }
+                Timer next = timers.peek();
+                if (nonNull(next)) {
+                    waitNanos = Math.min(waitNanos, Math.max(1, next.dueNanos - now));
+                }
+                visible.awaitNanos(waitNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return received;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns false if the receipt handle is not (or no longer) in flight. Like SQS, a delete with such a handle is
+     * not treated as an error.
+     */
+    boolean delete(String receiptHandle) {
+        lock.lock();
+        try {
+            StoredMessage message = inFlight.remove(receiptHandle);
+            if (isNull(message)) {
+                return false;
+            }
+            message.deleted = true;
+            message.receiptHandle = null;
+            if (fifo) {
+                ArrayDeque<StoredMessage> group = groups.get(message.groupId);
+                group.remove(message);
+                fifoCount--;
+                if (group.isEmpty()) {
+                    groups.remove(message.groupId);
+                } else {
+                    // the group is unlocked for the next receive
+                    visible.signal();
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void changeVisibility(String receiptHandle, int visibility) {
+        if (visibility < 0 || visibility > MAX_VISIBILITY_TIMEOUT) {
+            throw SqsErrors.invalidParameter("Value " + visibility + " for parameter VisibilityTimeout is invalid.");
+        }
+        lock.lock();
+        try {
+            StoredMessage message = inFlight.get(receiptHandle);
+            if (isNull(message)) {
+                throw SqsErrors.error(MessageNotInflightException.builder(),
+                        "AWS.SimpleQueueService.MessageNotInflight", "Message does not exist or is not available "
+                                + "for visibility timeout change.");
+            }
+            message.generation++;
+            long now = System.nanoTime();
+            timers.add(new Timer(now + TimeUnit.SECONDS.toNanos(visibility), message));
+            if (visibility == 0 && promoteDue(now)) {
+                visible.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void purge() {
+        lock.lock();
+        try {
+            ready.clear();
+            groups.clear();
+            timers.clear();
+            inFlight.clear();
+            fifoCount = 0;
+            delayedCount = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds the lock
+    private boolean promoteDue(long now) {
+        boolean promoted = false;
+        Timer timer;
+        while (nonNull(timer = timers.peek()) && timer.dueNanos - now <= 0) {
+            timers.poll();
+            StoredMessage message = timer.message;
+            if (message.deleted || message.generation != timer.generation) {
+                continue;
+            }
+            if (message.delayed) {
+                message.delayed = false;
+                delayedCount--;
+            } else {
+                inFlight.remove(message.receiptHandle);
+                message.receiptHandle = null;
+            }
+            if (!fifo) {
+                ready.addLast(message);
+            }
+            promoted = true;
+        }
+        return promoted;
+    }
+
+    // caller holds the lock
+    private void takeStandard(Receive receive) {
+        StoredMessage message;
+        while (receive.wantsMore() && nonNull(message = ready.pollFirst())) {
+            if (isExpired(message, receive.nowMillis)) {
+                message.deleted = true;
+            } else if (exceedsMaxReceiveCount(message)) {
+                message.deleted = true;
+                receive.deadLetters.add(message);
+            } else {
+                receive.received.add(markInFlight(message, receive));
+            }
+        }
+    }
+
+    // caller holds the lock
+    private void takeFifo(Receive receive) {
+        Iterator<ArrayDeque<StoredMessage>> groupIterator = groups.values().iterator();
+        while (receive.wantsMore() && groupIterator.hasNext()) {
+            ArrayDeque<StoredMessage> group = groupIterator.next();
+            Iterator<StoredMessage> messages = group.iterator();
+            while (receive.wantsMore() && messages.hasNext()) {
+                StoredMessage message = messages.next();
+                if (message.delayed || nonNull(message.receiptHandle)) {
+                    // the group is locked until its in-flight messages are deleted or visible again
+                    break;
+                }
+                boolean expired = isExpired(message, receive.nowMillis);
+                if (expired || exceedsMaxReceiveCount(message)) {
+                    messages.remove();
+                    fifoCount--;
+                    message.deleted = true;
+                    if (!expired) {
+                        receive.deadLetters.add(message);
+                    }
+                    continue;
+                }
+                receive.received.add(markInFlight(message, receive));
+            }
+            if (group.isEmpty()) {
+                groupIterator.remove();
+            }
+        }
+    }
+
+    // caller holds the lock
+    private Message markInFlight(StoredMessage message, Receive receive) {
+        message.receiveCount++;
+        if (message.receiveCount == 1) {
+            message.firstReceiveTimestamp = receive.nowMillis;
+        }
+        message.generation++;
+        message.receiptHandle = message.messageId + '#' + (++receiptSequence);
+        inFlight.put(message.receiptHandle, message);
+        timers.add(new Timer(receive.now + TimeUnit.SECONDS.toNanos(receive.visibility), message));
+        return toMessage(message, receive.attributeNames, receive.messageAttributeNames);
+    }
+
+    // caller holds the lock
+    private void enqueueFifo(StoredMessage message) {
+        String sequence = Long.toString(++sequenceNumber);
+        message.sequenceNumber = SEQUENCE_PADDING.substring(sequence.length()) + sequence;
+        groups.computeIfAbsent(message.groupId, group -> new ArrayDeque<>()).addLast(message);
+        fifoCount++;
+    }
+
+    // caller holds the lock
+    private void expireDeduplication(long nowMillis) {
+        Iterator<Deduplication> oldestFirst = deduplication.values().iterator();
+        while (oldestFirst.hasNext() && nowMillis - oldestFirst.next().createdAtMillis >= DEDUPLICATION_INTERVAL_MILLIS) {
+            oldestFirst.remove();
+        }
+    }
+
+    private boolean isExpired(StoredMessage message, long nowMillis) {
+        return nowMillis - message.sentTimestamp >= retentionMillis;
+    }
+
+    private boolean exceedsMaxReceiveCount(StoredMessage message) {
+        return nonNull(deadLetterTargetArn) && message.receiveCount >= maxReceiveCount;
+    }
+
+    private static Message toMessage(StoredMessage message, Collection<String> attributeNames,
+                                     Collection<String> messageAttributeNames) {
+        Message.Builder builder = Message.builder()
+                .messageId(message.messageId)
+                .receiptHandle(message.receiptHandle)
+                .body(message.body);
+        if (!attributeNames.isEmpty()) {
+            boolean all = attributeNames.contains("All");
+            Map<String, String> values = new HashMap<>();
+            putIfRequested(values, all, attributeNames, MessageSystemAttributeName.SENT_TIMESTAMP,
+                    String.valueOf(message.sentTimestamp));
+            putIfRequested(values, all, attributeNames, MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT,
+                    String.valueOf(message.receiveCount));
+            putIfRequested(values, all, attributeNames,
+                    MessageSystemAttributeName.APPROXIMATE_FIRST_RECEIVE_TIMESTAMP,
+                    String.valueOf(message.firstReceiveTimestamp));
+            if (nonNull(message.groupId)) {
+                putIfRequested(values, all, attributeNames, MessageSystemAttributeName.MESSAGE_GROUP_ID,
+                        message.groupId);
+                putIfRequested(values, all, attributeNames, MessageSystemAttributeName.MESSAGE_DEDUPLICATION_ID,
+                        message.deduplicationId);
+                putIfRequested(values, all, attributeNames, MessageSystemAttributeName.SEQUENCE_NUMBER,
+                        message.sequenceNumber);
+            }
+            builder.attributesWithStrings(values);
+        }
+        if (!messageAttributeNames.isEmpty() && !message.messageAttributes.isEmpty()) {
+            builder.messageAttributes(selectMessageAttributes(message.messageAttributes, messageAttributeNames));
+        }
+        return builder.build();
+    }
+
+    private static void putIfRequested(Map<String, String> values, boolean all, Collection<String> attributeNames,
+                                       MessageSystemAttributeName name, String value) {
+        if (all || attributeNames.contains(name.toString())) {
+            values.put(name.toString(), value);
+        }
+    }
+
+    private static Map<String, MessageAttributeValue> selectMessageAttributes(
+            Map<String, MessageAttributeValue> messageAttributes, Collection<String> names) {
+        if (names.contains("All") || names.contains(".*")) {
+            return messageAttributes;
+        }
+        Map<String, MessageAttributeValue> selected = new HashMap<>();
+        for (Map.Entry<String, MessageAttributeValue> attribute : messageAttributes.entrySet()) {
+            for (String name : names) {
+                if (name.equals(attribute.getKey())
+                        || (name.endsWith(".*") && attribute.getKey().startsWith(name.substring(0, name.length() - 1)))) {
+                    selected.put(attribute.getKey(), attribute.getValue());
+                    break;
+                }
+            }
+        }
+        return selected;
+    }
+
+    // caller holds the lock
+    private void applyAttribute(QueueAttributeName name, String value) {
+        switch (name) {
+            case VISIBILITY_TIMEOUT:
+                visibilityTimeout = parseAttribute(name, value, 0, MAX_VISIBILITY_TIMEOUT);
+                break;
+            case DELAY_SECONDS:
+                delaySeconds = parseAttribute(name, value, 0, MAX_DELAY_SECONDS);
+                break;
+            case RECEIVE_MESSAGE_WAIT_TIME_SECONDS:
+                receiveMessageWaitTimeSeconds = parseAttribute(name, value, 0, 20);
+                break;
+            case MAXIMUM_MESSAGE_SIZE:
+                maximumMessageSize = parseAttribute(name, value, 1024, 262144);
+                break;
+            case MESSAGE_RETENTION_PERIOD:
+                retentionMillis = TimeUnit.SECONDS.toMillis(parseAttribute(name, value, 60, 1209600));
+                break;
+            case CONTENT_BASED_DEDUPLICATION:
+                if (!fifo) {
+                    throw SqsErrors.error(InvalidAttributeNameException.builder(), "InvalidAttributeName",
+                            "Unknown Attribute ContentBasedDeduplication.");
+                }
+                contentBasedDeduplication = Boolean.parseBoolean(value);
+                break;
+            case FIFO_QUEUE:
+                if (fifo != Boolean.parseBoolean(value)) {
+                    throw SqsErrors.error(SqsException.builder(), SqsErrors.INVALID_ATTRIBUTE_VALUE,
+                            "Invalid value for the parameter FifoQueue.");
+                }
+                break;
+            case REDRIVE_POLICY:
+                applyRedrivePolicy(value);
+                break;
+            default:
+                // accepted and reported back, but without effect on the in-memory broker
+                break;
+        }
+    }
+
+    private void applyRedrivePolicy(String value) {
+        if (isNull(value) || value.isEmpty()) {
+            deadLetterTargetArn = null;
+            return;
+        }
+        try {
+            JsonNode policy = JsonCodec.mapper().readTree(value);
+            int count = policy.path("maxReceiveCount").asInt(0);
+            String targetArn = policy.path("deadLetterTargetArn").asText(null);
+            if (count < 1 || count > 1000 || isNull(targetArn)) {
+                throw SqsErrors.error(SqsException.builder(), SqsErrors.INVALID_ATTRIBUTE_VALUE,
+                        "Value " + value + " for parameter RedrivePolicy is invalid.");
+            }
+            maxReceiveCount = count;
+            deadLetterTargetArn = targetArn;
+        } catch (IOException e) {
+            throw SqsErrors.error(SqsException.builder(), SqsErrors.INVALID_ATTRIBUTE_VALUE,
+                    "Value " + value + " for parameter RedrivePolicy is invalid. Reason: Invalid JSON.");
+        }
+    }
+
+    private static int parseAttribute(QueueAttributeName name, String value, int min, int max) {
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= min && parsed <= max) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw SqsErrors.error(SqsException.builder(), SqsErrors.INVALID_ATTRIBUTE_VALUE,
+                "Invalid value for the parameter " + name + ".");
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static String newMessageId() {
+        // UUID.randomUUID() goes through a shared SecureRandom, which becomes the bottleneck at high send rates
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L;
+        long leastSigBits = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    private static String sha256(String body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Timer implements Comparable<Timer> {
+        private final long dueNanos;
+        private final StoredMessage message;
+        private final int generation;
+
+        Timer(long dueNanos, StoredMessage message) {
+            this.dueNanos = dueNanos;
+            this.message = message;
+            this.generation = message.generation;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.compare(dueNanos - other.dueNanos, 0);
+        }
+    }
+
+    private static final class Deduplication {
+        private final StoredMessage message;
+        private final long createdAtMillis;
+
+        Deduplication(StoredMessage message, long createdAtMillis) {
+            this.message = message;
+            this.createdAtMillis = createdAtMillis;
+        }
+    }
+
+    private static final class Receive {
+        private final int maxNumberOfMessages;
+        private final long now;
+        private final long nowMillis;
+        private final int visibility;
+        private final Collection<String> attributeNames;
+        private final Collection<String> messageAttributeNames;
+        private final List<Message> received;
+        private final List<StoredMessage> deadLetters;
+
+        Receive(int maxNumberOfMessages, long now, long nowMillis, int visibility, Collection<String> attributeNames,
+                Collection<String> messageAttributeNames, List<Message> received, List<StoredMessage> deadLetters) {
+            this.maxNumberOfMessages = maxNumberOfMessages;
+            this.now = now;
+            this.nowMillis = nowMillis;
+            this.visibility = visibility;
+            this.attributeNames = attributeNames;
+            this.messageAttributeNames = messageAttributeNames;
+            this.received = received;
+            this.deadLetters = deadLetters;
+        }
+
+        boolean wantsMore() {
+            return received.size() < maxNumberOfMessages;
+        }
+    }
+}
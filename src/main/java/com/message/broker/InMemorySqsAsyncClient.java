@@ -0,0 +1,78 @@
+package com.message.broker;
+
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/*
+ * SqsAsyncClient view of the in-memory broker for -Dsqs.async.enabled=true. Calls run on a cached pool of daemon
+ * threads, as a long poll blocks its thread until a message arrives or the wait time is over.
+ */
+public class InMemorySqsAsyncClient implements SqsAsyncClient {
+
+    private final SqsClient delegate;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "in-memory-sqs-async");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public InMemorySqsAsyncClient(SqsClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    @Override
+    public CompletableFuture<ReceiveMessageResponse> receiveMessage(ReceiveMessageRequest request) {
+        return call(() -> delegate.receiveMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageResponse> sendMessage(SendMessageRequest request) {
+        return call(() -> delegate.sendMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request) {
+        return call(() -> delegate.sendMessageBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageResponse> deleteMessage(DeleteMessageRequest request) {
+        return call(() -> delegate.deleteMessage(request));
+    }
+
+    @Override
+    public CompletableFuture<DeleteMessageBatchResponse> deleteMessageBatch(DeleteMessageBatchRequest request) {
+        return call(() -> delegate.deleteMessageBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<ChangeMessageVisibilityBatchResponse> changeMessageVisibilityBatch(
+            ChangeMessageVisibilityBatchRequest request) {
+        return call(() -> delegate.changeMessageVisibilityBatch(request));
+    }
+
+    @Override
+    public CompletableFuture<ListQueuesResponse> listQueues(ListQueuesRequest request) {
+        return call(() -> delegate.listQueues(request));
+    }
+
+    private <T> CompletableFuture<T> call(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+}
@@ -0,0 +1,351 @@
+package com.message.broker;
+
+import com.message.metrics.AsyncLogger;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * In-process implementation of SqsClient, selected with -Dsqs.client.backend=memory. It lets the endpoints be load
+ * tested and benchmarked without AWS or a network.
+ *
+ * Supported: queue create/lookup/attributes/purge/delete, send/receive/delete/change visibility (single and batch),
+ * visibility timeouts and receive counts, long polling, per-queue and per-message delays, FIFO message groups with
+ * deduplication (explicit or content based, 5 minute window), retention and redrive to a dead-letter queue once
+ * maxReceiveCount is exceeded. Operations not listed fall back to the SqsClient default, which throws
+ * UnsupportedOperationException. Nothing is persisted; queues live as long as the JVM.
+ */
+public class InMemorySqsClient implements SqsClient {
+
+    private static final InMemorySqsClient INSTANCE = new InMemorySqsClient();
+
+    private static final String ACCOUNT_ID = "000000000000";
+    private static final String URL_PREFIX = "http://localhost/" + ACCOUNT_ID + "/";
+    private static final String ARN_PREFIX = "arn:aws:sqs:local:" + ACCOUNT_ID + ":";
+    private static final Pattern QUEUE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,75}(\\.fifo)?|[A-Za-z0-9_-]{1,80}");
+    private static final int MAX_BATCH_ENTRIES = 10;
+    private static final int MAX_BATCH_BYTES = 262144;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ConcurrentHashMap<String, InMemoryQueue> queues = new ConcurrentHashMap<>();
+
+    public static InMemorySqsClient getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public CreateQueueResponse createQueue(CreateQueueRequest request) {
+        String name = request.queueName();
+        if (isNull(name) || !QUEUE_NAME.matcher(name).matches()) {
+            throw SqsErrors.invalidParameter("Can only include alphanumeric characters, hyphens, or underscores. "
+                    + "1 to 80 in length");
+        }
+        Map<QueueAttributeName, String> attributes = request.attributes();
+        InMemoryQueue queue = queues.computeIfAbsent(name, queueName -> {
+            InMemoryQueue created = new InMemoryQueue(queueName, URL_PREFIX + queueName, ARN_PREFIX + queueName,
+                    queueName.endsWith(".fifo"));
+            created.setAttributes(attributes);
+            return created;
+        });
+        if (!queue.hasAttributes(attributes)) {
+            throw SqsErrors.error(QueueNameExistsException.builder(), "QueueAlreadyExists",
+                    "A queue already exists with the same name and a different value for attribute(s)");
+        }
+        return CreateQueueResponse.builder().queueUrl(queue.url).build();
+    }
+
+    @Override
+    public GetQueueUrlResponse getQueueUrl(GetQueueUrlRequest request) {
+        InMemoryQueue queue = queues.get(request.queueName());
+        if (isNull(queue)) {
+            throw queueDoesNotExist();
+        }
+        return GetQueueUrlResponse.builder().queueUrl(queue.url).build();
+    }
+
+    @Override
+    public ListQueuesResponse listQueues(ListQueuesRequest request) {
+        String prefix = nonNull(request.queueNamePrefix()) ? request.queueNamePrefix() : "";
+        List<String> urls = new ArrayList<>();
+        for (InMemoryQueue queue : queues.values()) {
+            if (queue.name.startsWith(prefix)) {
+                urls.add(queue.url);
+            }
+        }
+        urls.sort(null);
+        return ListQueuesResponse.builder().queueUrls(urls).build();
+    }
+
+    @Override
+    public DeleteQueueResponse deleteQueue(DeleteQueueRequest request) {
+        InMemoryQueue queue = queueForUrl(request.queueUrl());
+        queues.remove(queue.name, queue);
+        queue.purge();
+        return DeleteQueueResponse.builder().build();
+    }
+
+    @Override
+    public PurgeQueueResponse purgeQueue(PurgeQueueRequest request) {
+        queueForUrl(request.queueUrl()).purge();
+        return PurgeQueueResponse.builder().build();
+    }
+
+    @Override
+    public GetQueueAttributesResponse getQueueAttributes(GetQueueAttributesRequest request) {
+        return GetQueueAttributesResponse.builder()
+                .attributes(queueForUrl(request.queueUrl()).getAttributes(request.attributeNames()))
+                .build();
+    }
+
+    @Override
+    public SetQueueAttributesResponse setQueueAttributes(SetQueueAttributesRequest request) {
+        queueForUrl(request.queueUrl()).setAttributes(request.attributes());
+        return SetQueueAttributesResponse.builder().build();
+    }
+
+    @Override
+    public ListDeadLetterSourceQueuesResponse listDeadLetterSourceQueues(ListDeadLetterSourceQueuesRequest request) {
+        String arn = queueForUrl(request.queueUrl()).arn;
+        List<String> urls = new ArrayList<>();
+        for (InMemoryQueue queue : queues.values()) {
+            if (arn.equals(queue.getDeadLetterTargetArn())) {
+                urls.add(queue.url);
+            }
+        }
+        urls.sort(null);
+        return ListDeadLetterSourceQueuesResponse.builder().queueUrls(urls).build();
+    }
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest request) {
+        StoredMessage message = queueForUrl(request.queueUrl()).send(request.messageBody(),
+                request.messageAttributes(), request.delaySeconds(), request.messageGroupId(),
+                request.messageDeduplicationId());
+        return SendMessageResponse.builder()
+                .messageId(message.messageId)
+                .md5OfMessageBody(md5(message.body))
+                .sequenceNumber(message.sequenceNumber)
+                .build();
+    }
+
+    @Override
+    public SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest request) {
+        InMemoryQueue queue = queueForUrl(request.queueUrl());
+        validateBatch(request.entries(), SendMessageBatchRequestEntry::id);
+        long totalBytes = 0;
+        for (SendMessageBatchRequestEntry entry : request.entries()) {
+            totalBytes += nonNull(entry.messageBody()) ? InMemoryQueue.utf8Length(entry.messageBody()) : 0;
+        }
+        if (totalBytes > MAX_BATCH_BYTES) {
+            throw SqsErrors.error(BatchRequestTooLongException.builder(),
+                    "AWS.SimpleQueueService.BatchRequestTooLong", "Batch requests cannot be longer than "
+                            + MAX_BATCH_BYTES + " bytes.");
+        }
+
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>(request.entries().size());
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : request.entries()) {
+            try {
+                StoredMessage message = queue.send(entry.messageBody(), entry.messageAttributes(),
+                        entry.delaySeconds(), entry.messageGroupId(), entry.messageDeduplicationId());
+                successful.add(SendMessageBatchResultEntry.builder()
+                        .id(entry.id())
+                        .messageId(message.messageId)
+                        .md5OfMessageBody(md5(message.body))
+                        .sequenceNumber(message.sequenceNumber)
+                        .build());
+            } catch (SqsException e) {
+                failed.add(toErrorEntry(entry.id(), e));
+            }
+        }
+        return SendMessageBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        InMemoryQueue queue = queueForUrl(request.queueUrl());
+        int maxNumberOfMessages = nonNull(request.maxNumberOfMessages()) ? request.maxNumberOfMessages() : 1;
+        if (maxNumberOfMessages < 1 || maxNumberOfMessages > MAX_BATCH_ENTRIES) {
+            throw SqsErrors.invalidParameter("Value " + maxNumberOfMessages
+                    + " for parameter MaxNumberOfMessages is invalid. Reason: Must be between 1 and 10, if provided.");
+        }
+        int waitTimeSeconds = nonNull(request.waitTimeSeconds())
+                ? request.waitTimeSeconds()
+                : queue.getReceiveMessageWaitTimeSeconds();
+        if (waitTimeSeconds < 0 || waitTimeSeconds > 20) {
+            throw SqsErrors.invalidParameter("Value " + waitTimeSeconds
+                    + " for parameter WaitTimeSeconds is invalid. Reason: Must be >= 0 and <= 20, if provided.");
+        }
+        int visibility = nonNull(request.visibilityTimeout())
+                ? request.visibilityTimeout()
+                : queue.getVisibilityTimeout();
+        if (visibility < 0 || visibility > InMemoryQueue.MAX_VISIBILITY_TIMEOUT) {
+            throw SqsErrors.invalidParameter("Value " + visibility + " for parameter VisibilityTimeout is invalid.");
+        }
+
+        List<StoredMessage> deadLetters = new ArrayList<>();
+        List<Message> messages = queue.receive(maxNumberOfMessages, waitTimeSeconds, visibility,
+                request.attributeNamesAsStrings(), request.messageAttributeNames(), deadLetters);
+        // moved outside the source queue's lock, two queues may well be each other's dead-letter queue
+        redrive(queue, deadLetters);
+        return ReceiveMessageResponse.builder().messages(messages).build();
+    }
+
+    @Override
+    public DeleteMessageResponse deleteMessage(DeleteMessageRequest request) {
+        queueForUrl(request.queueUrl()).delete(validReceiptHandle(request.receiptHandle()));
+        return DeleteMessageResponse.builder().build();
+    }
+
+    @Override
+    public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+        InMemoryQueue queue = queueForUrl(request.queueUrl());
+        validateBatch(request.entries(), DeleteMessageBatchRequestEntry::id);
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>(request.entries().size());
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (DeleteMessageBatchRequestEntry entry : request.entries()) {
+            try {
+                queue.delete(validReceiptHandle(entry.receiptHandle()));
+                successful.add(DeleteMessageBatchResultEntry.builder().id(entry.id()).build());
+            } catch (SqsException e) {
+                failed.add(toErrorEntry(entry.id(), e));
+            }
+        }
+        return DeleteMessageBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        queueForUrl(request.queueUrl()).changeVisibility(validReceiptHandle(request.receiptHandle()),
+                nonNull(request.visibilityTimeout()) ? request.visibilityTimeout() : -1);
+        return ChangeMessageVisibilityResponse.builder().build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(
+            ChangeMessageVisibilityBatchRequest request) {
+        InMemoryQueue queue = queueForUrl(request.queueUrl());
+        validateBatch(request.entries(), ChangeMessageVisibilityBatchRequestEntry::id);
+        List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>(request.entries().size());
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (ChangeMessageVisibilityBatchRequestEntry entry : request.entries()) {
+            try {
+                queue.changeVisibility(validReceiptHandle(entry.receiptHandle()),
+                        nonNull(entry.visibilityTimeout()) ? entry.visibilityTimeout() : -1);
+                successful.add(ChangeMessageVisibilityBatchResultEntry.builder().id(entry.id()).build());
+            } catch (SqsException e) {
+                failed.add(toErrorEntry(entry.id(), e));
+            }
+        }
+        return ChangeMessageVisibilityBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    private void redrive(InMemoryQueue source, List<StoredMessage> deadLetters) {
+        if (deadLetters.isEmpty()) {
+            return;
+        }
+        String targetArn = source.getDeadLetterTargetArn();
+        InMemoryQueue target = nonNull(targetArn) && targetArn.startsWith(ARN_PREFIX)
+                ? queues.get(targetArn.substring(ARN_PREFIX.length()))
+                : null;
+        if (isNull(target)) {
+            AsyncLogger.error("Dead-letter queue %s of %s does not exist, %d messages dropped",
+                    targetArn, source.name, deadLetters.size());
+            return;
+        }
+        for (StoredMessage message : deadLetters) {
+            target.acceptRedriven(message);
+        }
+    }
+
+    private InMemoryQueue queueForUrl(String queueUrl) {
+        InMemoryQueue queue = nonNull(queueUrl) && queueUrl.startsWith(URL_PREFIX)
+                ? queues.get(queueUrl.substring(URL_PREFIX.length()))
+                : null;
+        if (isNull(queue)) {
+            throw queueDoesNotExist();
+        }
+        return queue;
+    }
+
+    private static <E> void validateBatch(List<E> entries, Function<E, String> id) {
+        if (entries.isEmpty()) {
+            throw SqsErrors.error(EmptyBatchRequestException.builder(),
+                    "AWS.SimpleQueueService.EmptyBatchRequest", "There should be at least one batch entry.");
+        }
+        if (entries.size() > MAX_BATCH_ENTRIES) {
+            throw SqsErrors.error(TooManyEntriesInBatchRequestException.builder(),
+                    "AWS.SimpleQueueService.TooManyEntriesInBatchRequest",
+                    "Maximum number of entries per request are " + MAX_BATCH_ENTRIES + ".");
+        }
+        Set<String> ids = new HashSet<>();
+        for (E entry : entries) {
+            if (!ids.add(id.apply(entry))) {
+                throw SqsErrors.error(BatchEntryIdsNotDistinctException.builder(),
+                        "AWS.SimpleQueueService.BatchEntryIdsNotDistinct",
+                        "Id " + id.apply(entry) + " repeated.");
+            }
+        }
+    }
+
+    private static String validReceiptHandle(String receiptHandle) {
+        if (isNull(receiptHandle) || receiptHandle.indexOf('#') < 0) {
+            throw SqsErrors.error(ReceiptHandleIsInvalidException.builder(), "ReceiptHandleIsInvalid",
+                    "The input receipt handle \"" + receiptHandle + "\" is not a valid receipt handle.");
+        }
+        return receiptHandle;
+    }
+
+    private static BatchResultErrorEntry toErrorEntry(String id, SqsException e) {
+        return BatchResultErrorEntry.builder()
+                .id(id)
+                .code(e.awsErrorDetails().errorCode())
+                .message(e.awsErrorDetails().errorMessage())
+                .senderFault(true)
+                .build();
+    }
+
+    private static SqsException queueDoesNotExist() {
+        return SqsErrors.error(QueueDoesNotExistException.builder(), "AWS.SimpleQueueService.NonExistentQueue",
+                "The specified queue does not exist for this wsdl version.");
+    }
+
+    private static String md5(String body) {
+        byte[] digest = MD5.get().digest(body.getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package com.message.broker;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+/*
+ * Builds the same exceptions, error codes included, that the AWS client throws for a failed call.
+ */
+final class SqsErrors {
+
+    static final String INVALID_PARAMETER_VALUE = "InvalidParameterValue";
+    static final String INVALID_ATTRIBUTE_VALUE = "InvalidAttributeValue";
+    static final String MISSING_PARAMETER = "MissingParameter";
+
+    private SqsErrors() {
+    }
+
+    static SqsException error(SqsException.Builder builder, String errorCode, String message) {
+        return (SqsException) builder
+                .message(message)
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(errorCode)
+                        .errorMessage(message)
+                        .serviceName("Sqs")
+                        .build())
+                .build();
+    }
+
+    static SqsException invalidParameter(String message) {
+        return error(SqsException.builder(), INVALID_PARAMETER_VALUE, message);
+    }
+}
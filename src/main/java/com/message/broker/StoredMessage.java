@@ -0,0 +1,38 @@
+package com.message.broker;
+
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.Map;
+
+/*
+ * A message held by an InMemoryQueue. The mutable fields are only touched while holding the lock of that queue.
+ */
+final class StoredMessage {
+
+    final String messageId;
+    final String body;
+    final Map<String, MessageAttributeValue> messageAttributes;
+    final long sentTimestamp;
+    final String groupId;
+    final String deduplicationId;
+
+    String sequenceNumber;
+    int receiveCount;
+    long firstReceiveTimestamp;
+    // receipt handle of the current receive, null while the message is visible or delayed
+    String receiptHandle;
+    // bumped on every receive and visibility change; timers of an older generation are ignored
+    int generation;
+    boolean delayed;
+    boolean deleted;
+
+    StoredMessage(String messageId, String body, Map<String, MessageAttributeValue> messageAttributes,
+                  long sentTimestamp, String groupId, String deduplicationId) {
+        this.messageId = messageId;
+        this.body = body;
+        this.messageAttributes = messageAttributes;
+        this.sentTimestamp = sentTimestamp;
+        this.groupId = groupId;
+        this.deduplicationId = deduplicationId;
+    }
+}
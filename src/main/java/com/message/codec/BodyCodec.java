@@ -0,0 +1,274 @@
+package com.message.codec;
+
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Opt-in compression of message bodies (-Dsqs.compression.codec=gzip|deflate, default none).
+ *
+ * Bodies of at least sqs.compression.thresholdBytes (default 1024) UTF-8 bytes are compressed and Base64 encoded,
+ * which keeps them within the characters SQS accepts; the codec is recorded in the ContentEncoding message attribute.
+ * A body that would not get smaller is sent as is. Decoding only looks at the attribute, so consumers read compressed
+ * and plain messages alike whatever their own setting is.
+ *
+ * Deflater, Inflater, CRC32 and the byte buffers are kept per thread and reset between messages; the hot path does
+ * not create a stream or a codec per message.
+ */
+public class BodyCodec {
+
+    public static final String ENCODING_ATTRIBUTE = "ContentEncoding";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final String CODEC = SQSConfiguration.getString("sqs.compression.codec", "none").toLowerCase();
+    private static final int THRESHOLD_BYTES = SQSConfiguration.getInt("sqs.compression.thresholdBytes", 1024);
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private static final byte[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private BodyCodec() {
+    }
+
+    public static boolean isEnabled() {
+        return GZIP.equals(CODEC) || DEFLATE.equals(CODEC);
+    }
+
+    /**
+     * Compresses the body if the codec is enabled and it pays off. The returned body is the one to send; if it was
+     * compressed the ContentEncoding attribute has been added to messageAttributes.
+     */
+    public static String encode(String body, Map<String, MessageAttributeValue> messageAttributes) {
+        if (!isEnabled() || isNull(body) || body.length() < THRESHOLD_BYTES / 3) {
+            return body;
+        }
+        Buffers buffers = BUFFERS.get();
+        byte[] plain = body.getBytes(StandardCharsets.UTF_8);
+        if (plain.length < THRESHOLD_BYTES) {
+            return body;
+        }
+
+        int length = compress(buffers, plain, GZIP.equals(CODEC));
+        int encodedLength = 4 * ((length + 2) / 3);
+        if (encodedLength >= plain.length) {
+            return body;
+        }
+        byte[] encoded = buffers.encoded(encodedLength);
+        encodeBase64(buffers.compressed, length, encoded);
+        Metrics.counter("sqs_compressed_messages_total", "Message bodies sent compressed", "codec", CODEC).increment();
+        Metrics.counter("sqs_compression_saved_bytes_total", "Body bytes saved by compression", "codec", CODEC)
+                .add(plain.length - encodedLength);
+        messageAttributes.put(ENCODING_ATTRIBUTE, MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue(CODEC)
+                .build());
+        return new String(encoded, 0, encodedLength, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the body of the message as it was sent, decompressing it if it carries the ContentEncoding attribute.
+     */
+    public static String decode(Message message) {
+        MessageAttributeValue encoding = message.hasMessageAttributes()
+                ? message.messageAttributes().get(ENCODING_ATTRIBUTE)
+                : null;
+        if (isNull(encoding)) {
+            return message.body();
+        }
+        return decode(message.body(), encoding.stringValue());
+    }
+
+    public static String decode(String body, String encoding) {
+        boolean gzip = GZIP.equalsIgnoreCase(encoding);
+        if (!gzip && !DEFLATE.equalsIgnoreCase(encoding)) {
+            throw new IllegalArgumentException("Unsupported " + ENCODING_ATTRIBUTE + " " + encoding);
+        }
+        Buffers buffers = BUFFERS.get();
+        byte[] encoded = body.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] compressed = buffers.compressed(encoded.length);
+        int length;
+        try {
+            length = Base64.getDecoder().decode(encoded, compressed);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Message body is not valid Base64 for " + encoding, e);
+        }
+        return decompress(buffers, compressed, length, gzip);
+    }
+
+    private static int compress(Buffers buffers, byte[] plain, boolean gzip) {
+        Deflater deflater = buffers.deflater;
+        deflater.reset();
+        deflater.setInput(plain);
+        deflater.finish();
+
+        int position = 0;
+        if (gzip) {
+            buffers.compressed(GZIP_HEADER.length);
+            System.arraycopy(GZIP_HEADER, 0, buffers.compressed, 0, GZIP_HEADER.length);
+            position = GZIP_HEADER.length;
+        }
+        while (!deflater.finished()) {
+            if (position == buffers.compressed.length) {
+                buffers.grow();
+            }
+            position += deflater.deflate(buffers.compressed, position, buffers.compressed.length - position);
+        }
+        if (gzip) {
+            CRC32 crc = buffers.crc;
+            crc.reset();
+            crc.update(plain);
+            buffers.compressed(position + 8);
+            writeIntLE(buffers.compressed, position, (int) crc.getValue());
+            writeIntLE(buffers.compressed, position + 4, plain.length);
+            position += 8;
+        }
+        return position;
+    }
+
+    private static String decompress(Buffers buffers, byte[] compressed, int length, boolean gzip) {
+        int offset = gzip ? gzipHeaderLength(compressed, length) : 0;
+        Inflater inflater = buffers.inflater;
+        inflater.reset();
+        inflater.setInput(compressed, offset, length - offset);
+
+        byte[] plain = buffers.plain;
+        int position = 0;
+        try {
+            while (!inflater.finished()) {
+                if (position == plain.length) {
+                    plain = buffers.growPlain();
+                }
+                int inflated = inflater.inflate(plain, position, plain.length - position);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated compressed message body");
+                }
+                position += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed message body", e);
+        }
+        if (gzip) {
+            CRC32 crc = buffers.crc;
+            crc.reset();
+            crc.update(plain, 0, position);
+            int trailer = length - inflater.getRemaining();
+            if (trailer + 8 > length || readIntLE(compressed, trailer) != (int) crc.getValue()) {
+                throw new IllegalArgumentException("Compressed message body failed its CRC check");
+            }
+        }
+        return new String(plain, 0, position, StandardCharsets.UTF_8);
+    }
+
+    private static int gzipHeaderLength(byte[] data, int length) {
+        if (length < 18 || ((data[0] & 0xff) | (data[1] & 0xff) << 8) != GZIP_MAGIC || data[2] != Deflater.DEFLATED) {
+            throw new IllegalArgumentException("Message body is not in GZIP format");
+        }
+        int flags = data[3] & 0xff;
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            position += 2 + ((data[position] & 0xff) | (data[position + 1] & 0xff) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            while (position < length && data[position++] != 0) {
+            }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (position < length && data[position++] != 0) {
+            }
+        }
+        if ((flags & FHCRC) != 0) {
+            position += 2;
+        }
+        if (position >= length) {
+            throw new IllegalArgumentException("Message body is not in GZIP format");
+        }
+        return position;
+    }
+
+    /*
+     * Standard padded Base64 of data[0, length) into out; Base64.Encoder only takes whole arrays.
+     */
+    private static void encodeBase64(byte[] data, int length, byte[] out) {
+        int position = 0;
+        int i = 0;
+        for (; i + 2 < length; i += 3) {
+            int bits = (data[i] & 0xff) << 16 | (data[i + 1] & 0xff) << 8 | (data[i + 2] & 0xff);
+            out[position++] = BASE64[bits >>> 18];
+            out[position++] = BASE64[(bits >>> 12) & 0x3f];
+            out[position++] = BASE64[(bits >>> 6) & 0x3f];
+            out[position++] = BASE64[bits & 0x3f];
+        }
+        if (i < length) {
+            int bits = (data[i] & 0xff) << 16 | (i + 1 < length ? (data[i + 1] & 0xff) << 8 : 0);
+            out[position++] = BASE64[bits >>> 18];
+            out[position++] = BASE64[(bits >>> 12) & 0x3f];
+            out[position++] = i + 1 < length ? BASE64[(bits >>> 6) & 0x3f] : (byte) '=';
+            out[position] = '=';
+        }
+    }
+
+    private static void writeIntLE(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private static class Buffers {
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private byte[] compressed = new byte[8 * 1024];
+        private byte[] encoded = new byte[8 * 1024];
+        private byte[] plain = new byte[32 * 1024];
+
+        byte[] compressed(int minLength) {
+            if (compressed.length < minLength) {
+                compressed = Arrays.copyOf(compressed, Math.max(minLength, compressed.length * 2));
+            }
+            return compressed;
+        }
+
+        byte[] encoded(int minLength) {
+            if (encoded.length < minLength) {
+                encoded = new byte[Math.max(minLength, encoded.length * 2)];
+            }
+            return encoded;
+        }
+
+        void grow() {
+            compressed = Arrays.copyOf(compressed, compressed.length * 2);
+        }
+
+        byte[] growPlain() {
+            plain = Arrays.copyOf(plain, plain.length * 2);
+            return plain;
+        }
+    }
+}
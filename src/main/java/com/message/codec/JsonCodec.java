@@ -0,0 +1,63 @@
+package com.message.codec;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Shared JSON codec for the endpoints.
+ *
+ * ObjectMapper configuration is expensive and ObjectReader/ObjectWriter are immutable and thread-safe, so they are
+ * built once and reused by every request. Request bodies are bound straight from the servlet input stream into typed
+ * payload objects, responses are written compactly (no pretty printing) straight to the servlet writer.
+ */
+public class JsonCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            // fields an endpoint does not know about are ignored
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            // the servlet container owns the request and response streams
+            .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+    private static final ObjectWriter NDJSON_WRITER = WRITER.withRootValueSeparator("\n");
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> READERS = new ConcurrentHashMap<>();
+
+    private JsonCodec() {
+    }
+
+    public static <T> T read(InputStream in, Class<T> type) throws IOException {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor).readValue(in);
+    }
+
+    public static <T> T read(String json, Class<T> type) throws IOException {
+        return READERS.computeIfAbsent(type, MAPPER::readerFor).readValue(json);
+    }
+
+    public static void write(Writer out, Object value) throws IOException {
+        WRITER.writeValue(out, value);
+    }
+
+    public static String writeValueAsString(Object value) throws IOException {
+        return WRITER.writeValueAsString(value);
+    }
+
+    /**
+     * Opens a newline-delimited JSON stream: every value written to the returned writer becomes one line.
+     */
+    public static SequenceWriter ndjson(Writer out) throws IOException {
+        return NDJSON_WRITER.writeValues(out);
+    }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+}
@@ -0,0 +1,286 @@
+package com.message.endpoints;
+
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.processing.DelayedDelivery;
+import com.message.request.SendMessagePayload;
+import com.message.response.IngestLineResult;
+import com.message.response.IngestSummary;
+import com.message.response.MessageResponseWriter;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import com.message.util.SendMessageBatcher;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Bulk ingest: the request body is NDJSON, one SendMessage payload per line, optionally sent with
+ * Content-Encoding: gzip. Lines are parsed one at a time as the body streams in and packed per queue into
+ * SendMessageBatch calls of up to 10 entries / 256 KB, with up to sqs.ingest.maxInFlightBatches (default 8) batches in
+ * flight; reading pauses while all of them are busy. Memory therefore stays bounded by the in-flight and partially
+ * filled batches, whatever the size of the body. The batches of a FIFO queue are sent one after the other, so that
+ * its message groups keep their input order.
+ *
+ * The response is NDJSON as well: one line per input line, {"line":n,"messageId":...} or {"line":n,"error":...},
+ * written as the batches complete (so not in input order), then a summary line with "done":true. A line delayed
+ * for more than 900 seconds is scheduled through DelayedDelivery instead and reported with its "delayed-" id.
+ */
+public class BulkSendMessage extends HttpServlet {
+
+    private static final int MAX_IN_FLIGHT_BATCHES = Math.max(1,
+            SQSConfiguration.getInt("sqs.ingest.maxInFlightBatches", 8));
+    // partially filled batches of more queues than this are sent as they are
+    private static final int MAX_PENDING_QUEUES = 16;
+
+    // runs the blocking batch sends when the async client is not enabled
+    private static final ExecutorService SENDERS = senderPool();
+
+    public void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException {
+
+        resp.setContentType(MessageResponseWriter.NDJSON);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setStatus(200);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body(req), StandardCharsets.UTF_8));
+             PrintWriter writer = resp.getWriter()) {
+            Ingest ingest = new Ingest(writer, req.getHeader("RequestCorrelationId"));
+            String line;
+            long number = 0;
+            while (nonNull(line = reader.readLine())) {
+                number++;
+                if (!line.isBlank()) {
+                    ingest.add(number, line);
+                }
+            }
+            ingest.finish(number);
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+
+    private static ExecutorService senderPool() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(MAX_IN_FLIGHT_BATCHES, runnable -> {
+            Thread thread = new Thread(runnable, "ingest-sender-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private InputStream body(HttpServletRequest req) throws IOException {
+        InputStream in = req.getInputStream();
+        return "gzip".equalsIgnoreCase(req.getHeader("Content-Encoding")) ? new GZIPInputStream(in, 8192) : in;
+    }
+
+    /*
+     * State of one ingest request. Results are written from the threads completing the batches, so every write
+     * holds the writer's lock.
+     */
+    private static class Ingest {
+        private final PrintWriter writer;
+        private final String correlationId;
+        private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT_BATCHES);
+        private final Map<String, PendingBatch> pending = new LinkedHashMap<>();
+        // last batch dispatched per FIFO queue, completed once it is done; only used by the reading thread
+        private final Map<String, CompletableFuture<?>> fifoTails = new HashMap<>();
+        private final AtomicLong sent = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        Ingest(PrintWriter writer, String correlationId) {
+            this.writer = writer;
+            this.correlationId = correlationId;
+        }
+
+        void add(long number, String line) throws InterruptedException {
+            SendMessageRequest request;
+            try {
+                SendMessagePayload payload = JsonCodec.read(line, SendMessagePayload.class);
+                payload.validate();
+                request = SendMessage.toSendMessageRequest(payload, SendMessage.resolveQueueUrl(payload),
+                        correlationId);
+                if (payload.getDelay() > DelayedDelivery.MAX_NATIVE_DELAY_SECONDS) {
+                    String messageId = DelayedDelivery.schedule(request, payload.getDelay());
+                    sent.incrementAndGet();
+                    write(JsonCodec.writeValueAsString(IngestLineResult.sent(number, messageId)));
+                    flush();
+                    return;
+                }
+            } catch (IOException | IllegalArgumentException | SdkException e) {
+                fail(number, e.getLocalizedMessage());
+                flush();
+                return;
+            }
+
+            long size = SendMessageBatcher.sizeOf(request.messageBody(), request.messageAttributes());
+            if (size > SendMessageBatcher.MAX_BATCH_BYTES) {
+                fail(number, "message is larger than 256 KB");
+                flush();
+                return;
+            }
+            PendingBatch batch = pending.get(request.queueUrl());
+            if (nonNull(batch) && batch.bytes + size > SendMessageBatcher.MAX_BATCH_BYTES) {
+                dispatch(pending.remove(request.queueUrl()));
+                batch = null;
+            }
+            if (isNull(batch)) {
+                if (pending.size() == MAX_PENDING_QUEUES) {
+                    dispatchAll();
+                }
+                batch = new PendingBatch(request.queueUrl());
+                pending.put(request.queueUrl(), batch);
+            }
+            batch.add(number, request, size);
+            if (batch.entries.size() == SendMessageBatcher.MAX_BATCH_ENTRIES) {
+                dispatch(pending.remove(request.queueUrl()));
+            }
+        }
+
+        void finish(long lines) throws InterruptedException, IOException {
+            dispatchAll();
+            // every permit back means every batch has reported its results
+            inFlight.acquire(MAX_IN_FLIGHT_BATCHES);
+            inFlight.release(MAX_IN_FLIGHT_BATCHES);
+            write(JsonCodec.writeValueAsString(new IngestSummary(lines, sent.get(), failed.get())));
+            flush();
+        }
+
+        private void dispatchAll() throws InterruptedException {
+            for (PendingBatch batch : pending.values()) {
+                dispatch(batch);
+            }
+            pending.clear();
+        }
+
+        private void dispatch(PendingBatch batch) throws InterruptedException {
+            inFlight.acquire();
+            SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                    .queueUrl(batch.queueUrl)
+                    .entries(batch.entries)
+                    .build();
+            CompletableFuture<SendMessageBatchResponse> response;
+            if (batch.queueUrl.endsWith(".fifo")) {
+                // one batch at a time per FIFO queue, so the messages of a group reach SQS in input order
+                CompletableFuture<?> previous = fifoTails.getOrDefault(batch.queueUrl,
+                        CompletableFuture.completedFuture(null));
+                response = previous.thenCompose(done -> send(request));
+                fifoTails.put(batch.queueUrl, response.handle((result, error) -> null));
+            } else {
+                response = send(request);
+            }
+            response.whenComplete((result, error) -> {
+                try {
+                    if (nonNull(error)) {
+                        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        for (SendMessageBatchRequestEntry entry : batch.entries) {
+                            fail(Long.parseLong(entry.id()), cause.getLocalizedMessage());
+                        }
+                    } else {
+                        for (SendMessageBatchResultEntry entry : result.successful()) {
+                            sent.incrementAndGet();
+                            write(JsonCodec.writeValueAsString(
+                                    IngestLineResult.sent(Long.parseLong(entry.id()), entry.messageId())));
+                        }
+                        for (BatchResultErrorEntry entry : result.failed()) {
+                            fail(Long.parseLong(entry.id()), entry.code() + ": " + entry.message());
+                        }
+                    }
+                    Metrics.counter("sqs_ingested_messages_total", "Messages sent through the bulk ingest endpoint")
+                            .add(nonNull(result) ? result.successful().size() : 0);
+                    flush();
+                } catch (IOException e) {
+                    AsyncLogger.error("Ingest result not delivered: %s", e.getLocalizedMessage());
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+
+        private static CompletableFuture<SendMessageBatchResponse> send(SendMessageBatchRequest request) {
+            try {
+                return SQSUtility.isAsyncEnabled()
+                        ? SQSUtility.sendMessageBatchAsync(request)
+                        : CompletableFuture.supplyAsync(() -> SQSUtility.sendMessageBatch(request), SENDERS);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private void fail(long number, String error) {
+            failed.incrementAndGet();
+            try {
+                write(JsonCodec.writeValueAsString(IngestLineResult.failed(number, error)));
+            } catch (IOException e) {
+                AsyncLogger.error("Ingest result not delivered: %s", e.getLocalizedMessage());
+            }
+        }
+
+        private void write(String json) {
+            synchronized (writer) {
+                writer.print(json);
+                writer.print('\n');
+            }
+        }
+
+        private void flush() {
+            synchronized (writer) {
+                writer.flush();
+            }
+        }
+    }
+
+    private static class PendingBatch {
+        private final String queueUrl;
+        private final List<SendMessageBatchRequestEntry> entries = new ArrayList<>(
+                SendMessageBatcher.MAX_BATCH_ENTRIES);
+        private long bytes;
+
+        PendingBatch(String queueUrl) {
+            this.queueUrl = queueUrl;
+        }
+
+        void add(long number, SendMessageRequest request, long size) {
+            // the line number doubles as the batch entry id, so results map straight back to their lines
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(String.valueOf(number))
+                    .messageBody(request.messageBody())
+                    .messageAttributes(request.messageAttributes())
+                    .delaySeconds(request.delaySeconds())
+                    .messageGroupId(request.messageGroupId())
+                    .messageDeduplicationId(request.messageDeduplicationId())
+                    .build());
+            bytes += size;
+        }
+    }
+}
@@ -1,16 +1,17 @@
 package com.message.endpoints;
 
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.request.CreateQueuePayload;
+import com.message.util.LogicalQueue;
 import com.message.util.SQSUtility;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.json.JSONObject;
-import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
@@ -27,52 +28,42 @@ public class CreateQueue extends HttpServlet {
 
     public void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException {
-        String queueName = null;
-        String visibilityTimeOut = null;
-        Boolean longPolling = false;
-        String waitTimeSeconds = null;
         CreateQueueRequest.Builder builder = CreateQueueRequest.builder();
         Map<QueueAttributeName,String> queueAttributes = new HashMap<>();
 
-        // 1. Fetch and parse body from HttpServletRequest
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader bufferedReader = req.getReader()) {
-            String line = null;
-            while (nonNull(line = bufferedReader.readLine())) {
-                sb.append(line);
-            }
-
-            JSONObject jsonObject =  new JSONObject(sb.toString());
-            queueName = jsonObject.getString("queueName");
-            visibilityTimeOut = jsonObject.getString("visibilityTimeOut");
-            longPolling = jsonObject.getBoolean("longPolling");
-            waitTimeSeconds = jsonObject.getString("waitTimeSeconds");
-
-            if (nonNull(queueName)) {
-                builder.queueName(queueName);
-            }
-
-            if (nonNull(visibilityTimeOut)) {
-                queueAttributes.put(QueueAttributeName.VISIBILITY_TIMEOUT, visibilityTimeOut);
-            }
-
-            // LONG POLLING 1 : QUEUE CREATION.
-            if (longPolling && nonNull(waitTimeSeconds)) {
-                queueAttributes.put(QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS, waitTimeSeconds);
-            }
-
-            if(queueName.endsWith(".fifo")){
-                queueAttributes.put(QueueAttributeName.FIFO_QUEUE, Boolean.TRUE.toString());
-            }
-
-            if (!queueAttributes.keySet().isEmpty()) {
-                builder.attributes(queueAttributes);
-            }
-        } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
+        // 1. Bind body from HttpServletRequest
+        CreateQueuePayload payload;
+        try {
+            payload = JsonCodec.read(req.getInputStream(), CreateQueuePayload.class);
+            payload.validate();
+        } catch (IOException | IllegalArgumentException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
             throw new ServletException(e);
         }
 
+        String queueName = payload.getQueueName();
+        String visibilityTimeOut = payload.getVisibilityTimeOut();
+        String waitTimeSeconds = payload.getWaitTimeSeconds();
+
+        builder.queueName(queueName);
+        queueAttributes.put(QueueAttributeName.VISIBILITY_TIMEOUT, visibilityTimeOut);
+
+        // LONG POLLING 1 : QUEUE CREATION.
+        if (payload.getLongPolling() && nonNull(waitTimeSeconds)) {
+            queueAttributes.put(QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS, waitTimeSeconds);
+        }
+
+        if(queueName.endsWith(".fifo")){
+            queueAttributes.put(QueueAttributeName.FIFO_QUEUE, Boolean.TRUE.toString());
+        }
+
+        if (nonNull(payload.getShards())) {
+            createLogicalQueue(resp, payload, queueAttributes);
+            return;
+        }
+
+        builder.attributes(queueAttributes);
+
         String queueUrl = SQSUtility.createQueue(builder.build());
 
         // 4. Generate Response
@@ -80,13 +71,39 @@ public class CreateQueue extends HttpServlet {
             resp.setContentType("application/text");
             resp.setCharacterEncoding("UTF-8");
             resp.setStatus(201);
-            writer.format("Queue name %s created with visibilityTimeout %d with url %s",
+            writer.format("Queue name %s created with visibilityTimeout %s with url %s",
                     queueName, visibilityTimeOut,queueUrl);
             writer.flush();
         } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
+            AsyncLogger.error(e.getLocalizedMessage());
             throw new ServletException(e);
         }
 
     }
+
+    private void createLogicalQueue(HttpServletResponse resp, CreateQueuePayload payload,
+                                    Map<QueueAttributeName, String> queueAttributes) throws ServletException {
+        LogicalQueue logicalQueue;
+        try {
+            logicalQueue = LogicalQueue.provision(payload.getQueueName(), payload.getShards(), queueAttributes,
+                    payload.getDlQueueName(),
+                    nonNull(payload.getMaxReceiveCount()) ? payload.getMaxReceiveCount() : 5);
+        } catch (IllegalArgumentException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+
+        try (PrintWriter writer = resp.getWriter()) {
+            resp.setContentType("application/text");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setStatus(201);
+            writer.format("Logical queue %s created with visibilityTimeout %s over %d shards %s",
+                    logicalQueue.getName(), payload.getVisibilityTimeOut(), logicalQueue.getShardCount(),
+                    logicalQueue.getShardNames());
+            writer.flush();
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+    }
 }
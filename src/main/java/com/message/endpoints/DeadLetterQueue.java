@@ -1,15 +1,15 @@
 package com.message.endpoints;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.request.DeadLetterQueuePayload;
 import com.message.util.SQSUtility;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.json.JSONObject;
 import software.amazon.awssdk.services.sqs.model.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
@@ -23,34 +23,27 @@ import static java.util.Objects.nonNull;
 public class DeadLetterQueue extends HttpServlet {
 
     public void doPost(HttpServletRequest req, HttpServletResponse resp)
-            throws ServletException, JsonProcessingException {
+            throws ServletException {
 
-        String queueName = null;
-        String queueVisibilityTimeout = null;
-        String dlQueueName = null;
-        String dlQueueVisibilityTimeout = null;
-
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader bufferedReader = req.getReader()) {
-            String line = null;
-            while (nonNull(line = bufferedReader.readLine())) {
-                sb.append(line);
-            }
-
-            JSONObject jsonObject =  new JSONObject(sb.toString());
-            queueName = jsonObject.getString("queueName");
-            queueVisibilityTimeout = jsonObject.getString("queueVisibilityTimeout");
-            dlQueueName = jsonObject.getString("dlQueueName");
-            dlQueueVisibilityTimeout = jsonObject.getString("dlQueueVisibilityTimeout");
-        } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
+        DeadLetterQueuePayload payload;
+        try {
+            payload = JsonCodec.read(req.getInputStream(), DeadLetterQueuePayload.class);
+            payload.validate();
+        } catch (IOException | IllegalArgumentException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
             throw new ServletException(e);
         }
-        
+
+        String queueName = payload.getQueueName();
+        String queueVisibilityTimeout = payload.getQueueVisibilityTimeout();
+        String dlQueueName = payload.getDlQueueName();
+        String dlQueueVisibilityTimeout = payload.getDlQueueVisibilityTimeout();
+
         String srcQueueUrl = SQSUtility.createQueue(setUpRequest(queueName, queueVisibilityTimeout));
         String dlQueueUrl = SQSUtility.createQueue(setUpRequest(dlQueueName, dlQueueVisibilityTimeout));
 
-        SQSUtility.linkDeadLetterQueue(srcQueueUrl, dlQueueUrl, 5);
+        SQSUtility.linkDeadLetterQueue(srcQueueUrl, dlQueueUrl,
+                nonNull(payload.getMaxReceiveCount()) ? payload.getMaxReceiveCount() : 5);
 
         try (PrintWriter writer = resp.getWriter()) {
             resp.setContentType("application/json");
@@ -59,7 +52,7 @@ public class DeadLetterQueue extends HttpServlet {
             writer.print("Dead Letter Queue created and added to source queue");
             writer.flush();
         } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
+            AsyncLogger.error(e.getLocalizedMessage());
             throw new ServletException(e);
         }
 
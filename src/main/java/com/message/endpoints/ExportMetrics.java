@@ -0,0 +1,23 @@
+package com.message.endpoints;
+
+import com.message.metrics.Metrics;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/*
+ * Exposes all registered metrics in the Prometheus text exposition format.
+ */
+public class ExportMetrics extends HttpServlet {
+
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain; version=0.0.4");
+        resp.setCharacterEncoding("UTF-8");
+        PrintWriter out = resp.getWriter();
+        Metrics.writePrometheus(out);
+        out.flush();
+    }
+}
@@ -0,0 +1,46 @@
+package com.message.endpoints;
+
+import com.message.util.CallRejectedException;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Turns calls the SQS client refused to make (CallRejectedException) into 429 / 503 with a Retry-After header instead
+ * of a 500, so that callers back off rather than retry straight away. Async endpoints answer through reject.
+ */
+public class LoadSheddingFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        try {
+            chain.doFilter(request, response);
+        } catch (ServletException | RuntimeException e) {
+            if (!reject((HttpServletResponse) response, e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Sends the rejection status if the error was caused by a CallRejectedException.
+     * @return whether a response was sent
+     */
+    public static boolean reject(HttpServletResponse resp, Throwable error) throws IOException {
+        CallRejectedException rejected = CallRejectedException.find(error);
+        if (isNull(rejected) || resp.isCommitted()) {
+            return false;
+        }
+        resp.setHeader("Retry-After", String.valueOf(rejected.getRetryAfterSeconds()));
+        resp.sendError(rejected.getStatus(), rejected.getMessage());
+        return true;
+    }
+}
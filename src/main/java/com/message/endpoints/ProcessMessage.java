@@ -1,9 +1,26 @@
 package com.message.endpoints;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.codec.BodyCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.MessageTracer;
+import com.message.metrics.Metrics;
+import com.message.processing.AdaptiveReceiveController;
+import com.message.processing.CostAwareBatch;
+import com.message.processing.CostModel;
+import com.message.processing.MessageGroupFencedException;
+import com.message.processing.MessageProcessingEngine;
+import com.message.processing.PrefetchingConsumer;
+import com.message.processing.PriorityReceiver;
+import com.message.processing.VisibilityLeaseManager;
+import com.message.response.MessageResponseWriter;
 import com.message.response.StandardMessageResponse;
+import com.message.store.ClaimCheck;
+import com.message.store.IdempotencyStore;
+import com.message.util.DeleteMessageBatcher;
+import com.message.util.LogicalQueue;
+import com.message.util.SQSConfiguration;
 import com.message.util.SQSUtility;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -11,13 +28,13 @@ import jakarta.servlet.http.HttpServletResponse;
 import software.amazon.awssdk.services.sqs.model.*;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 
 /*
@@ -25,135 +42,433 @@ import static java.util.Objects.nonNull;
  *
  * waitTimeSeconds - The length of time, in seconds, for which a ProcessMessage action waits for a message to arrive.
  *                   Valid values: An integer from 0 to 20 (seconds). Default: 0.
+ *
+ * On queues consumed adaptively (see AdaptiveReceiveController) both parameters may be left out; the controller's
+ * current batch size and long-poll time are used then.
+ *
+ * Instead of queueName, queueNames=urgent:8,bulk:1 consumes several queues by priority (priorityMode=weighted, the
+ * default, or strict), see PriorityReceiver.
  */
 public class ProcessMessage extends HttpServlet {
 
     public static final int VISIBILITY_INCREMENT = 10;
 
-    private static final Map<String, String> TEMP_IN_MEMORY_STORAGE = new HashMap<>();
+    private static final IdempotencyStore PROCESSED_MESSAGES = IdempotencyStore.fromConfiguration();
     public static final int BASE_TIME = 100;
 
-    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, JsonProcessingException {
+    private static final boolean ORDERED_GROUPS = SQSConfiguration.getBoolean("sqs.processing.orderedGroups", true);
+
+    static {
+        Metrics.gauge("sqs_dedupe_entries", "Message ids held by the idempotency store", PROCESSED_MESSAGES::size);
+        Metrics.gauge("sqs_dedupe_estimated_bytes", "Approximate heap used by the idempotency store",
+                PROCESSED_MESSAGES::getEstimatedBytes);
+        Metrics.counter("sqs_dedupe_hits_total", "Idempotency store lookups that found the message id",
+                PROCESSED_MESSAGES::getHitCount);
+        Metrics.counter("sqs_dedupe_misses_total", "Idempotency store lookups that did not find the message id",
+                PROCESSED_MESSAGES::getMissCount);
+        Metrics.gauge("sqs_processing_active_groups", "FIFO message groups with a message running or waiting",
+                MessageProcessingEngine.getInstance()::getActiveGroupCount);
+    }
+
+    public static IdempotencyStore getProcessedMessages() {
+        return PROCESSED_MESSAGES;
+    }
+
+    @Override
+    public void destroy() {
+        PROCESSED_MESSAGES.close();
+        ClaimCheck.close();
+    }
+
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
+
+        if (isNull(req.getParameter("queueName")) && nonNull(req.getParameter("queueNames"))) {
+            doGetByPriority(req, resp);
+            return;
+        }
 
         String queueName = req.getParameter("queueName");
-        Integer maxNumberOfMessages = Integer.parseInt(req.getParameter("maxNumberOfMessages"));
-        Integer waitTimeSeconds = Integer.parseInt(req.getParameter("waitTimeSeconds"));
+        AdaptiveReceiveController adaptiveController = AdaptiveReceiveController.forQueue(queueName);
+        Integer maxNumberOfMessages = nonNull(adaptiveController) && isNull(req.getParameter("maxNumberOfMessages"))
+                ? adaptiveController.getDecision().getBatchSize()
+                : Integer.parseInt(req.getParameter("maxNumberOfMessages"));
+        Integer waitTimeSeconds = nonNull(adaptiveController) && isNull(req.getParameter("waitTimeSeconds"))
+                ? adaptiveController.getDecision().getWaitTimeSeconds()
+                : Integer.parseInt(req.getParameter("waitTimeSeconds"));
         Boolean visibilityTimeoutExtensionAllowed = Boolean.parseBoolean(req.getParameter("visibilityTimeoutExtensionAllowed"));
 
-        String url = SQSUtility.createQueue(CreateQueueRequest.builder().queueName(queueName).build());
-        List<Message> messages = SQSUtility.receiveMessages(ReceiveMessageRequest.builder()
+        // a logical queue is received from its shards, which share their settings; shard 0 stands in for them
+        LogicalQueue logicalQueue = LogicalQueue.forName(queueName);
+        String url = SQSUtility.resolveQueueUrl(isNull(logicalQueue) ? queueName : logicalQueue.getShardNames().get(0));
+        String requestCorrelationId = req.getHeader("RequestCorrelationId");
+        Integer initialVisibilityTimeout = visibilityTimeoutExtensionAllowed ? getVisibilityTimeout(url) : null;
+        MessageResponseWriter responseWriter = MessageResponseWriter.forRequest(req, resp);
+        ReceiveMessageRequest.Builder receiveMessageRequestBuilder = ReceiveMessageRequest.builder()
                                                                 .queueUrl(url)
                                                                 .maxNumberOfMessages(maxNumberOfMessages)
                                                                 // LONG POLLING 3 : MESSAGE RECEIPT
                                                                 .waitTimeSeconds(waitTimeSeconds)
-                                                                .build());
-
-        List<StandardMessageResponse> httpResponse = new ArrayList<>();
+                                                                .messageAttributeNames(BodyCodec.ENCODING_ATTRIBUTE,
+                                                                        ClaimCheck.ATTRIBUTE,
+                                                                        MessageTracer.SENT_AT_ATTRIBUTE,
+                                                                        MessageTracer.CORRELATION_ATTRIBUTE);
+        if (queueName.endsWith(".fifo")) {
+            // needed to process each message group in its own ordered lane
+            receiveMessageRequestBuilder.attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+        }
+        ReceiveMessageRequest receiveMessageRequest = receiveMessageRequestBuilder.build();
 
-        for (Message message : messages) {
+        if (nonNull(logicalQueue)) {
+            // each message is deleted on the shard it came from
+            respond(req, resp, responseWriter, logicalQueue.receive(receiveMessageRequest, receiver())
+                    .thenCompose(byShard -> processShards(byShard, queueName, requestCorrelationId,
+                            initialVisibilityTimeout, responseWriter)));
+            return;
+        }
 
-            ScheduledExecutorService executor = null;
-            if (visibilityTimeoutExtensionAllowed) {
-                executor = Executors.newSingleThreadScheduledExecutor();
-                Integer initialVisibilityTimeout = getVisibilityTimeout(url);
-                VisibilityTimeoutState visibilityTimeoutState = new VisibilityTimeoutState(initialVisibilityTimeout);
-                executor.scheduleWithFixedDelay(() -> extendVisibilityTimeout(url, message, VISIBILITY_INCREMENT, visibilityTimeoutState),
-                                                initialVisibilityTimeout, VISIBILITY_INCREMENT, TimeUnit.SECONDS);
+        PrefetchingConsumer prefetchingConsumer = PrefetchingConsumer.forQueue(queueName);
+        if (nonNull(prefetchingConsumer)) {
+            // messages were already received in the background, drain them from the local buffer
+            List<PrefetchingConsumer.BufferedMessage> prefetched =
+                    prefetchingConsumer.drain(maxNumberOfMessages, waitTimeSeconds);
+            List<Message> messages = new ArrayList<>(prefetched.size());
+            int remainingVisibility = Integer.MAX_VALUE;
+            for (PrefetchingConsumer.BufferedMessage buffered : prefetched) {
+                messages.add(buffered.getMessage());
+                remainingVisibility = Math.min(remainingVisibility, buffered.getRemainingVisibilitySeconds());
             }
+            awaitAndRespond(responseWriter, processMessages(url, queueName, messages, requestCorrelationId,
+                    visibilityTimeoutExtensionAllowed ? remainingVisibility : null, responseWriter));
+            return;
+        }
 
-            //process message
-            Integer complexityFactor = Integer.parseInt(message.body().replaceAll("[^0-9]", ""));
-            String requestCorrelationId = req.getHeader("RequestCorrelationId");
-            processMessage(message.messageId(), complexityFactor, requestCorrelationId);
+        if (SQSUtility.isAsyncEnabled() && req.isAsyncSupported()) {
+            // LONG POLLING 4 : no container thread is held while SQS keeps the poll open
+            respondAsync(req, resp, responseWriter, SQSUtility.receiveMessagesAsync(receiveMessageRequest)
+                    .thenCompose(messages -> processMessages(url, queueName, messages, requestCorrelationId,
+                            initialVisibilityTimeout, responseWriter)));
+            return;
+        }
 
-            //create response
-            httpResponse.add(new StandardMessageResponse(message.messageId(),message.body(),queueName));
+        List<Message> messages = SQSUtility.receiveMessages(receiveMessageRequest);
+        awaitAndRespond(responseWriter, processMessages(url, queueName, messages, requestCorrelationId,
+                initialVisibilityTimeout, responseWriter));
+    }
 
-            //delete message
-            SQSUtility.deleteMessage(DeleteMessageRequest.builder()
-                                        .queueUrl(url)
-                                        .receiptHandle(message.receiptHandle())
-                                        .build());
+    private void doGetByPriority(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
+        PriorityReceiver priorityReceiver;
+        int maxNumberOfMessages;
+        int waitTimeSeconds;
+        try {
+            priorityReceiver = PriorityReceiver.forQueues(req.getParameter("queueNames"),
+                    "strict".equalsIgnoreCase(req.getParameter("priorityMode"))
+                            ? PriorityReceiver.Mode.STRICT
+                            : PriorityReceiver.Mode.WEIGHTED);
+            maxNumberOfMessages = Integer.parseInt(req.getParameter("maxNumberOfMessages"));
+            waitTimeSeconds = Integer.parseInt(req.getParameter("waitTimeSeconds"));
+        } catch (IllegalArgumentException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+        boolean visibilityTimeoutExtensionAllowed =
+                Boolean.parseBoolean(req.getParameter("visibilityTimeoutExtensionAllowed"));
+        String requestCorrelationId = req.getHeader("RequestCorrelationId");
+        MessageResponseWriter responseWriter = MessageResponseWriter.forRequest(req, resp);
+        ReceiveMessageRequest template = ReceiveMessageRequest.builder()
+                .maxNumberOfMessages(maxNumberOfMessages)
+                .waitTimeSeconds(waitTimeSeconds)
+                .messageAttributeNames(BodyCodec.ENCODING_ATTRIBUTE, ClaimCheck.ATTRIBUTE,
+                        MessageTracer.SENT_AT_ATTRIBUTE, MessageTracer.CORRELATION_ATTRIBUTE)
+                // the queues may mix FIFO and standard, the group id is simply absent on the latter
+                .attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString())
+                .build();
 
-            System.out.format("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = DELETED; TIME = %s %n",
-                    message.messageId(), complexityFactor, requestCorrelationId, LocalDateTime.now());
+        respond(req, resp, responseWriter, priorityReceiver.receive(template, receiver())
+                .thenCompose(byQueue -> {
+                    List<CompletableFuture<Void>> queues = new ArrayList<>(byQueue.size());
+                    for (Map.Entry<String, List<Message>> queue : byQueue.entrySet()) {
+                        String url = SQSUtility.resolveQueueUrl(queue.getKey());
+                        queues.add(processMessages(url, queue.getKey(), queue.getValue(), requestCorrelationId,
+                                visibilityTimeoutExtensionAllowed ? getVisibilityTimeout(url) : null,
+                                responseWriter));
+                    }
+                    return CompletableFuture.allOf(queues.toArray(new CompletableFuture[0]));
+                }));
+    }
 
-            if (nonNull(executor)) {
-                System.out.format("Executor closed for message %s %n", message.messageId());
-                executor.shutdownNow();
+    private static Function<ReceiveMessageRequest, CompletableFuture<List<Message>>> receiver() {
+        return SQSUtility.isAsyncEnabled()
+                ? SQSUtility::receiveMessagesAsync
+                : request -> CompletableFuture.completedFuture(SQSUtility.receiveMessages(request));
+    }
+
+    private void respond(HttpServletRequest req, HttpServletResponse resp, MessageResponseWriter responseWriter,
+                         CompletableFuture<Void> processing) throws ServletException {
+        if (SQSUtility.isAsyncEnabled() && req.isAsyncSupported()) {
+            respondAsync(req, resp, responseWriter, processing);
+        } else {
+            awaitAndRespond(responseWriter, processing);
+        }
+    }
+
+    private void respondAsync(HttpServletRequest req, HttpServletResponse resp, MessageResponseWriter responseWriter,
+                              CompletableFuture<Void> processing) {
+        AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(0);
+        processing.whenComplete((processed, error) -> {
+            try {
+                if (isNull(error)) {
+                    responseWriter.complete();
+                } else {
+                    AsyncLogger.error(error.getLocalizedMessage());
+                    if (!responseWriter.isCommitted() && !LoadSheddingFilter.reject(resp, error)) {
+                        resp.sendError(500, error.getLocalizedMessage());
+                    }
+                }
+            } catch (IOException | ServletException e) {
+                AsyncLogger.error(e.getLocalizedMessage());
+            } finally {
+                asyncContext.complete();
             }
+        });
+    }
+
+    private void awaitAndRespond(MessageResponseWriter responseWriter, CompletableFuture<Void> processing)
+            throws ServletException {
+        try {
+            processing.join();
+        } catch (CompletionException e) {
+            AsyncLogger.error(e.getCause().getLocalizedMessage());
+            if (responseWriter.isCommitted()) {
+                // part of an NDJSON stream is already out, end it with the lines written so far
+                responseWriter.complete();
+                return;
+            }
+            throw new ServletException(e.getCause());
         }
+        responseWriter.complete();
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(httpResponse);
+    /**
+     * Processes the messages of one receive in parallel and hands each StandardMessageResponse to the writer as soon
+     * as the message is done - including its delete, unless batched deletes are allowed to complete after the
+     * response (sqs.delete.batching.flushBeforeResponse=false).
+     * Cheaper messages start first and leases are sized from the predicted cost, see CostAwareBatch.
+     */
+    private CompletableFuture<Void> processMessages(String url, String queueName, List<Message> messages,
+                                                    String requestCorrelationId, Integer initialVisibilityTimeout,
+                                                    MessageResponseWriter responseWriter) {
+        Metrics.counter("sqs_messages_received_total", "Messages handed to ProcessMessage", "queue", queueName)
+                .add(messages.size());
+        CostModel costModel = CostModel.forQueue(queueName, BASE_TIME);
+        List<CostAwareBatch.Job> jobs = CostAwareBatch.prepare(costModel, deleteProcessedClaimChecks(url, messages),
+                message -> BodyCodec.decode(ClaimCheck.resolve(message)), ORDERED_GROUPS);
+        if (isNull(initialVisibilityTimeout) || jobs.isEmpty()) {
+            return processJobs(url, queueName, jobs, costModel, requestCorrelationId, responseWriter);
+        }
+        return CostAwareBatch.leaseUpfront(url, queueName, jobs, initialVisibilityTimeout,
+                        MessageProcessingEngine.getInstance().getConcurrencyLimit(queueName))
+                .thenCompose(leased -> processJobs(url, queueName, jobs, costModel, requestCorrelationId,
+                        responseWriter));
+    }
 
-        try (PrintWriter writer = resp.getWriter()) {
-            resp.setContentType("application/json");
-            resp.setCharacterEncoding("UTF-8");
-            resp.setStatus(201);
-            writer.print(json);
-            writer.flush();
-        } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
-            throw new ServletException(e);
+    /*
+     * A claim check of a message id processed already is a duplicate delivery whose payload may be released by now, so
+     * it is deleted without resolving the pointer - resolving it would fail before the idempotency check and leave the
+     * copy to cycle to the dead-letter queue. Returns the other messages.
+     */
+    private List<Message> deleteProcessedClaimChecks(String url, List<Message> messages) {
+        List<Message> remaining = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (!ClaimCheck.isClaimCheck(message) || !PROCESSED_MESSAGES.contains(message.messageId())) {
+                remaining.add(message);
+                continue;
+            }
+            AsyncLogger.info("MESSAGE = %s ; STATUS = ALREADY_PROCESSED ; claim check deleted unresolved",
+                    message.messageId());
+            CompletableFuture<Void> ack;
+            try {
+                ack = acknowledge(url, message);
+            } catch (RuntimeException e) {
+                ack = CompletableFuture.failedFuture(e);
+            }
+            ack.whenComplete((ignored, error) -> {
+                if (nonNull(error)) {
+                    AsyncLogger.error("MESSAGE = %s ; STATUS = DELETE_FAILED ; ERROR = %s",
+                            message.messageId(), error.getLocalizedMessage());
+                } else {
+                    // only still held if the delete of the first delivery failed
+                    ClaimCheck.release(message);
+                }
+            });
+        }
+        return remaining;
+    }
+
+    private CompletableFuture<Void> processJobs(String url, String queueName, List<CostAwareBatch.Job> jobs,
+                                                CostModel costModel, String requestCorrelationId,
+                                                MessageResponseWriter responseWriter) {
+        List<CompletableFuture<CompletableFuture<StandardMessageResponse>>> processed = new ArrayList<>();
+        List<CompletableFuture<StandardMessageResponse>> results = new ArrayList<>();
+        // the lane starts a task as soon as it is under its limit, so the cheapest jobs have to be submitted first
+        for (CostAwareBatch.Job job : CostAwareBatch.startOrder(jobs)) {
+            Message message = job.getMessage();
+            // FIFO: strictly ordered within the message group, groups run concurrently
+            CompletableFuture<CompletableFuture<StandardMessageResponse>> processing = MessageProcessingEngine
+                    .getInstance()
+                    .submitOrdered(queueName, job.getGroupId(), job.getPredictedNanos(),
+                            () -> handleMessage(url, queueName, job, costModel, requestCorrelationId));
+            processed.add(processing);
+            results.add(processing.thenCompose(Function.identity())
+                    .exceptionally(error -> skipIfFenced(message, error))
+                    .whenComplete((response, error) -> {
+                        if (nonNull(response)) {
+                            responseWriter.accept(response);
+                        }
+                    }));
         }
 
+        if (DeleteMessageBatcher.isEnabled()) {
+            // everything of this receive is processed, no point in waiting for the linger timer
+            CompletableFuture.allOf(processed.toArray(new CompletableFuture[0]))
+                    .whenComplete((done, error) -> DeleteMessageBatcher.getInstance().flush(url));
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
     }
 
-    private void extendVisibilityTimeout(String url, Message m,
-                                         int extendVisibilityTimeout, VisibilityTimeoutState visibilityTimeoutState) {
-        System.out.println("Visibility extended at " + LocalDateTime.now());
-        Integer visibilityTimeout = visibilityTimeoutState.getVisibilityTimeout();
-        SQSUtility.changeMessagesVisibility(ChangeMessageVisibilityRequest.builder()
-                                            .queueUrl(url)
-                                            .receiptHandle(m.receiptHandle())
-                                            .visibilityTimeout(visibilityTimeout)
-                                            .build());
-        visibilityTimeoutState.setVisibilityTimeout(visibilityTimeout + extendVisibilityTimeout);
-        System.out.format("Visibility changed from %d s to %d s %n", visibilityTimeout,
-                visibilityTimeoutState.getVisibilityTimeout());
+    private CompletableFuture<Void> processShards(Map<String, List<Message>> byShard, String queueName,
+                                                  String requestCorrelationId, Integer initialVisibilityTimeout,
+                                                  MessageResponseWriter responseWriter) {
+        List<CompletableFuture<Void>> shards = new ArrayList<>(byShard.size());
+        for (Map.Entry<String, List<Message>> shard : byShard.entrySet()) {
+            shards.add(processMessages(shard.getKey(), queueName, shard.getValue(), requestCorrelationId,
+                    initialVisibilityTimeout, responseWriter));
+        }
+        return CompletableFuture.allOf(shards.toArray(new CompletableFuture[0]));
+    }
+
+    /*
+     * A message fenced behind a failed one of its group is left in flight; SQS redelivers it after the failed message.
+     */
+    private StandardMessageResponse skipIfFenced(Message message, Throwable error) {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        if (cause instanceof MessageGroupFencedException) {
+            AsyncLogger.info("MESSAGE = %s ; STATUS = FENCED ; GROUP = %s", message.messageId(),
+                    ((MessageGroupFencedException) cause).getMessageGroupId());
+            return null;
+        }
+        throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+    }
+
+    private CompletableFuture<StandardMessageResponse> handleMessage(String url, String queueName,
+                                                                     CostAwareBatch.Job job, CostModel costModel,
+                                                                     String requestCorrelationId) {
+        Message message = job.getMessage();
+        VisibilityLeaseManager.Lease lease = null;
+        if (nonNull(job.getVisibilityTimeout())) {
+            // sized up front from the predicted cost, the heartbeat only fires if the prediction was short
+            lease = VisibilityLeaseManager.getInstance().register(url, message.receiptHandle(),
+                    job.getVisibilityTimeout(), job.getVisibleUntilNanos(), VISIBILITY_INCREMENT);
+        }
+
+        try {
+            //process message
+            MessageTracer.Span trace = MessageTracer.getInstance().start(queueName, message, requestCorrelationId);
+            long startedAt = System.nanoTime();
+            String body = job.getBody();
+            Integer complexityFactor = job.getComplexity();
+            if (processMessage(message.messageId(), complexityFactor, requestCorrelationId)) {
+                costModel.record(complexityFactor, System.nanoTime() - startedAt);
+            }
+            trace.processed();
+            Metrics.counter("sqs_messages_processed_total", "Messages processed", "queue", queueName).increment();
+            AdaptiveReceiveController adaptiveController = AdaptiveReceiveController.forQueue(queueName);
+            if (nonNull(adaptiveController)) {
+                adaptiveController.recordProcessed(System.nanoTime() - startedAt);
+            }
+
+            //delete message - the visibility lease is only released once the delete went through
+            VisibilityLeaseManager.Lease acknowledgedLease = lease;
+            CompletableFuture<Void> ack = acknowledge(url, message).whenComplete((ignored, error) -> {
+                if (nonNull(error)) {
+                    AsyncLogger.error("MESSAGE = %s ; STATUS = DELETE_FAILED ; ERROR = %s",
+                            message.messageId(), error.getLocalizedMessage());
+                } else {
+                    Metrics.counter("sqs_messages_deleted_total", "Messages deleted after processing",
+                            "queue", queueName).increment();
+                    ClaimCheck.release(message);
+                    trace.acknowledged();
+                    AsyncLogger.info("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = DELETED; TIME = %s",
+                            message.messageId(), complexityFactor, requestCorrelationId, LocalDateTime.now());
+                }
+                releaseLease(message, acknowledgedLease);
+            });
+            lease = null;
+
+            //create response
+            StandardMessageResponse response = new StandardMessageResponse(message.messageId(), body, queueName);
+            if (DeleteMessageBatcher.isEnabled() && !DeleteMessageBatcher.isFlushBeforeResponse()) {
+                return CompletableFuture.completedFuture(response);
+            }
+            return ack.thenApply(acknowledged -> response);
+        } finally {
+            releaseLease(message, lease);
+        }
+    }
+
+    private CompletableFuture<Void> acknowledge(String url, Message message) {
+        DeleteMessageRequest request = DeleteMessageRequest.builder()
+                                        .queueUrl(url)
+                                        .receiptHandle(message.receiptHandle())
+                                        .build();
+        if (DeleteMessageBatcher.isEnabled()) {
+            return DeleteMessageBatcher.getInstance().delete(request);
+        }
+        if (SQSUtility.isAsyncEnabled()) {
+            return SQSUtility.deleteMessageAsync(request);
+        }
+        SQSUtility.deleteMessage(request);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private void releaseLease(Message message, VisibilityLeaseManager.Lease lease) {
+        if (nonNull(lease)) {
+            AsyncLogger.info("Visibility lease released for message %s", message.messageId());
+            lease.cancel();
+        }
     }
 
     private int getVisibilityTimeout(String url) {
         return Integer.parseInt(
-                SQSUtility.getAttributesValueForQueue(url, QueueAttributeName.VISIBILITY_TIMEOUT));
+                SQSUtility.getCachedAttributesValueForQueue(url, QueueAttributeName.VISIBILITY_TIMEOUT));
     }
 
-    private void processMessage(String messageId, Integer complexityFactor, String requestCorrelationId) {
-        System.out.format("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = STARTED; TIME = %s %n",
+    /**
+     * @return whether the message was processed now, as opposed to found already processed
+     */
+    private boolean processMessage(String messageId, Integer complexityFactor, String requestCorrelationId) {
+        boolean processed = false;
+        AsyncLogger.info("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = STARTED; TIME = %s",
                 messageId, complexityFactor, requestCorrelationId, LocalDateTime.now());
         try {
-            if (!TEMP_IN_MEMORY_STORAGE.containsKey(messageId)) {
+            String processedBy = PROCESSED_MESSAGES.get(messageId);
+            if (isNull(processedBy)) {
                 Thread.sleep(complexityFactor * BASE_TIME);
-                if (TEMP_IN_MEMORY_STORAGE.containsKey(messageId)) {
-                    System.out.format("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = ALREADY_PROCESSED; TIME = %s %n",
-                            messageId, complexityFactor, TEMP_IN_MEMORY_STORAGE.get(messageId), LocalDateTime.now());
+                processed = true;
+                processedBy = PROCESSED_MESSAGES.putIfAbsent(messageId, requestCorrelationId);
+                if (nonNull(processedBy)) {
+                    AsyncLogger.info("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = ALREADY_PROCESSED; TIME = %s",
+                            messageId, complexityFactor, processedBy, LocalDateTime.now());
                 }
-                TEMP_IN_MEMORY_STORAGE.putIfAbsent(messageId, requestCorrelationId);
             } else {
-                System.out.format("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = ALREADY_PROCESSED; TIME = %s %n",
-                        messageId, complexityFactor, TEMP_IN_MEMORY_STORAGE.get(messageId), LocalDateTime.now());
+                AsyncLogger.info("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = ALREADY_PROCESSED; TIME = %s",
+                        messageId, complexityFactor, processedBy, LocalDateTime.now());
             }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        System.out.format("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = COMPLETED; TIME = %s %n",
+        AsyncLogger.info("MESSAGE = %s ; COMPLEXITY = %d ; REQUEST CORRELATION ID = %s ; STATUS = COMPLETED; TIME = %s",
                 messageId, complexityFactor, requestCorrelationId, LocalDateTime.now());
-    }
-}
-
-class VisibilityTimeoutState {
-    private Integer visibilityTimeout;
-
-    public VisibilityTimeoutState(Integer visibilityTimeout) {
-        this.visibilityTimeout = visibilityTimeout;
-    }
-
-    public Integer getVisibilityTimeout() {
-        return visibilityTimeout;
-    }
-
-    public void setVisibilityTimeout(Integer visibilityTimeout) {
-        this.visibilityTimeout = visibilityTimeout;
+        return processed;
     }
 }
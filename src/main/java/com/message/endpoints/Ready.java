@@ -0,0 +1,35 @@
+package com.message.endpoints;
+
+import com.message.codec.JsonCodec;
+import com.message.lifecycle.WarmupListener;
+import com.message.metrics.AsyncLogger;
+import com.message.response.ReadinessResponse;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/*
+ * Readiness probe: 200 once the startup warm-up of WarmupListener has completed, 503 before. The body lists the
+ * warm-up phases run so far with their duration.
+ */
+public class Ready extends HttpServlet {
+
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
+        boolean ready = WarmupListener.isReady();
+        try (PrintWriter writer = resp.getWriter()) {
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setStatus(ready ? 200 : 503);
+            JsonCodec.write(writer, new ReadinessResponse(ready, WarmupListener.getPhaseMillis(),
+                    WarmupListener.getPhaseErrors()));
+            writer.flush();
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+    }
+}
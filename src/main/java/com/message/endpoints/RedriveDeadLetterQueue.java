@@ -0,0 +1,83 @@
+package com.message.endpoints;
+
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.processing.DeadLetterRedrive;
+import com.message.request.RedrivePayload;
+import com.message.response.MessageResponseWriter;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * Moves messages out of a dead-letter queue (see DeadLetterRedrive). The request body is a RedrivePayload; the
+ * response is NDJSON with one progress line every sqs.redrive.progressMillis (default 1000) and a final line with
+ * "done":true, e.g.
+ *
+ *      {"dlQueueName":"orders-dlq","bodyContains":"customer-42","messagesPerSecond":50,"dryRun":true}
+ */
+public class RedriveDeadLetterQueue extends HttpServlet {
+
+    public void doPost(HttpServletRequest req, HttpServletResponse resp)
+            throws ServletException {
+
+        RedrivePayload payload;
+        DeadLetterRedrive redrive;
+        try {
+            payload = JsonCodec.read(req.getInputStream(), RedrivePayload.class);
+            payload.validate();
+            String dlQueueUrl = SQSUtility.getQueueUrl(payload.getDlQueueName());
+            String targetQueueName = nonNull(payload.getTargetQueueName())
+                    ? payload.getTargetQueueName()
+                    : sourceQueueName(dlQueueUrl);
+            redrive = new DeadLetterRedrive(payload, dlQueueUrl, targetQueueName);
+        } catch (IOException | IllegalArgumentException | SdkException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+
+        resp.setContentType(MessageResponseWriter.NDJSON);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setStatus(200);
+        try (PrintWriter writer = resp.getWriter()) {
+            redrive.run(progress -> {
+                try {
+                    // each line is complete when it is flushed, so clients can act on it right away
+                    writer.print(JsonCodec.writeValueAsString(progress));
+                    writer.print('\n');
+                    writer.flush();
+                    resp.flushBuffer();
+                } catch (IOException e) {
+                    // the caller went away, the redrive still runs to completion
+                    AsyncLogger.error("Redrive progress not delivered: %s", e.getLocalizedMessage());
+                }
+            }, SQSConfiguration.getLong("sqs.redrive.progressMillis", 1000));
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServletException(e);
+        }
+    }
+
+    private String sourceQueueName(String dlQueueUrl) {
+        List<String> sources = SQSUtility.listDeadLetterSourceQueues(dlQueueUrl);
+        if (sources.size() != 1) {
+            throw new IllegalArgumentException("targetQueueName is required, the dead-letter queue has "
+                    + sources.size() + " source queues");
+        }
+        String sourceUrl = sources.get(0);
+        return sourceUrl.substring(sourceUrl.lastIndexOf('/') + 1);
+    }
+}
@@ -1,67 +1,104 @@
 package com.message.endpoints;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.message.codec.BodyCodec;
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.MessageTracer;
+import com.message.processing.DelayedDelivery;
+import com.message.request.SendMessagePayload;
 import com.message.response.StandardMessageResponse;
+import com.message.store.ClaimCheck;
+import com.message.util.LogicalQueue;
+import com.message.util.RequestBatcher;
 import com.message.util.SQSUtility;
+import com.message.util.SendMessageBatcher;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
-import org.json.JSONException;
-import org.json.JSONObject;
 import software.amazon.awssdk.services.sqs.model.*;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
 import static software.amazon.awssdk.utils.StringUtils.isNotBlank;
 
 public class SendMessage extends HttpServlet {
 
-    private static final String EMPTY = "";
-
     public void doPost(HttpServletRequest req, HttpServletResponse resp)
-            throws ServletException, JsonProcessingException {
-
-        String queueName = null;
-        String messageBody = null;
-        String messageAttributeValue = null;
-        String messageAttributeKey = null;
-        String messageGroupId = null;
-        String messageDeduplicationId = null;
-        Integer delay = null;
-        StandardMessageResponse httpResponse = null;
-
-        StringBuilder sb = new StringBuilder();
-        try (BufferedReader bufferedReader = req.getReader()) {
-            String line = null;
-            while (nonNull(line = bufferedReader.readLine())) {
-                sb.append(line);
-            }
+            throws ServletException {
+
+        SendMessagePayload payload;
+        try {
+            payload = JsonCodec.read(req.getInputStream(), SendMessagePayload.class);
+            payload.validate();
+        } catch (IOException | IllegalArgumentException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
 
-            JSONObject jsonObject =  new JSONObject(sb.toString());
-            queueName = jsonObject.getString("queueName");
-            if (isNotBlank(queueName) && queueName.endsWith(".fifo")) {
-                messageGroupId = jsonObject.getString("messageGroupId");
-                messageDeduplicationId = getStringFromJsonIfPresent(jsonObject, "messageDeduplicationId");
+        String queueName = payload.getQueueName();
+        String queueUrl = resolveQueueUrl(payload);
+        SendMessageRequest request = toSendMessageRequest(payload, queueUrl, req.getHeader("RequestCorrelationId"));
+
+        if (payload.getDelay() > DelayedDelivery.MAX_NATIVE_DELAY_SECONDS) {
+            // longer than SQS can delay: journaled locally and sent when the last 900 seconds remain
+            String messageId;
+            try {
+                messageId = DelayedDelivery.schedule(request, payload.getDelay());
+            } catch (IllegalArgumentException e) {
+                AsyncLogger.error(e.getLocalizedMessage());
+                throw new ServletException(e);
             }
-            messageBody = jsonObject.getString("messageBody");
-            messageAttributeKey = getStringFromJsonIfPresent(jsonObject, "messageAttributeKey");
-            messageAttributeValue = getStringFromJsonIfPresent(jsonObject, "messageAttributeValue");
-            // delay - lets you postpone the delivery of new messages to a queue for a number of seconds
-            delay = jsonObject.getInt("delay");
-
-        } catch (IOException | JSONException e) {
-            System.out.println(e.getLocalizedMessage());
-            throw new ServletException(e);
+            writeResponse(resp, 202, new StandardMessageResponse(messageId, null, queueName));
+            return;
         }
 
-        String queueUrl = SQSUtility.createQueue(CreateQueueRequest.builder().queueName(queueName).build());
+        if (SQSUtility.isAsyncEnabled() && req.isAsyncSupported()) {
+            // the container thread is released while the send (or the batch it was coalesced into) is in flight
+            AsyncContext asyncContext = req.startAsync();
+            send(request).whenComplete((response, error) -> {
+                try {
+                    if (nonNull(error)) {
+                        AsyncLogger.error(error.getLocalizedMessage());
+                        if (!LoadSheddingFilter.reject(resp, error)) {
+                            resp.sendError(500, error.getLocalizedMessage());
+                        }
+                    } else {
+                        writeResponse(resp, response, queueName);
+                    }
+                } catch (IOException | ServletException e) {
+                    AsyncLogger.error(e.getLocalizedMessage());
+                } finally {
+                    asyncContext.complete();
+                }
+            });
+            return;
+        }
+
+        SendMessageResponse response = SendMessageBatcher.isEnabled()
+                ? RequestBatcher.await(SendMessageBatcher.getInstance().send(request))
+                : SQSUtility.sendMessage(request);
+        writeResponse(resp, response, queueName);
+    }
 
+    /**
+     * Url of the queue the payload goes to: its queue, or for a logical queue the shard it is routed to.
+     */
+    public static String resolveQueueUrl(SendMessagePayload payload) {
+        LogicalQueue logicalQueue = LogicalQueue.forName(payload.getQueueName());
+        return SQSUtility.resolveQueueUrl(isNull(logicalQueue)
+                ? payload.getQueueName()
+                : logicalQueue.route(payload.getMessageGroupId()));
+    }
+
+    public static SendMessageRequest toSendMessageRequest(SendMessagePayload payload, String queueUrl,
+                                                          String correlationId) {
         /**
          * Message attributes are structured metadata (such as timestamps, geospatial data, signatures, and identifiers)
          * that are sent with the message.
@@ -70,46 +107,58 @@ public class SendMessage extends HttpServlet {
          */
         Map<String , MessageAttributeValue> messageAttributeValueMap = new HashMap<>();
 
-        if (isNotBlank(messageAttributeKey) && isNotBlank(messageAttributeValue)) {
+        if (isNotBlank(payload.getMessageAttributeKey()) && isNotBlank(payload.getMessageAttributeValue())) {
             MessageAttributeValue value = MessageAttributeValue.builder()
-                    .stringValue(messageAttributeValue).dataType("String")
+                    .stringValue(payload.getMessageAttributeValue()).dataType("String")
                     .build();
-            messageAttributeValueMap.put(messageAttributeKey, value);
+            messageAttributeValueMap.put(payload.getMessageAttributeKey(), value);
         }
 
+        // send time and correlation id let the consumer trace the message end to end, see MessageTracer
+        MessageTracer.stamp(messageAttributeValueMap, correlationId);
+
+        // compressed bodies are marked with the ContentEncoding attribute, see BodyCodec; bodies still too large
+        // for SQS are replaced by a pointer into the payload store, see ClaimCheck
+        String messageBody = ClaimCheck.check(BodyCodec.encode(payload.getMessageBody(), messageAttributeValueMap),
+                messageAttributeValueMap);
+
         SendMessageRequest.Builder builder = SendMessageRequest.builder()
                 .queueUrl(queueUrl)
                 .messageBody(messageBody)
                 .messageAttributes(messageAttributeValueMap)
-                .delaySeconds(delay);
-        if (nonNull(messageGroupId)) {
-            builder.messageGroupId(messageGroupId);
-            if (isNotBlank(messageDeduplicationId)) {
-                builder.messageDeduplicationId(messageDeduplicationId);
+                .delaySeconds(payload.getDelay());
+        if (payload.isFifo()) {
+            builder.messageGroupId(payload.getMessageGroupId());
+            if (isNotBlank(payload.getMessageDeduplicationId())) {
+                builder.messageDeduplicationId(payload.getMessageDeduplicationId());
             }
         }
+        return builder.build();
+    }
 
-        SendMessageResponse response = SQSUtility.sendMessage(builder.build());
-        httpResponse = new StandardMessageResponse(response.messageId(),
-                response.md5OfMessageBody(),queueName);
+    private CompletableFuture<SendMessageResponse> send(SendMessageRequest request) {
+        return SendMessageBatcher.isEnabled()
+                ? SendMessageBatcher.getInstance().send(request)
+                : SQSUtility.sendMessageAsync(request);
+    }
 
-        ObjectMapper objectMapper = new ObjectMapper();
-        String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(httpResponse);
+    private void writeResponse(HttpServletResponse resp, SendMessageResponse response, String queueName)
+            throws ServletException {
+        writeResponse(resp, 201, new StandardMessageResponse(response.messageId(),
+                response.md5OfMessageBody(),queueName));
+    }
 
+    private void writeResponse(HttpServletResponse resp, int status, StandardMessageResponse httpResponse)
+            throws ServletException {
         try (PrintWriter writer = resp.getWriter()) {
             resp.setContentType("application/text");
             resp.setCharacterEncoding("UTF-8");
-            resp.setStatus(201);
-            writer.print(json);
+            resp.setStatus(status);
+            JsonCodec.write(writer, httpResponse);
             writer.flush();
         } catch (IOException e) {
-            System.out.println(e.getLocalizedMessage());
+            AsyncLogger.error(e.getLocalizedMessage());
             throw new ServletException(e);
         }
     }
-
-    private String getStringFromJsonIfPresent(JSONObject jsonObject, String key) {
-        return jsonObject.has(key) && nonNull(jsonObject.get(key)) ?
-                jsonObject.getString(key) : EMPTY;
-    }
 }
@@ -0,0 +1,44 @@
+package com.message.endpoints;
+
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.MessageTracer;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import static java.util.Objects.isNull;
+
+/*
+ * The slowest recent end-to-end traces kept by MessageTracer, as a JSON array, slowest first.
+ *
+ * queueName - optional, only traces of that queue
+ * limit     - optional, at most that many traces (default 50)
+ */
+public class Traces extends HttpServlet {
+
+    public void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
+        int limit;
+        try {
+            limit = isNull(req.getParameter("limit")) ? 50 : Integer.parseInt(req.getParameter("limit"));
+        } catch (NumberFormatException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+
+        try (PrintWriter writer = resp.getWriter()) {
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setStatus(200);
+            JsonCodec.write(writer, MessageTracer.getInstance().getSlowest(req.getParameter("queueName"), limit));
+            writer.flush();
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+    }
+}
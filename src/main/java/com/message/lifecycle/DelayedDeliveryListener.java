@@ -0,0 +1,25 @@
+package com.message.lifecycle;
+
+import com.message.metrics.AsyncLogger;
+import com.message.processing.DelayedDelivery;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+/*
+ * Recovers the delayed delivery journal at startup, so that messages scheduled before a restart are released on time
+ * even if no new delayed message arrives, and closes it on shutdown.
+ */
+public class DelayedDeliveryListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        if (DelayedDelivery.isEnabled()) {
+            AsyncLogger.info("Delayed delivery started");
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        DelayedDelivery.shutdown();
+    }
+}
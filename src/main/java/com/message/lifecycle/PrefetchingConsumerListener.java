@@ -0,0 +1,40 @@
+package com.message.lifecycle;
+
+import com.message.metrics.AsyncLogger;
+import com.message.processing.PrefetchingConsumer;
+import com.message.util.SQSConfiguration;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * Starts a PrefetchingConsumer for every queue listed in sqs.prefetch.queues (comma separated), read from the
+ * servlet context init parameters or from SQSConfiguration. Nothing is started when the list is empty.
+ */
+public class PrefetchingConsumerListener implements ServletContextListener {
+
+    public static final String PREFETCH_QUEUES = "sqs.prefetch.queues";
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        String contextValue = sce.getServletContext().getInitParameter(PREFETCH_QUEUES);
+        String queues = nonNull(contextValue) ? contextValue : SQSConfiguration.getString(PREFETCH_QUEUES, "");
+
+        for (String queueName : queues.split(",")) {
+            if (!queueName.isBlank()) {
+                try {
+                    PrefetchingConsumer.start(queueName.trim());
+                } catch (RuntimeException e) {
+                    // a broken queue must not keep the application from starting; it is simply not prefetched
+                    AsyncLogger.error("Prefetching disabled for %s : %s", queueName, e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        PrefetchingConsumer.stopAll();
+    }
+}
@@ -0,0 +1,197 @@
+package com.message.lifecycle;
+
+import com.message.codec.BodyCodec;
+import com.message.codec.JsonCodec;
+import com.message.endpoints.SendMessage;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.processing.CostModel;
+import com.message.request.SendMessagePayload;
+import com.message.response.StandardMessageResponse;
+import com.message.util.LogicalQueue;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import jakarta.servlet.ServletContextEvent;
+import jakarta.servlet.ServletContextListener;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Warms the application up in the background right after startup, so that the first requests after a deploy do not
+ * pay for cold clients, connections, caches and code. The phases, each timed:
+ *
+ * clients       - builds the SQS clients (SQSUtility)
+ * connections   - opens sqs.warmup.connections (default 8) pooled connections to SQS
+ * queues        - resolves the urls and attributes of sqs.warmup.queues (default: sqs.prefetch.queues) in parallel,
+ *                 the shards of a logical queue included
+ * serialization - runs sqs.warmup.iterations (default 1000) synthetic messages through parsing, encoding, decoding,
+ *                 cost parsing and response serialization, without sending them
+ *
+ * The application reports ready (/ready) once all phases have run. Warm-up is best effort: a failing phase is logged
+ * and reported, it does not keep the application from becoming ready. -Dsqs.warmup.enabled=false skips it.
+ */
+public class WarmupListener implements ServletContextListener {
+
+    public static final String WARMUP_QUEUES = "sqs.warmup.queues";
+
+    private static final Map<String, Long> PHASE_MILLIS = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static final Map<String, String> PHASE_ERRORS = Collections.synchronizedMap(new LinkedHashMap<>());
+    private static volatile boolean ready;
+
+    static {
+        Metrics.gauge("sqs_ready", "1 once startup warm-up has completed", () -> ready ? 1 : 0);
+    }
+
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Duration of every phase run so far, in run order.
+     */
+    public static Map<String, Long> getPhaseMillis() {
+        synchronized (PHASE_MILLIS) {
+            return new LinkedHashMap<>(PHASE_MILLIS);
+        }
+    }
+
+    public static Map<String, String> getPhaseErrors() {
+        synchronized (PHASE_ERRORS) {
+            return new LinkedHashMap<>(PHASE_ERRORS);
+        }
+    }
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        if (!SQSConfiguration.getBoolean("sqs.warmup.enabled", true)) {
+            ready = true;
+            return;
+        }
+        String contextValue = sce.getServletContext().getInitParameter(WARMUP_QUEUES);
+        String queues = nonNull(contextValue) ? contextValue : SQSConfiguration.getString(WARMUP_QUEUES,
+                SQSConfiguration.getString(PrefetchingConsumerListener.PREFETCH_QUEUES, ""));
+
+        Thread thread = new Thread(() -> warmUp(queues), "warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        ready = false;
+    }
+
+    private static void warmUp(String queues) {
+        long start = System.nanoTime();
+        phase("clients", SQSUtility::initializeClients);
+        phase("connections", () -> {
+            int connections = Math.max(1, SQSConfiguration.getInt("sqs.warmup.connections", 8));
+            int succeeded = SQSUtility.primeConnections(connections);
+            if (succeeded == 0) {
+                throw new IllegalStateException("no warm-up call reached SQS");
+            }
+        });
+        phase("queues", () -> resolveQueues(queues));
+        phase("serialization", () -> exercise(Math.max(1, SQSConfiguration.getInt("sqs.warmup.iterations", 1000))));
+        ready = true;
+        AsyncLogger.info("Warm-up finished in %d ms: %s", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                getPhaseMillis());
+    }
+
+    private static void phase(String name, Runnable work) {
+        long start = System.nanoTime();
+        try {
+            work.run();
+        } catch (RuntimeException e) {
+            AsyncLogger.error("Warm-up phase %s failed: %s", name, e.getLocalizedMessage());
+            PHASE_ERRORS.put(name, e.getLocalizedMessage());
+        }
+        long nanos = System.nanoTime() - start;
+        PHASE_MILLIS.put(name, TimeUnit.NANOSECONDS.toMillis(nanos));
+        Metrics.gauge("sqs_startup_phase_seconds", "Duration of the startup warm-up phases",
+                () -> nanos / 1e9, "phase", name);
+    }
+
+    private static void resolveQueues(String queues) {
+        Set<String> names = new LinkedHashSet<>();
+        for (String queueName : queues.split(",")) {
+            if (!queueName.isBlank()) {
+                names.add(queueName.trim());
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        ExecutorService resolvers = Executors.newFixedThreadPool(Math.min(names.size(), 16));
+        try {
+            List<CompletableFuture<Void>> lookups = new ArrayList<>();
+            for (String name : names) {
+                lookups.add(CompletableFuture.runAsync(() -> resolveQueue(name), resolvers)
+                        .exceptionally(error -> {
+                            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                            AsyncLogger.error("Warm-up of queue %s failed: %s", name, cause.getLocalizedMessage());
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).join();
+        } finally {
+            resolvers.shutdown();
+        }
+    }
+
+    private static void resolveQueue(String queueName) {
+        LogicalQueue logicalQueue = LogicalQueue.forName(queueName);
+        List<String> physical = isNull(logicalQueue) ? List.of(queueName) : logicalQueue.getShardNames();
+        for (String name : physical) {
+            String queueUrl = SQSUtility.resolveQueueUrl(name);
+            // loads and caches all attributes of the queue
+            SQSUtility.getCachedAttributesValueForQueue(queueUrl, QueueAttributeName.VISIBILITY_TIMEOUT);
+        }
+    }
+
+    /*
+     * The request and response path of a message without the SQS calls, so that the JIT has compiled it and Jackson
+     * has built its serializers before real traffic arrives.
+     */
+    private static void exercise(int iterations) {
+        try {
+            for (int i = 0; i < iterations; i++) {
+                SendMessagePayload payload = JsonCodec.read("{\"queueName\":\"warmup\",\"messageBody\":\"warm-up "
+                        + (i % 10 + 1) + "\",\"messageAttributeKey\":\"k\",\"messageAttributeValue\":\"v\","
+                        + "\"delay\":0}", SendMessagePayload.class);
+                payload.validate();
+                SendMessageRequest request = SendMessage.toSendMessageRequest(payload, "warmup", "warmup");
+                Message message = Message.builder()
+                        .messageId("warmup-" + i)
+                        .body(request.messageBody())
+                        .messageAttributes(request.messageAttributes())
+                        .build();
+                String body = BodyCodec.decode(message);
+                CostModel.parseComplexity(body);
+                JsonCodec.writeValueAsString(new StandardMessageResponse(message.messageId(), body, "warmup"));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
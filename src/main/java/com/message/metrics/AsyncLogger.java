@@ -0,0 +1,99 @@
+package com.message.metrics;
+
+import com.message.util.SQSConfiguration;
+
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Asynchronous, rate-limited replacement for System.out.format / System.err.println on the hot paths.
+ *
+ * Callers only enqueue the format string and its arguments; formatting and console I/O happen on one background
+ * thread. At most sqs.log.maxLinesPerSecond lines are written per second and at most sqs.log.queueCapacity lines
+ * wait in the queue - anything beyond that is dropped and counted in sqs_log_dropped_total, so logging can never
+ * slow message processing down.
+ */
+public class AsyncLogger {
+
+    private static final int MAX_LINES_PER_SECOND = SQSConfiguration.getInt("sqs.log.maxLinesPerSecond", 1000);
+    private static final ArrayBlockingQueue<Line> QUEUE =
+            new ArrayBlockingQueue<>(SQSConfiguration.getInt("sqs.log.queueCapacity", 10_000));
+
+    private static final LongAdder DROPPED = Metrics.counter("sqs_log_dropped_total",
+            "Log lines dropped because of the rate limit or a full queue");
+
+    // start of the current one second window and lines admitted in it
+    private static final AtomicLong WINDOW_START = new AtomicLong(System.nanoTime());
+    private static final AtomicLong WINDOW_COUNT = new AtomicLong();
+
+    static {
+        Thread writer = new Thread(AsyncLogger::drain, "async-logger");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private AsyncLogger() {
+    }
+
+    public static void info(String format, Object... args) {
+        offer(new Line(System.out, format, args));
+    }
+
+    public static void info(String message) {
+        offer(new Line(System.out, null, new Object[]{message}));
+    }
+
+    public static void error(String format, Object... args) {
+        offer(new Line(System.err, format, args));
+    }
+
+    public static void error(String message) {
+        offer(new Line(System.err, null, new Object[]{message}));
+    }
+
+    private static void offer(Line line) {
+        if (!admit() || !QUEUE.offer(line)) {
+            DROPPED.increment();
+        }
+    }
+
+    private static boolean admit() {
+        long now = System.nanoTime();
+        long windowStart = WINDOW_START.get();
+        if (now - windowStart >= TimeUnit.SECONDS.toNanos(1) && WINDOW_START.compareAndSet(windowStart, now)) {
+            WINDOW_COUNT.set(0);
+        }
+        return WINDOW_COUNT.incrementAndGet() <= MAX_LINES_PER_SECOND;
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                Line line = QUEUE.take();
+                String text = line.format == null ? String.valueOf(line.args[0]) : String.format(line.format, line.args);
+                line.stream.println(text);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // a bad format string must not kill the writer thread
+                System.err.println(LocalDateTime.now() + " log line dropped: " + e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static class Line {
+        private final PrintStream stream;
+        private final String format;
+        private final Object[] args;
+
+        Line(PrintStream stream, String format, Object[] args) {
+            this.stream = stream;
+            this.format = format;
+            this.args = args;
+        }
+    }
+}
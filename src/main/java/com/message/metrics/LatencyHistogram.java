@@ -0,0 +1,70 @@
+package com.message.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free latency histogram with fixed Prometheus-style buckets (upper bounds in seconds).
+ * Recording is one bucket search and two atomic increments, so it can sit on every hot path.
+ */
+public class LatencyHistogram {
+
+    static final double[] BUCKET_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+    };
+
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // one slot per bucket plus the +Inf bucket
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_NANOS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    public void record(long nanos) {
+        int low = 0;
+        int high = BUCKET_NANOS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BUCKET_NANOS[mid] < nanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        buckets.incrementAndGet(low);
+        sumNanos.add(nanos);
+        count.increment();
+    }
+
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+
+    /**
+     * Cumulative counts, one per bucket of BUCKET_SECONDS followed by +Inf.
+     */
+    long[] cumulativeCounts() {
+        long[] cumulative = new long[buckets.length()];
+        long running = 0;
+        for (int i = 0; i < cumulative.length; i++) {
+            running += buckets.get(i);
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,70 @@
+package com.message.metrics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * One finished end-to-end trace, see MessageTracer. Times are in milliseconds; sentAt and dwell are missing for
+ * messages sent without the trace attributes.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MessageTrace {
+
+    private final String queueName;
+    private final String messageId;
+    private final String sendCorrelationId;
+    private final String processCorrelationId;
+    private final Long sentAtMillis;
+    private final Long dwellMillis;
+    private final long processingMillis;
+    private final long ackMillis;
+
+    public MessageTrace(String queueName, String messageId, String sendCorrelationId, String processCorrelationId,
+                        Long sentAtMillis, Long dwellMillis, long processingMillis, long ackMillis) {
+        this.queueName = queueName;
+        this.messageId = messageId;
+        this.sendCorrelationId = sendCorrelationId;
+        this.processCorrelationId = processCorrelationId;
+        this.sentAtMillis = sentAtMillis;
+        this.dwellMillis = dwellMillis;
+        this.processingMillis = processingMillis;
+        this.ackMillis = ackMillis;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getSendCorrelationId() {
+        return sendCorrelationId;
+    }
+
+    public String getProcessCorrelationId() {
+        return processCorrelationId;
+    }
+
+    public Long getSentAtMillis() {
+        return sentAtMillis;
+    }
+
+    public Long getDwellMillis() {
+        return dwellMillis;
+    }
+
+    public long getProcessingMillis() {
+        return processingMillis;
+    }
+
+    public long getAckMillis() {
+        return ackMillis;
+    }
+
+    public long getEndToEndMillis() {
+        return (nonNull(dwellMillis) ? dwellMillis : 0) + processingMillis + ackMillis;
+    }
+}
@@ -0,0 +1,161 @@
+package com.message.metrics;
+
+import com.message.util.SQSConfiguration;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * End-to-end latency of a message, from SendMessage to its delete.
+ *
+ * SendMessage stamps the send time (epoch millis) and the sender's correlation id as the message attributes
+ * TraceSentAt and TraceCorrelationId. On the consumer side a message's time is split into
+ *      dwell      - sent until processing starts (time in SQS, in a prefetch buffer and in the processing lane)
+ *      processing - the work itself
+ *      ack        - processed until SQS confirmed the delete
+ * recorded per queue in sqs_message_dwell_seconds, sqs_message_processing_seconds, sqs_message_ack_seconds and
+ * sqs_message_end_to_end_seconds. Dwell needs the clocks of sender and consumer to agree; messages sent without the
+ * attributes are traced from the start of processing only.
+ *
+ * Traces that took at least sqs.tracing.slowMillis (default 1000) end to end are kept in a ring buffer of the last
+ * sqs.tracing.bufferSize (default 256), served slowest first by the /traces servlet.
+ */
+public class MessageTracer {
+
+    public static final String SENT_AT_ATTRIBUTE = "TraceSentAt";
+    public static final String CORRELATION_ATTRIBUTE = "TraceCorrelationId";
+
+    private static final MessageTracer INSTANCE = new MessageTracer(
+            SQSConfiguration.getInt("sqs.tracing.bufferSize", 256),
+            SQSConfiguration.getLong("sqs.tracing.slowMillis", 1000));
+
+    private final MessageTrace[] ring;
+    private final long slowMillis;
+    // guarded by ring
+    private long written;
+
+    private MessageTracer(int bufferSize, long slowMillis) {
+        this.ring = new MessageTrace[Math.max(1, bufferSize)];
+        this.slowMillis = slowMillis;
+    }
+
+    public static MessageTracer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds the trace attributes to the attributes of a message about to be sent.
+     */
+    public static void stamp(Map<String, MessageAttributeValue> messageAttributes, String correlationId) {
+        messageAttributes.put(SENT_AT_ATTRIBUTE, MessageAttributeValue.builder()
+                .dataType("Number")
+                .stringValue(String.valueOf(System.currentTimeMillis()))
+                .build());
+        if (nonNull(correlationId)) {
+            messageAttributes.put(CORRELATION_ATTRIBUTE, MessageAttributeValue.builder()
+                    .dataType("String")
+                    .stringValue(correlationId)
+                    .build());
+        }
+    }
+
+    /**
+     * Starts the trace of a message whose processing begins now.
+     */
+    public Span start(String queueName, Message message, String processCorrelationId) {
+        MessageAttributeValue sentAt = message.messageAttributes().get(SENT_AT_ATTRIBUTE);
+        MessageAttributeValue sendCorrelationId = message.messageAttributes().get(CORRELATION_ATTRIBUTE);
+        Long sentAtMillis = null;
+        if (nonNull(sentAt)) {
+            try {
+                sentAtMillis = Long.parseLong(sentAt.stringValue());
+            } catch (NumberFormatException e) {
+                // not stamped by us, trace without dwell
+            }
+        }
+        return new Span(queueName, message.messageId(), sentAtMillis,
+                nonNull(sendCorrelationId) ? sendCorrelationId.stringValue() : null, processCorrelationId);
+    }
+
+    /**
+     * The slowest kept traces, optionally of one queue only.
+     */
+    public List<MessageTrace> getSlowest(String queueName, int limit) {
+        List<MessageTrace> traces = new ArrayList<>(ring.length);
+        synchronized (ring) {
+            for (MessageTrace trace : ring) {
+                if (nonNull(trace) && (isNull(queueName) || queueName.equals(trace.getQueueName()))) {
+                    traces.add(trace);
+                }
+            }
+        }
+        traces.sort(Comparator.comparingLong(MessageTrace::getEndToEndMillis).reversed());
+        return traces.size() > limit ? new ArrayList<>(traces.subList(0, Math.max(0, limit))) : traces;
+    }
+
+    private void finish(MessageTrace trace) {
+        String queue = trace.getQueueName();
+        if (nonNull(trace.getDwellMillis())) {
+            Metrics.histogram("sqs_message_dwell_seconds", "Time from SendMessage until processing started",
+                    "queue", queue).record(TimeUnit.MILLISECONDS.toNanos(trace.getDwellMillis()));
+        }
+        Metrics.histogram("sqs_message_processing_seconds", "Time spent processing a message",
+                "queue", queue).record(TimeUnit.MILLISECONDS.toNanos(trace.getProcessingMillis()));
+        Metrics.histogram("sqs_message_ack_seconds", "Time from processed until the delete was confirmed",
+                "queue", queue).record(TimeUnit.MILLISECONDS.toNanos(trace.getAckMillis()));
+        Metrics.histogram("sqs_message_end_to_end_seconds", "Time from SendMessage until the delete was confirmed",
+                "queue", queue).record(TimeUnit.MILLISECONDS.toNanos(trace.getEndToEndMillis()));
+        if (trace.getEndToEndMillis() >= slowMillis) {
+            synchronized (ring) {
+                ring[(int) (written++ % ring.length)] = trace;
+            }
+        }
+    }
+
+    /*
+     * A trace in progress; not thread-safe, it follows its message through processing and ack.
+     */
+    public class Span {
+        private final String queueName;
+        private final String messageId;
+        private final Long sentAtMillis;
+        private final String sendCorrelationId;
+        private final String processCorrelationId;
+        private final long startedAtMillis = System.currentTimeMillis();
+        private final long startedAtNanos = System.nanoTime();
+        private long processedAtNanos;
+
+        private Span(String queueName, String messageId, Long sentAtMillis, String sendCorrelationId,
+                     String processCorrelationId) {
+            this.queueName = queueName;
+            this.messageId = messageId;
+            this.sentAtMillis = sentAtMillis;
+            this.sendCorrelationId = sendCorrelationId;
+            this.processCorrelationId = processCorrelationId;
+        }
+
+        public void processed() {
+            processedAtNanos = System.nanoTime();
+        }
+
+        /**
+         * Ends the trace once the delete went through and records it.
+         */
+        public void acknowledged() {
+            long now = System.nanoTime();
+            long processingMillis = TimeUnit.NANOSECONDS.toMillis(processedAtNanos - startedAtNanos);
+            long ackMillis = TimeUnit.NANOSECONDS.toMillis(now - processedAtNanos);
+            Long dwellMillis = nonNull(sentAtMillis) ? Math.max(0, startedAtMillis - sentAtMillis) : null;
+            finish(new MessageTrace(queueName, messageId, sendCorrelationId, processCorrelationId, sentAtMillis,
+                    dwellMillis, processingMillis, ackMillis));
+        }
+    }
+}
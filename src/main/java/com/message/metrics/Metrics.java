@@ -0,0 +1,143 @@
+package com.message.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Process-wide metric registry, exposed in Prometheus text format by the /metrics servlet.
+ *
+ * Metrics are identified by name plus label pairs ("operation", "SendMessage", "queue", "orders"). Lookups are a
+ * concurrent map read; callers on very hot paths keep the returned histogram or counter in a field.
+ * Gauges are read lazily, only when /metrics is scraped.
+ */
+public class Metrics {
+
+    private static final ConcurrentSkipListMap<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "histogram")
+                .series.computeIfAbsent(labelString(labels), l -> new LatencyHistogram());
+    }
+
+    public static LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter")
+                .series.computeIfAbsent(labelString(labels), l -> new LongAdder());
+    }
+
+    /**
+     * Registers (or replaces) a counter whose total is kept elsewhere and read from the supplier at scrape time; the
+     * supplier must never decrease.
+     */
+    public static void counter(String name, String help, Supplier<? extends Number> total, String... labels) {
+        family(name, help, "counter").series.put(labelString(labels), total);
+    }
+
+    /**
+     * Registers (or replaces) a gauge whose value is read from the supplier at scrape time.
+     */
+    public static void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+        family(name, help, "gauge").series.put(labelString(labels), value);
+    }
+
+    /**
+     * Times an SQS operation and counts its errors.
+     */
+    public static LatencyHistogram sqsLatency(String operation) {
+        return histogram("sqs_operation_duration_seconds", "Latency of SQS calls", "operation", operation);
+    }
+
+    public static LongAdder sqsErrors(String operation, String errorCode) {
+        return counter("sqs_operation_errors_total", "Failed SQS calls", "operation", operation,
+                "error", errorCode);
+    }
+
+    public static void writePrometheus(Writer out) throws IOException {
+        for (Family family : FAMILIES.values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                writeSeries(out, family.name, series.getKey(), series.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeSeries(Writer out, String name, String labels, Object metric) throws IOException {
+        if (metric instanceof LongAdder) {
+            out.write(name + braces(labels) + " " + ((LongAdder) metric).sum() + "\n");
+        } else if (metric instanceof Supplier) {
+            Number value = ((Supplier<? extends Number>) metric).get();
+            out.write(name + braces(labels) + " " + (value == null ? "NaN" : value.toString()) + "\n");
+        } else if (metric instanceof LatencyHistogram) {
+            LatencyHistogram histogram = (LatencyHistogram) metric;
+            long[] cumulative = histogram.cumulativeCounts();
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (int i = 0; i < LatencyHistogram.BUCKET_SECONDS.length; i++) {
+                out.write(name + "_bucket{" + prefix + "le=\"" + LatencyHistogram.BUCKET_SECONDS[i] + "\"} "
+                        + cumulative[i] + "\n");
+            }
+            out.write(name + "_bucket{" + prefix + "le=\"+Inf\"} " + cumulative[cumulative.length - 1] + "\n");
+            out.write(name + "_sum" + braces(labels) + " " + histogram.getSumSeconds() + "\n");
+            out.write(name + "_count" + braces(labels) + " " + histogram.getCount() + "\n");
+        }
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+        }
+        return family;
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    sb.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    sb.append("\\n");
+                } else {
+                    sb.append(ch);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    private static class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentHashMap<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
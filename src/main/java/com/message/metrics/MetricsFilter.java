@@ -0,0 +1,59 @@
+package com.message.metrics;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/*
+ * Records the latency of every endpoint in http_request_duration_seconds, labelled by servlet path and status.
+ * Requests that went async are timed until their AsyncContext completes, not until doGet/doPost returns.
+ */
+public class MetricsFilter implements Filter {
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        long start = System.nanoTime();
+        HttpServletRequest req = (HttpServletRequest) request;
+        HttpServletResponse resp = (HttpServletResponse) response;
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (req.isAsyncStarted()) {
+                req.getAsyncContext().addListener(new AsyncListener() {
+                    @Override
+                    public void onComplete(AsyncEvent event) {
+                        record(req, resp, start);
+                    }
+
+                    @Override
+                    public void onTimeout(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onError(AsyncEvent event) {
+                    }
+
+                    @Override
+                    public void onStartAsync(AsyncEvent event) {
+                    }
+                });
+            } else {
+                record(req, resp, start);
+            }
+        }
+    }
+
+    private static void record(HttpServletRequest req, HttpServletResponse resp, long start) {
+        Metrics.histogram("http_request_duration_seconds", "Latency of the HTTP endpoints",
+                "path", req.getServletPath(), "status", String.valueOf(resp.getStatus())).recordSince(start);
+    }
+}
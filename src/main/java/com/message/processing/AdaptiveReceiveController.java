@@ -0,0 +1,242 @@
+package com.message.processing;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Decides how many receivers poll a queue and how many messages each receive asks for (-Dsqs.adaptive.enabled=true).
+ *
+ * Every sqs.adaptive.intervalSeconds it reads ApproximateNumberOfMessages and ApproximateNumberOfMessagesNotVisible and
+ * combines them with what was observed since the last decision - messages processed, processing latency and the
+ * share of empty receives:
+ *  - idle (nothing visible, mostly empty receives)  -> one receiver less, down to sqs.adaptive.minReceivers
+ *  - processing bound (throughput near what the queue's processing concurrency can do at the observed latency)
+ *                                                    -> hold the receivers and halve the batch size, more receives would
+ *                                                       only let messages wait invisible in the buffer
+ *  - estimated lag (visible / throughput) over sqs.adaptive.targetLagSeconds
+ *                                                    -> double the receivers, up to sqs.adaptive.maxReceivers
+ *  - lag under a quarter of the target               -> one receiver less
+ * Receives always long poll for 20 seconds: free while there is a backlog and no empty polls to pay for at idle.
+ *
+ * Every decision is logged with its reason and exported as metrics (sqs_adaptive_*).
+ */
+public class AdaptiveReceiveController {
+
+    public static final int LONG_POLL_SECONDS = 20;
+    private static final int MAX_BATCH_SIZE = 10;
+
+    private static final ConcurrentHashMap<String, AdaptiveReceiveController> CONTROLLERS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "adaptive-receive-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String queueName;
+    private final String queueUrl;
+    private final int minReceivers;
+    private final int maxReceivers;
+    private final int targetLagSeconds;
+    private final int intervalSeconds;
+    private final int idleEmptyPercent;
+
+    private final LongAdder receives = new LongAdder();
+    private final LongAdder emptyReceives = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder processingNanos = new LongAdder();
+    private volatile double averageLatencySeconds;
+
+    private volatile Decision decision;
+    private volatile Consumer<Decision> listener = decision -> { };
+
+    private AdaptiveReceiveController(String queueName, String queueUrl) {
+        this.queueName = queueName;
+        this.queueUrl = queueUrl;
+        this.minReceivers = Math.max(1, SQSConfiguration.getInt("sqs.adaptive.minReceivers", 1));
+        this.maxReceivers = Math.max(minReceivers, SQSConfiguration.getInt("sqs.adaptive.maxReceivers", 8));
+        this.targetLagSeconds = SQSConfiguration.getInt("sqs.adaptive.targetLagSeconds", 30);
+        this.intervalSeconds = Math.max(1, SQSConfiguration.getInt("sqs.adaptive.intervalSeconds", 5));
+        this.idleEmptyPercent = SQSConfiguration.getInt("sqs.adaptive.idleEmptyPercent", 50);
+        this.decision = new Decision(minReceivers, MAX_BATCH_SIZE, "hold", "initial");
+
+        Metrics.gauge("sqs_adaptive_receivers", "Receivers chosen by the adaptive controller",
+                () -> decision.receivers, "queue", queueName);
+        Metrics.gauge("sqs_adaptive_batch_size", "Receive batch size chosen by the adaptive controller",
+                () -> decision.batchSize, "queue", queueName);
+        Metrics.gauge("sqs_adaptive_latency_seconds", "Average processing latency seen by the adaptive controller",
+                () -> averageLatencySeconds, "queue", queueName);
+    }
+
+    public static boolean isEnabled() {
+        return SQSConfiguration.getBoolean("sqs.adaptive.enabled", false);
+    }
+
+    /**
+     * Starts the controller of the queue unless it is already running and returns it.
+     */
+    public static AdaptiveReceiveController start(String queueName, String queueUrl) {
+        return CONTROLLERS.computeIfAbsent(queueName, name -> {
+            AdaptiveReceiveController controller = new AdaptiveReceiveController(name, queueUrl);
+            controller.schedule();
+            return controller;
+        });
+    }
+
+    /**
+     * Returns the controller of the queue, or null if the queue is not adaptively consumed.
+     */
+    public static AdaptiveReceiveController forQueue(String queueName) {
+        return CONTROLLERS.get(queueName);
+    }
+
+    public static void stop(String queueName) {
+        CONTROLLERS.remove(queueName);
+    }
+
+    public void onDecision(Consumer<Decision> listener) {
+        this.listener = listener;
+    }
+
+    public void recordReceive(int messageCount) {
+        receives.increment();
+        if (messageCount == 0) {
+            emptyReceives.increment();
+        }
+    }
+
+    public void recordProcessed(long latencyNanos) {
+        processed.increment();
+        processingNanos.add(latencyNanos);
+    }
+
+    public Decision getDecision() {
+        return decision;
+    }
+
+    private void schedule() {
+        SCHEDULER.schedule(() -> {
+            if (CONTROLLERS.get(queueName) != this) {
+                return;
+            }
+            try {
+                decide();
+            } catch (RuntimeException e) {
+                AsyncLogger.error("Adaptive controller for %s failed: %s", queueName, e.getLocalizedMessage());
+            } finally {
+                schedule();
+            }
+        }, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void decide() {
+        long visible;
+        long inFlight;
+        try {
+            visible = Long.parseLong(SQSUtility.getAttributesValueForQueue(queueUrl,
+                    QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES));
+            inFlight = Long.parseLong(SQSUtility.getAttributesValueForQueue(queueUrl,
+                    QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES_NOT_VISIBLE));
+        } catch (SdkException e) {
+            return;
+        }
+        long receiveCount = receives.sumThenReset();
+        long emptyCount = emptyReceives.sumThenReset();
+        long processedCount = processed.sumThenReset();
+        long processedNanos = processingNanos.sumThenReset();
+
+        if (processedCount > 0) {
+            double latency = processedNanos / (double) processedCount / 1e9;
+            averageLatencySeconds = averageLatencySeconds == 0 ? latency : 0.7 * averageLatencySeconds + 0.3 * latency;
+        }
+        double throughput = processedCount / (double) intervalSeconds;
+        int emptyPercent = receiveCount == 0 ? 0 : (int) (100 * emptyCount / receiveCount);
+        double processingCapacity = averageLatencySeconds > 0
+                ? MessageProcessingEngine.getInstance().getConcurrencyLimit(queueName) / averageLatencySeconds
+                : Double.MAX_VALUE;
+
+        Decision current = decision;
+        Decision next;
+        if (visible == 0 && emptyPercent >= idleEmptyPercent) {
+            next = new Decision(Math.max(minReceivers, current.receivers - 1), MAX_BATCH_SIZE, "scale_down",
+                    String.format("idle: nothing visible, %d%% of %d receives empty", emptyPercent, receiveCount));
+        } else if (throughput > 0 && throughput >= 0.9 * processingCapacity) {
+            next = new Decision(current.receivers, Math.max(1, current.batchSize / 2), "hold",
+                    String.format("processing bound: %.1f msg/s of ~%.1f msg/s at %.3f s latency, %d in flight",
+                            throughput, processingCapacity, averageLatencySeconds, inFlight));
+        } else {
+            double lagSeconds = throughput > 0 ? visible / throughput : (visible > 0 ? Double.MAX_VALUE : 0);
+            String lag = lagSeconds == Double.MAX_VALUE ? "unbounded" : String.format("%.1f s", lagSeconds);
+            int batchSize = Math.min(MAX_BATCH_SIZE, current.batchSize * 2);
+            if (lagSeconds > targetLagSeconds && current.receivers < maxReceivers) {
+                next = new Decision(Math.min(maxReceivers, current.receivers * 2), batchSize, "scale_up",
+                        String.format("backlog %d, lag %s over the %d s target", visible, lag, targetLagSeconds));
+            } else if (lagSeconds < targetLagSeconds / 4.0 && current.receivers > minReceivers) {
+                next = new Decision(current.receivers - 1, batchSize, "scale_down",
+                        String.format("backlog %d, lag %s well under the %d s target", visible, lag,
+                                targetLagSeconds));
+            } else {
+                next = new Decision(current.receivers, batchSize, "hold",
+                        String.format("backlog %d, lag %s, %d in flight", visible, lag, inFlight));
+            }
+        }
+
+        decision = next;
+        Metrics.counter("sqs_adaptive_decisions_total", "Decisions of the adaptive controller",
+                "queue", queueName, "action", next.action).increment();
+        if (next.receivers != current.receivers || next.batchSize != current.batchSize) {
+            AsyncLogger.info("Adaptive receive %s: %s -> %d receivers, batch size %d (%s)", queueName, next.action,
+                    next.receivers, next.batchSize, next.reason);
+            listener.accept(next);
+        }
+    }
+
+    public static class Decision {
+        private final int receivers;
+        private final int batchSize;
+        private final String action;
+        private final String reason;
+        private final long decidedAtMillis = System.currentTimeMillis();
+
+        Decision(int receivers, int batchSize, String action, String reason) {
+            this.receivers = receivers;
+            this.batchSize = batchSize;
+            this.action = action;
+            this.reason = reason;
+        }
+
+        public int getReceivers() {
+            return receivers;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public int getWaitTimeSeconds() {
+            return LONG_POLL_SECONDS;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public long getDecidedAtMillis() {
+            return decidedAtMillis;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.message.processing;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * The messages of one receive, prepared for cost-aware processing: every body is decoded and its complexity parsed
+ * once, up front, so that the predicted cost (CostModel) can rank the message in its queue's lane
+ * (MessageProcessingEngine) and size its visibility lease before any work starts.
+ *
+ * Predictive leases - a message is expected to finish after the predicted cost of the cheaper messages of the batch
+ * spread over the queue's concurrency limit (or, in an ordered FIFO group, after the messages ahead of it in the
+ * group) plus its own predicted cost. If that plus sqs.leases.marginPercent (default 25) and sqs.leases.marginSeconds
+ * (default 5) does not fit in the visibility timeout the message was received with, its visibility is raised right
+ * away with ChangeMessageVisibilityBatch, so that the heartbeat of VisibilityLeaseManager only has to step in for
+ * messages that take longer than predicted. Disable with -Dsqs.leases.predictive=false.
+ */
+public class CostAwareBatch {
+
+    private static final int MAX_VISIBILITY_TIMEOUT = 43_200;
+    private static final int MAX_BATCH_ENTRIES = 10;
+
+    private static final boolean PREDICTIVE_LEASES = SQSConfiguration.getBoolean("sqs.leases.predictive", true);
+    private static final int MARGIN_PERCENT = SQSConfiguration.getInt("sqs.leases.marginPercent", 25);
+    private static final int MARGIN_SECONDS = SQSConfiguration.getInt("sqs.leases.marginSeconds", 5);
+
+    private CostAwareBatch() {
+    }
+
+    /**
+     * Decodes the messages and predicts their cost; a message that cannot be decoded or parsed becomes a job that
+     * fails with that error when it runs.
+     */
+    public static List<Job> prepare(CostModel costModel, List<Message> messages, Function<Message, String> decoder,
+                                    boolean orderedGroups) {
+        List<Job> jobs = new ArrayList<>(messages.size());
+        // the visibility timeout of the messages started no later than this
+        long receivedAtNanos = System.nanoTime();
+        for (Message message : messages) {
+            String groupId = orderedGroups ? message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID) : null;
+            try {
+                String body = decoder.apply(message);
+                int complexity = CostModel.parseComplexity(body);
+                jobs.add(new Job(message, groupId, body, complexity, costModel.predictNanos(complexity), null,
+                        receivedAtNanos));
+            } catch (RuntimeException e) {
+                jobs.add(new Job(message, groupId, null, 0, 0, e, receivedAtNanos));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Raises the visibility of the jobs predicted to outlast visibilityTimeout, see the class comment. The returned
+     * future never fails: a job whose visibility could not be raised keeps visibilityTimeout and relies on heartbeats.
+     */
+    public static CompletableFuture<Void> leaseUpfront(String queueUrl, String queueName, List<Job> jobs,
+                                                       int visibilityTimeout, int concurrencyLimit) {
+        for (Job job : jobs) {
+            job.visibilityTimeout = visibilityTimeout;
+            job.visibleUntilNanos = job.receivedAtNanos + TimeUnit.SECONDS.toNanos(visibilityTimeout);
+        }
+        if (!PREDICTIVE_LEASES) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<Job> extended = new ArrayList<>();
+        Map<Job, Integer> required = new HashMap<>();
+        for (Map.Entry<Job, Long> finish : predictFinish(jobs, concurrencyLimit).entrySet()) {
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(finish.getValue() * (100 + MARGIN_PERCENT) / 100)
+                    + 1 + MARGIN_SECONDS;
+            if (seconds > visibilityTimeout) {
+                extended.add(finish.getKey());
+                required.put(finish.getKey(), (int) Math.min(MAX_VISIBILITY_TIMEOUT, seconds));
+            }
+        }
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < extended.size(); from += MAX_BATCH_ENTRIES) {
+            List<Job> batch = extended.subList(from, Math.min(extended.size(), from + MAX_BATCH_ENTRIES));
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(batch.get(i).message.receiptHandle())
+                        .visibilityTimeout(required.get(batch.get(i)))
+                        .build());
+            }
+            ChangeMessageVisibilityBatchRequest request = ChangeMessageVisibilityBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build();
+            // the new timeouts count from when SQS applies them, which is not before now
+            long requestedAtNanos = System.nanoTime();
+            batches.add(changeVisibility(request).handle((response, error) -> {
+                if (nonNull(error)) {
+                    AsyncLogger.error("Upfront visibility extension failed: %s", error.getLocalizedMessage());
+                    return null;
+                }
+                List<String> failed = new ArrayList<>();
+                for (BatchResultErrorEntry entry : response.failed()) {
+                    failed.add(entry.id());
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!failed.contains(String.valueOf(i))) {
+                        batch.get(i).visibilityTimeout = required.get(batch.get(i));
+                        batch.get(i).visibleUntilNanos = requestedAtNanos
+                                + TimeUnit.SECONDS.toNanos(required.get(batch.get(i)));
+                        Metrics.counter("sqs_upfront_lease_extensions_total",
+                                "Visibility timeouts raised up front from the predicted cost", "queue", queueName)
+                                .increment();
+                    }
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * The order to submit the jobs in: cheapest first, which is also the order predictFinish assumes. The jobs of an
+     * ordered group keep their order among themselves - they take the positions of the group's jobs in the sorted
+     * order, the first of them where the group's cheapest job would start.
+     */
+    public static List<Job> startOrder(List<Job> jobs) {
+        List<Job> byCost = new ArrayList<>(jobs);
+        byCost.sort(Comparator.comparingLong(job -> job.predictedNanos));
+        Map<String, ArrayDeque<Job>> groups = new HashMap<>();
+        for (Job job : jobs) {
+            if (nonNull(job.groupId)) {
+                groups.computeIfAbsent(job.groupId, id -> new ArrayDeque<>()).add(job);
+            }
+        }
+        List<Job> order = new ArrayList<>(byCost.size());
+        for (Job job : byCost) {
+            order.add(isNull(job.groupId) ? job : groups.get(job.groupId).poll());
+        }
+        return order;
+    }
+
+    /*
+     * Predicted nanoseconds from now until each job is done.
+     */
+    private static Map<Job, Long> predictFinish(List<Job> jobs, int concurrencyLimit) {
+        Map<Job, Long> finish = new HashMap<>();
+        long cheaper = 0;
+        for (Job job : startOrder(jobs)) {
+            finish.put(job, cheaper / Math.max(1, concurrencyLimit) + job.predictedNanos);
+            cheaper += job.predictedNanos;
+        }
+        Map<String, Long> groupAhead = new HashMap<>();
+        for (Job job : jobs) {
+            if (isNull(job.groupId)) {
+                continue;
+            }
+            long ahead = groupAhead.getOrDefault(job.groupId, 0L);
+            finish.put(job, Math.max(finish.get(job), ahead + job.predictedNanos));
+            groupAhead.put(job.groupId, ahead + job.predictedNanos);
+        }
+        return finish;
+    }
+
+    private static CompletableFuture<ChangeMessageVisibilityBatchResponse> changeVisibility(
+            ChangeMessageVisibilityBatchRequest request) {
+        if (SQSUtility.isAsyncEnabled()) {
+            return SQSUtility.changeMessagesVisibilityBatchAsync(request);
+        }
+        try {
+            return CompletableFuture.completedFuture(SQSUtility.changeMessagesVisibilityBatch(request));
+        } catch (SdkException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static class Job {
+        private final Message message;
+        private final String groupId;
+        private final String body;
+        private final int complexity;
+        private final long predictedNanos;
+        private final RuntimeException failure;
+        private final long receivedAtNanos;
+        private volatile Integer visibilityTimeout;
+        private volatile long visibleUntilNanos;
+
+        Job(Message message, String groupId, String body, int complexity, long predictedNanos,
+            RuntimeException failure, long receivedAtNanos) {
+            this.message = message;
+            this.groupId = groupId;
+            this.body = body;
+            this.complexity = complexity;
+            this.predictedNanos = predictedNanos;
+            this.failure = failure;
+            this.receivedAtNanos = receivedAtNanos;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        /**
+         * The decoded body; throws the error that kept the message from being prepared.
+         */
+        public String getBody() {
+            if (nonNull(failure)) {
+                throw failure;
+            }
+            return body;
+        }
+
+        public int getComplexity() {
+            return complexity;
+        }
+
+        public long getPredictedNanos() {
+            return predictedNanos;
+        }
+
+        /**
+         * Visibility timeout the message currently has, null when it is not leased.
+         */
+        public Integer getVisibilityTimeout() {
+            return visibilityTimeout;
+        }
+
+        /**
+         * System.nanoTime at which that visibility timeout runs out; the job may have waited in its lane since it was
+         * set. Only meaningful while getVisibilityTimeout is not null.
+         */
+        public long getVisibleUntilNanos() {
+            return visibleUntilNanos;
+        }
+    }
+}
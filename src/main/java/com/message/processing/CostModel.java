@@ -0,0 +1,98 @@
+package com.message.processing;
+
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Predicts how long a message of a queue takes to process from the complexity factor in its body.
+ *
+ * The nominal cost is complexity * baseMillis; what processing actually takes is learned per queue as an EWMA of
+ * actual / nominal (weight sqs.cost.learningRatePercent, default 20), so the prediction follows a queue whose work
+ * turns out slower or faster than nominal. The ratio starts at 1 and is exported as sqs_cost_model_ratio.
+ */
+public class CostModel {
+
+    private static final ConcurrentHashMap<String, CostModel> MODELS = new ConcurrentHashMap<>();
+
+    private final long baseNanos;
+    private final double learningRate;
+    // guarded by this
+    private double ratio = 1;
+
+    private CostModel(String queueName, long baseMillis) {
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMillis);
+        this.learningRate = Math.min(1, Math.max(0.01,
+                SQSConfiguration.getInt("sqs.cost.learningRatePercent", 20) / 100.0));
+        Metrics.gauge("sqs_cost_model_ratio", "Learned ratio of actual to nominal processing time",
+                this::getRatio, "queue", queueName);
+    }
+
+    /**
+     * Returns the model of the queue, creating it with the nominal cost of one complexity unit on first use.
+     */
+    public static CostModel forQueue(String queueName, long baseMillis) {
+        return MODELS.computeIfAbsent(queueName, name -> new CostModel(name, baseMillis));
+    }
+
+    public synchronized double getRatio() {
+        return ratio;
+    }
+
+    public long predictNanos(int complexity) {
+        return (long) (complexity * baseNanos * getRatio());
+    }
+
+    /**
+     * Learns from a message that was actually processed; complexity 0 says nothing about the ratio.
+     */
+    public void record(int complexity, long actualNanos) {
+        if (complexity <= 0) {
+            return;
+        }
+        double observed = (double) actualNanos / (complexity * baseNanos);
+        synchronized (this) {
+            ratio += learningRate * (observed - ratio);
+        }
+    }
+
+    /**
+     * The complexity factor of a body: all ASCII digits in it read as one number, without building the digit string.
+     * Same result as Integer.parseInt(body.replaceAll("[^0-9]", "")), including the NumberFormatException for a body
+     * without digits or with a number that does not fit an int.
+     */
+    public static int parseComplexity(CharSequence body) {
+        int value = 0;
+        boolean digits = false;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c < '0' || c > '9') {
+                continue;
+            }
+            digits = true;
+            int digit = c - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw invalidComplexity(body);
+            }
+            value = value * 10 + digit;
+        }
+        if (!digits) {
+            throw invalidComplexity(body);
+        }
+        return value;
+    }
+
+    // only the failure path pays for the digit string, with the message Integer.parseInt would have given
+    private static NumberFormatException invalidComplexity(CharSequence body) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return new NumberFormatException("For input string: \"" + digits + "\"");
+    }
+}
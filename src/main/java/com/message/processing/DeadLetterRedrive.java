@@ -0,0 +1,396 @@
+package com.message.processing;
+
+import com.message.codec.BodyCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.request.RedrivePayload;
+import com.message.store.ClaimCheck;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import com.message.util.SendMessageBatcher;
+import com.message.util.TokenBucket;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Moves the messages of a dead-letter queue back to their source queue (or any other queue).
+ *
+ * Parallel receivers long-poll the dead-letter queue; matching messages are sent on with SendMessageBatch - body and
+ * message attributes unchanged, so compressed bodies and claim checks stay valid - and deleted with
+ * DeleteMessageBatch once the send went through. A token bucket caps the messages moved per second.
+ *
+ * Messages that do not match the filters, were over maxMessages, failed to send or were only counted in a dry run are
+ * received with a long visibility timeout (sqs.redrive.holdSeconds, default 900) so that no receiver sees them twice,
+ * and are made visible again at the end. The run ends when every receiver got sqs.redrive.emptyReceives empty long
+ * polls in a row (default 2) or maxMessages were claimed.
+ */
+public class DeadLetterRedrive {
+
+    private static final int MAX_BATCH = 10;
+
+    private final String deadLetterQueueUrl;
+    private final String targetQueueName;
+    private final String targetQueueUrl;
+    private final boolean targetFifo;
+    private final RedrivePayload payload;
+    private final Pattern bodyPattern;
+    private final TokenBucket rateLimit;
+    private final int receivers;
+    private final int holdSeconds;
+    private final int emptyReceivesToStop;
+    private final int waitTimeSeconds;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final ConcurrentLinkedQueue<String> held = new ConcurrentLinkedQueue<>();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong matched = new AtomicLong();
+    private final AtomicLong moved = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deleteFailed = new AtomicLong();
+
+    public DeadLetterRedrive(RedrivePayload payload, String deadLetterQueueUrl, String targetQueueName) {
+        this.payload = payload;
+        this.deadLetterQueueUrl = deadLetterQueueUrl;
+        this.targetQueueName = targetQueueName;
+        this.targetQueueUrl = payload.isDryRun() ? null : SQSUtility.getQueueUrl(targetQueueName);
+        this.targetFifo = targetQueueName.endsWith(".fifo");
+        this.bodyPattern = nonNull(payload.getBodyPattern()) ? Pattern.compile(payload.getBodyPattern()) : null;
+        double messagesPerSecond = nonNull(payload.getMessagesPerSecond()) ? payload.getMessagesPerSecond()
+                : SQSConfiguration.getInt("sqs.redrive.messagesPerSecond", 100);
+        this.rateLimit = new TokenBucket(messagesPerSecond, Math.max(MAX_BATCH, messagesPerSecond));
+        this.receivers = Math.min(16, nonNull(payload.getReceivers()) ? payload.getReceivers()
+                : SQSConfiguration.getInt("sqs.redrive.receivers", 4));
+        this.holdSeconds = SQSConfiguration.getInt("sqs.redrive.holdSeconds", 900);
+        this.emptyReceivesToStop = Math.max(1, SQSConfiguration.getInt("sqs.redrive.emptyReceives", 2));
+        this.waitTimeSeconds = SQSConfiguration.getInt("sqs.redrive.waitTimeSeconds", 2);
+    }
+
+    /**
+     * Runs the redrive on the calling thread's behalf and reports progress to the listener every progressMillis and
+     * once more when it is done.
+     */
+    public Progress run(Consumer<Progress> listener, long progressMillis) throws InterruptedException {
+        long started = System.nanoTime();
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(receivers, runnable -> {
+            Thread thread = new Thread(runnable, "redrive-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < receivers; i++) {
+                pool.execute(this::receiveLoop);
+            }
+            pool.shutdown();
+            while (!pool.awaitTermination(progressMillis, TimeUnit.MILLISECONDS)) {
+                listener.accept(progress(started, false));
+            }
+        } finally {
+            pool.shutdownNow();
+            releaseHeld();
+        }
+        Progress result = progress(started, true);
+        listener.accept(result);
+        AsyncLogger.info("Redrive of %s finished: %d received, %d matched, %d moved, %d failed%s", deadLetterQueueUrl,
+                result.getReceived(), result.getMatched(), result.getMoved(), result.getFailed(),
+                result.isDryRun() ? " (dry run)" : "");
+        return result;
+    }
+
+    private Progress progress(long startedNanos, boolean done) {
+        return new Progress(this, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos), done);
+    }
+
+    private void receiveLoop() {
+        ReceiveMessageRequest request = ReceiveMessageRequest.builder()
+                .queueUrl(deadLetterQueueUrl)
+                .maxNumberOfMessages(MAX_BATCH)
+                .waitTimeSeconds(waitTimeSeconds)
+                .visibilityTimeout(holdSeconds)
+                .attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString(),
+                        MessageSystemAttributeName.MESSAGE_DEDUPLICATION_ID.toString())
+                .messageAttributeNames("All")
+                .build();
+        int emptyReceives = 0;
+        while (emptyReceives < emptyReceivesToStop && !isLimitReached() && !Thread.currentThread().isInterrupted()) {
+            List<Message> messages;
+            try {
+                messages = SQSUtility.receiveMessages(request);
+            } catch (SdkException e) {
+                AsyncLogger.error("Redrive receive failed for %s : %s", deadLetterQueueUrl, e.getLocalizedMessage());
+                emptyReceives++;
+                continue;
+            }
+            if (messages.isEmpty()) {
+                emptyReceives++;
+                continue;
+            }
+            emptyReceives = 0;
+            received.addAndGet(messages.size());
+
+            List<Message> matching = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                if (!matches(message)) {
+                    skipped.incrementAndGet();
+                    held.add(message.receiptHandle());
+                } else if (!claim()) {
+                    held.add(message.receiptHandle());
+                } else if (payload.isDryRun()) {
+                    matched.incrementAndGet();
+                    held.add(message.receiptHandle());
+                } else {
+                    matched.incrementAndGet();
+                    matching.add(message);
+                }
+            }
+            try {
+                move(matching);
+            } catch (InterruptedException e) {
+                matching.forEach(message -> held.add(message.receiptHandle()));
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isLimitReached() {
+        return nonNull(payload.getMaxMessages()) && claimed.get() >= payload.getMaxMessages();
+    }
+
+    private boolean claim() {
+        return isNull(payload.getMaxMessages()) || claimed.incrementAndGet() <= payload.getMaxMessages();
+    }
+
+    private boolean matches(Message message) {
+        Map<String, String> attributes = payload.getMessageAttributes();
+        if (nonNull(attributes)) {
+            for (Map.Entry<String, String> expected : attributes.entrySet()) {
+                MessageAttributeValue actual = message.messageAttributes().get(expected.getKey());
+                if (isNull(actual) || !expected.getValue().equals(actual.stringValue())) {
+                    return false;
+                }
+            }
+        }
+        if (isNull(payload.getBodyContains()) && isNull(bodyPattern)) {
+            return true;
+        }
+        String body;
+        try {
+            body = BodyCodec.decode(ClaimCheck.resolve(message));
+        } catch (RuntimeException e) {
+            // a body that cannot be read cannot match, the message stays where it is
+            return false;
+        }
+        return (isNull(payload.getBodyContains()) || body.contains(payload.getBodyContains()))
+                && (isNull(bodyPattern) || bodyPattern.matcher(body).find());
+    }
+
+    private void move(List<Message> messages) throws InterruptedException {
+        int from = 0;
+        while (from < messages.size()) {
+            // up to 10 entries and 256 KB per batch
+            List<Message> batch = new ArrayList<>(MAX_BATCH);
+            long bytes = 0;
+            while (from < messages.size() && batch.size() < MAX_BATCH) {
+                Message message = messages.get(from);
+                long size = SendMessageBatcher.sizeOf(message.body(), message.messageAttributes());
+                if (!batch.isEmpty() && bytes + size > SendMessageBatcher.MAX_BATCH_BYTES) {
+                    break;
+                }
+                batch.add(message);
+                bytes += size;
+                from++;
+            }
+            rateLimit.acquire(batch.size());
+            moveBatch(batch);
+        }
+    }
+
+    private void moveBatch(List<Message> batch) {
+        Map<String, Message> byId = new HashMap<>();
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Message message = batch.get(i);
+            String id = String.valueOf(i);
+            byId.put(id, message);
+            SendMessageBatchRequestEntry.Builder entry = SendMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .messageBody(message.body())
+                    .messageAttributes(message.messageAttributes());
+            if (targetFifo) {
+                String groupId = message.attributes().get(MessageSystemAttributeName.MESSAGE_GROUP_ID);
+                String deduplicationId = message.attributes().get(MessageSystemAttributeName.MESSAGE_DEDUPLICATION_ID);
+                entry.messageGroupId(nonNull(groupId) ? groupId : "redrive")
+                        .messageDeduplicationId(nonNull(deduplicationId) ? deduplicationId : message.messageId());
+            }
+            entries.add(entry.build());
+        }
+
+        SendMessageBatchResponse sent;
+        try {
+            sent = SQSUtility.sendMessageBatch(SendMessageBatchRequest.builder()
+                    .queueUrl(targetQueueUrl)
+                    .entries(entries)
+                    .build());
+        } catch (SdkException e) {
+            AsyncLogger.error("Redrive send failed for %s : %s", targetQueueUrl, e.getLocalizedMessage());
+            failed.addAndGet(batch.size());
+            batch.forEach(message -> held.add(message.receiptHandle()));
+            return;
+        }
+        for (BatchResultErrorEntry error : sent.failed()) {
+            AsyncLogger.error("MESSAGE = %s ; STATUS = REDRIVE_FAILED ; ERROR = %s", byId.get(error.id()).messageId(),
+                    error.message());
+            failed.incrementAndGet();
+            held.add(byId.get(error.id()).receiptHandle());
+        }
+        if (!sent.hasSuccessful() || sent.successful().isEmpty()) {
+            return;
+        }
+
+        List<DeleteMessageBatchRequestEntry> deletes = new ArrayList<>(sent.successful().size());
+        for (SendMessageBatchResultEntry result : sent.successful()) {
+            deletes.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(result.id())
+                    .receiptHandle(byId.get(result.id()).receiptHandle())
+                    .build());
+        }
+        moved.addAndGet(deletes.size());
+        Metrics.counter("sqs_redriven_messages_total", "Messages moved out of dead-letter queues",
+                "target", targetQueueUrl).add(deletes.size());
+        try {
+            DeleteMessageBatchResponse deleted = SQSUtility.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(deadLetterQueueUrl)
+                    .entries(deletes)
+                    .build());
+            for (BatchResultErrorEntry error : deleted.failed()) {
+                // already sent: the copy in the dead-letter queue shows up again once its hold runs out
+                AsyncLogger.error("MESSAGE = %s ; STATUS = REDRIVE_DELETE_FAILED ; ERROR = %s",
+                        byId.get(error.id()).messageId(), error.message());
+                deleteFailed.incrementAndGet();
+            }
+        } catch (SdkException e) {
+            AsyncLogger.error("Redrive delete failed for %s : %s", deadLetterQueueUrl, e.getLocalizedMessage());
+            deleteFailed.addAndGet(deletes.size());
+        }
+    }
+
+    private void releaseHeld() {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(MAX_BATCH);
+        String receiptHandle;
+        while (nonNull(receiptHandle = held.poll())) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(String.valueOf(entries.size()))
+                    .receiptHandle(receiptHandle)
+                    .visibilityTimeout(0)
+                    .build());
+            if (entries.size() == MAX_BATCH || held.isEmpty()) {
+                try {
+                    SQSUtility.changeMessagesVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                            .queueUrl(deadLetterQueueUrl)
+                            .entries(entries)
+                            .build());
+                } catch (SdkException e) {
+                    // they become visible on their own once the hold runs out
+                    AsyncLogger.error("Redrive release failed for %s : %s", deadLetterQueueUrl,
+                            e.getLocalizedMessage());
+                }
+                entries = new ArrayList<>(MAX_BATCH);
+            }
+        }
+    }
+
+    /*
+     * State of a run at one point in time, streamed to the caller as JSON.
+     */
+    public static class Progress {
+        private final String targetQueueName;
+        private final boolean dryRun;
+        private final boolean done;
+        private final long elapsedMillis;
+        private final long received;
+        private final long matched;
+        private final long moved;
+        private final long skipped;
+        private final long failed;
+        private final long deleteFailed;
+
+        Progress(DeadLetterRedrive redrive, long elapsedMillis, boolean done) {
+            this.targetQueueName = redrive.targetQueueName;
+            this.dryRun = redrive.payload.isDryRun();
+            this.done = done;
+            this.elapsedMillis = elapsedMillis;
+            this.received = redrive.received.get();
+            this.matched = redrive.matched.get();
+            this.moved = redrive.moved.get();
+            this.skipped = redrive.skipped.get();
+            this.failed = redrive.failed.get();
+            this.deleteFailed = redrive.deleteFailed.get();
+        }
+
+        public String getTargetQueueName() {
+            return targetQueueName;
+        }
+
+        public boolean isDryRun() {
+            return dryRun;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * Messages that passed the filters (and maxMessages); in a dry run, those that would have been moved.
+         */
+        public long getMatched() {
+            return matched;
+        }
+
+        public long getMoved() {
+            return moved;
+        }
+
+        /**
+         * Messages left in the dead-letter queue because they did not pass the filters.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Messages sent to the target whose delete from the dead-letter queue failed; they will be redriven twice.
+         */
+        public long getDeleteFailed() {
+            return deleteFailed;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.message.processing;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.store.DelayJournal;
+import com.message.util.CallRejectedException;
+import com.message.util.SQSConfiguration;
+import com.message.util.SendMessageBatcher;
+import com.message.util.SqsResilience;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Delivery of messages delayed beyond the 900 seconds SQS supports (-Dsqs.delay.journalPath=<directory>).
+ *
+ * A scheduled SendMessageRequest is written to the DelayJournal, so it survives a restart, and only its journal handle
+ * is kept in memory, in a TimingWheel ticking every sqs.delay.tickMillis (default 1000). The journal record is due at
+ * the release time: 900 seconds before delivery for a standard queue, whose last leg is an ordinary DelaySeconds, and
+ * the delivery time itself for a FIFO queue, which has no per-message delay. Released messages go out through their
+ * own SendMessageBatcher with at most sqs.delay.maxInFlight (default 1000) sends outstanding; the record is completed
+ * once SQS took the message. A send that failed transiently (SqsResilience.isTransient, or held back by the client) is
+ * tried again after sqs.delay.retrySeconds (default 30), up to sqs.delay.maxAttempts (default 20) times; any other
+ * failure - the queue is gone, the message is invalid - completes the record and counts the message as dropped.
+ */
+public class DelayedDelivery {
+
+    public static final int MAX_NATIVE_DELAY_SECONDS = 900;
+
+    private static final DelayedDelivery INSTANCE = fromConfiguration();
+
+    private final DelayJournal journal;
+    private final long tickMillis;
+    private final long retryTicks;
+    private final int maxAttempts;
+    // failed attempts of the handles being retried, only those
+    private final ConcurrentHashMap<Long, Integer> failedAttempts = new ConcurrentHashMap<>();
+    private final Semaphore inFlight;
+    private final SendMessageBatcher batcher;
+    // guarded by itself
+    private final TimingWheel wheel;
+    private final ScheduledExecutorService ticker;
+
+    private DelayedDelivery(DelayJournal journal) throws IOException {
+        this.journal = journal;
+        this.tickMillis = Math.max(1, SQSConfiguration.getLong("sqs.delay.tickMillis", 1000));
+        this.retryTicks = Math.max(1, TimeUnit.SECONDS.toMillis(
+                SQSConfiguration.getLong("sqs.delay.retrySeconds", 30)) / tickMillis);
+        this.maxAttempts = Math.max(1, SQSConfiguration.getInt("sqs.delay.maxAttempts", 20));
+        this.inFlight = new Semaphore(Math.max(1, SQSConfiguration.getInt("sqs.delay.maxInFlight", 1000)));
+        this.batcher = new SendMessageBatcher("delayed-send-batcher",
+                SQSConfiguration.getLong("sqs.delay.lingerMillis", 50), 3,
+                SQSConfiguration.getInt("sqs.delay.dispatcherThreads", 2));
+        this.wheel = new TimingWheel(System.currentTimeMillis() / tickMillis);
+        journal.recover((handle, releaseAtMillis) -> wheel.add(handle, tickOf(releaseAtMillis)));
+
+        Metrics.gauge("sqs_delayed_pending", "Delayed messages in the journal not yet handed to SQS",
+                journal::getPendingCount);
+        Metrics.gauge("sqs_delayed_journal_segments", "Segment files of the delayed delivery journal",
+                journal::getSegmentCount);
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "delayed-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, 0, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static DelayedDelivery fromConfiguration() {
+        String path = SQSConfiguration.getString("sqs.delay.journalPath", "");
+        if (path.isBlank()) {
+            return null;
+        }
+        try {
+            return new DelayedDelivery(new DelayJournal(Paths.get(path),
+                    SQSConfiguration.getInt("sqs.delay.segmentBytes", 64 * 1024 * 1024)));
+        } catch (IOException e) {
+            // without the journal only the delays SQS supports natively are accepted
+            AsyncLogger.error("Delayed delivery disabled, journal %s not usable: %s", path, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return nonNull(INSTANCE);
+    }
+
+    /**
+     * Journals the request for delivery delaySeconds from now, its own delaySeconds is ignored.
+     *
+     * @return the id of the scheduled message, "delayed-" followed by its journal handle
+     */
+    public static String schedule(SendMessageRequest request, long delaySeconds) {
+        if (!isEnabled()) {
+            throw new IllegalArgumentException("delay over " + MAX_NATIVE_DELAY_SECONDS
+                    + " seconds needs sqs.delay.journalPath");
+        }
+        return INSTANCE.add(request, delaySeconds);
+    }
+
+    public static void shutdown() {
+        if (isEnabled()) {
+            INSTANCE.ticker.shutdownNow();
+            INSTANCE.journal.close();
+        }
+    }
+
+    private String add(SendMessageRequest request, long delaySeconds) {
+        long deliverAtMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(delaySeconds);
+        long releaseAtMillis = isFifo(request.queueUrl())
+                ? deliverAtMillis
+                : deliverAtMillis - TimeUnit.SECONDS.toMillis(MAX_NATIVE_DELAY_SECONDS);
+        long handle = journal.append(releaseAtMillis, encode(request, deliverAtMillis));
+        synchronized (wheel) {
+            wheel.add(handle, tickOf(releaseAtMillis));
+        }
+        Metrics.counter("sqs_delayed_scheduled_total", "Messages scheduled for delayed delivery").increment();
+        return "delayed-" + Long.toHexString(handle);
+    }
+
+    // rounds up, so a message is never released before its time
+    private long tickOf(long millis) {
+        return Math.floorDiv(millis + tickMillis - 1, tickMillis);
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis() / tickMillis;
+            Expired expired = new Expired();
+            while (true) {
+                // one tick at a time, so a wheel that fell behind does not hand over everything due at once
+                synchronized (wheel) {
+                    if (wheel.getCurrentTick() >= now) {
+                        return;
+                    }
+                    wheel.advanceTo(wheel.getCurrentTick() + 1, expired);
+                }
+                for (int i = 0; i < expired.count; i++) {
+                    long handle = expired.handles[i];
+                    try {
+                        release(handle);
+                    } catch (RuntimeException e) {
+                        // the handle has left the wheel, without it the message would wait for the next restart
+                        failed(handle, e);
+                    }
+                }
+                expired.count = 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            AsyncLogger.error("Delayed delivery tick failed: %s", e.getLocalizedMessage());
+        }
+    }
+
+    private void release(long handle) throws InterruptedException {
+        SendMessageRequest request;
+        try {
+            request = decode(journal.read(handle));
+        } catch (RuntimeException e) {
+            // an unreadable record would fail again on every retry
+            AsyncLogger.error("Dropping unreadable delayed message %s: %s", Long.toHexString(handle),
+                    e.getLocalizedMessage());
+            journal.complete(handle);
+            return;
+        }
+        inFlight.acquire();
+        CompletableFuture<SendMessageResponse> sent;
+        try {
+            sent = batcher.send(request);
+        } catch (RuntimeException e) {
+            inFlight.release();
+            throw e;
+        }
+        sent.whenComplete((response, error) -> {
+            inFlight.release();
+            if (isNull(error)) {
+                failedAttempts.remove(handle);
+                journal.complete(handle);
+                Metrics.counter("sqs_delayed_released_total", "Delayed messages handed to SQS").increment();
+                return;
+            }
+            failed(handle, error instanceof CompletionException ? error.getCause() : error);
+        });
+    }
+
+    private void failed(long handle, Throwable error) {
+        Metrics.counter("sqs_delayed_release_failures_total", "Failed sends of delayed messages").increment();
+        int attempts = failedAttempts.merge(handle, 1, Integer::sum);
+        if (isRetryable(error) && attempts < maxAttempts) {
+            AsyncLogger.error("Delayed message %s not sent, retrying: %s", Long.toHexString(handle),
+                    error.getLocalizedMessage());
+            synchronized (wheel) {
+                wheel.add(handle, wheel.getCurrentTick() + retryTicks);
+            }
+            return;
+        }
+        AsyncLogger.error("Dropping delayed message %s after %d attempts: %s", Long.toHexString(handle), attempts,
+                error.getLocalizedMessage());
+        failedAttempts.remove(handle);
+        journal.complete(handle);
+        Metrics.counter("sqs_delayed_dropped_total", "Delayed messages given up on").increment();
+    }
+
+    // SQS or the way to it is in trouble, or the client held the call back to protect it
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof CallRejectedException
+                || error instanceof SdkException && SqsResilience.isTransient((SdkException) error);
+    }
+
+    private static boolean isFifo(String queueUrl) {
+        return queueUrl.endsWith(".fifo");
+    }
+
+    /*
+     * Record payload: [long deliverAtMillis][queueUrl][body][groupId][deduplicationId][int attributes]
+     * then per attribute [name][dataType][stringValue][binaryValue]; strings and bytes as [int length][bytes],
+     * length -1 for null.
+     */
+    private static byte[] encode(SendMessageRequest request, long deliverAtMillis) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + request.messageBody().length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(deliverAtMillis);
+            writeString(out, request.queueUrl());
+            writeString(out, request.messageBody());
+            writeString(out, request.messageGroupId());
+            writeString(out, request.messageDeduplicationId());
+            Map<String, MessageAttributeValue> attributes = request.messageAttributes();
+            out.writeInt(attributes.size());
+            for (Map.Entry<String, MessageAttributeValue> attribute : attributes.entrySet()) {
+                MessageAttributeValue value = attribute.getValue();
+                writeString(out, attribute.getKey());
+                writeString(out, value.dataType());
+                writeString(out, value.stringValue());
+                writeBytes(out, isNull(value.binaryValue()) ? null : value.binaryValue().asByteArray());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static SendMessageRequest decode(ByteBuffer in) {
+        long deliverAtMillis = in.getLong();
+        String queueUrl = readString(in);
+        SendMessageRequest.Builder builder = SendMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageBody(readString(in))
+                .messageGroupId(readString(in))
+                .messageDeduplicationId(readString(in));
+        int count = in.getInt();
+        Map<String, MessageAttributeValue> attributes = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            String dataType = readString(in);
+            String stringValue = readString(in);
+            byte[] binaryValue = readBytes(in);
+            attributes.put(name, MessageAttributeValue.builder()
+                    .dataType(dataType)
+                    .stringValue(stringValue)
+                    .binaryValue(isNull(binaryValue) ? null : SdkBytes.fromByteArray(binaryValue))
+                    .build());
+        }
+        long remainingSeconds = TimeUnit.MILLISECONDS.toSeconds(
+                Math.max(0, deliverAtMillis - System.currentTimeMillis() + 999));
+        return builder
+                .messageAttributes(attributes)
+                .delaySeconds(isFifo(queueUrl) ? 0 : (int) Math.min(MAX_NATIVE_DELAY_SECONDS, remainingSeconds))
+                .build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, isNull(value) ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (isNull(value)) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] value = readBytes(in);
+        return isNull(value) ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return value;
+    }
+
+    // handles expired in one tick, collected without boxing
+    private static class Expired implements LongConsumer {
+        private long[] handles = new long[64];
+        private int count;
+
+        @Override
+        public void accept(long handle) {
+            if (count == handles.length) {
+                handles = Arrays.copyOf(handles, count * 2);
+            }
+            handles[count++] = handle;
+        }
+    }
+}
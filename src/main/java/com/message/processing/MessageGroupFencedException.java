@@ -0,0 +1,19 @@
+package com.message.processing;
+
+/**
+ * A FIFO message was not processed because an earlier message of its group failed in the same batch. It becomes
+ * visible again once its visibility timeout runs out and is then redelivered after the failed one.
+ */
+public class MessageGroupFencedException extends RuntimeException {
+
+    private final String messageGroupId;
+
+    public MessageGroupFencedException(String messageGroupId) {
+        super("Message group " + messageGroupId + " is fenced after a failed message");
+        this.messageGroupId = messageGroupId;
+    }
+
+    public String getMessageGroupId() {
+        return messageGroupId;
+    }
+}
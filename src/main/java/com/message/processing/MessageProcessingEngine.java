@@ -0,0 +1,288 @@
+package com.message.processing;
+
+import com.message.util.SQSConfiguration;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Runs message handlers on a shared worker pool so that the messages of one receive are processed in parallel.
+ *
+ * On Java 21+ every task gets its own virtual thread (disable with -Dsqs.processing.virtualThreads=false); on older
+ * runtimes a fixed platform pool of sqs.processing.workerThreads is used.
+ * Independently of the pool, each queue has its own concurrency limit:
+ *      sqs.processing.concurrency.<queueName>  - limit for one queue
+ *      sqs.processing.concurrency              - default for all other queues
+ * Tasks over the limit wait in the queue's lane without holding a worker thread.
+ *
+ * Waiting tasks are started shortest job first by their predicted cost, with aging so that expensive tasks are not
+ * starved: a task's rank is cost - sqs.processing.agingFactor * time waited (default 1, i.e. every nanosecond waited
+ * counts as a nanosecond of cost less; 0 is pure shortest job first). Tasks submitted without a cost rank by their
+ * waiting time alone, equal ranks start in submission order.
+ *
+ * FIFO messages go through submitOrdered: tasks of one message group run strictly one after the other, while
+ * different groups run concurrently (still within the queue's limit). When a task fails, the tasks queued behind it
+ * in the same group are fenced - failed with MessageGroupFencedException instead of being run - so that a failing
+ * message can neither be overtaken within its group nor hold up other groups.
+ */
+public class MessageProcessingEngine {
+
+    private static final MessageProcessingEngine INSTANCE = new MessageProcessingEngine();
+
+    private final ExecutorService workers;
+    private final boolean virtualThreads;
+    private final ConcurrentHashMap<String, QueueLane> lanes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, GroupLane> groups = new ConcurrentHashMap<>();
+    private final double agingFactor = Math.max(0, SQSConfiguration.getInt("sqs.processing.agingFactor", 1));
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private MessageProcessingEngine() {
+        ExecutorService virtual = SQSConfiguration.getBoolean("sqs.processing.virtualThreads", true)
+                ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = !isNull(virtual);
+        this.workers = virtualThreads ? virtual : Executors.newFixedThreadPool(
+                SQSConfiguration.getInt("sqs.processing.workerThreads", 64), workerThreads());
+    }
+
+    public static MessageProcessingEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Schedules the task in the lane of the queue; it starts as soon as the queue is under its concurrency limit.
+     */
+    public <T> CompletableFuture<T> submit(String queueName, Supplier<T> task) {
+        return submit(queueName, 0, task);
+    }
+
+    /**
+     * Same as submit, ranked among the waiting tasks of the queue by its predicted cost.
+     */
+    public <T> CompletableFuture<T> submit(String queueName, long costNanos, Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        laneFor(queueName).submit(costNanos, () -> {
+            try {
+                result.complete(task.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Schedules the task after all earlier tasks of the same message group. Without a group id this is submit.
+     */
+    public <T> CompletableFuture<T> submitOrdered(String queueName, String groupId, Supplier<T> task) {
+        return submitOrdered(queueName, groupId, 0, task);
+    }
+
+    /**
+     * Same as submitOrdered; once it is the group's turn, the task is ranked by its predicted cost.
+     */
+    public <T> CompletableFuture<T> submitOrdered(String queueName, String groupId, long costNanos,
+                                                  Supplier<T> task) {
+        if (isNull(groupId)) {
+            return submit(queueName, costNanos, task);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        GroupTask groupTask = new GroupTask(groupId, costNanos, () -> {
+            try {
+                result.complete(task.get());
+                return true;
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return false;
+            }
+        }, result);
+
+        String key = queueName + '\n' + groupId;
+        boolean[] idle = {false};
+        groups.compute(key, (k, lane) -> {
+            GroupLane current = isNull(lane) ? new GroupLane() : lane;
+            current.pending.add(groupTask);
+            if (!current.active) {
+                current.active = true;
+                idle[0] = true;
+            }
+            return current;
+        });
+        if (idle[0]) {
+            advance(queueName, key, false);
+        }
+        return result;
+    }
+
+    /**
+     * Number of message groups with a task running or waiting, across all queues.
+     */
+    public int getActiveGroupCount() {
+        return groups.size();
+    }
+
+    public int getConcurrencyLimit(String queueName) {
+        return laneFor(queueName).limit;
+    }
+
+    public int getRunningCount(String queueName) {
+        return laneFor(queueName).running.get();
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    private QueueLane laneFor(String queueName) {
+        return lanes.computeIfAbsent(queueName, name -> new QueueLane(SQSConfiguration.getInt(
+                "sqs.processing.concurrency." + name, SQSConfiguration.getInt("sqs.processing.concurrency", 10))));
+    }
+
+    /*
+     * Hands the next task of the group to the queue's lane. A group without pending tasks is removed, which also
+     * lifts its fence: the next receive starts with the redelivered message that failed.
+     */
+    private void advance(String queueName, String key, boolean previousFailed) {
+        List<GroupTask> fenced = new ArrayList<>();
+        GroupTask[] next = {null};
+        groups.compute(key, (k, lane) -> {
+            if (previousFailed) {
+                lane.fenced = true;
+            }
+            GroupTask task;
+            while (!isNull(task = lane.pending.poll()) && lane.fenced) {
+                fenced.add(task);
+            }
+            next[0] = task;
+            return isNull(task) ? null : lane;
+        });
+
+        for (GroupTask task : fenced) {
+            task.result.completeExceptionally(new MessageGroupFencedException(task.groupId));
+        }
+        if (!isNull(next[0])) {
+            GroupTask task = next[0];
+            laneFor(queueName).submit(task.costNanos, () -> advance(queueName, key, !task.run.get()));
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // running on a JDK without virtual threads
+            return null;
+        }
+    }
+
+    private static ThreadFactory workerThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "message-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private class QueueLane {
+        private final int limit;
+        private final AtomicInteger running = new AtomicInteger();
+        private final PriorityBlockingQueue<RankedTask> waiting = new PriorityBlockingQueue<>();
+
+        QueueLane(int limit) {
+            this.limit = Math.max(1, limit);
+        }
+
+        /*
+         * cost - aging * (now - enqueued) orders the same way at any later time as cost + aging * enqueued, so the
+         * rank can be fixed when the task is queued.
+         */
+        void submit(long costNanos, Runnable task) {
+            long rank = costNanos + (long) (agingFactor * (System.nanoTime() - startNanos));
+            waiting.add(new RankedTask(rank, sequence.getAndIncrement(), task));
+            drain();
+        }
+
+        private void drain() {
+            while (!waiting.isEmpty()) {
+                int current = running.get();
+                if (current >= limit) {
+                    return;
+                }
+                if (!running.compareAndSet(current, current + 1)) {
+                    continue;
+                }
+                RankedTask task = waiting.poll();
+                if (isNull(task)) {
+                    running.decrementAndGet();
+                    continue;
+                }
+                workers.execute(() -> {
+                    try {
+                        task.task.run();
+                    } finally {
+                        running.decrementAndGet();
+                        drain();
+                    }
+                });
+            }
+        }
+    }
+
+    // guarded by the compute lock of its key in groups
+    private static class GroupLane {
+        private final ArrayDeque<GroupTask> pending = new ArrayDeque<>();
+        private boolean active;
+        private boolean fenced;
+    }
+
+    private static class RankedTask implements Comparable<RankedTask> {
+        private final long rank;
+        private final long sequence;
+        private final Runnable task;
+
+        RankedTask(long rank, long sequence, Runnable task) {
+            this.rank = rank;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(RankedTask other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class GroupTask {
+        private final String groupId;
+        private final long costNanos;
+        private final Supplier<Boolean> run;
+        private final CompletableFuture<?> result;
+
+        GroupTask(String groupId, long costNanos, Supplier<Boolean> run, CompletableFuture<?> result) {
+            this.groupId = groupId;
+            this.costNanos = costNanos;
+            this.run = run;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.message.processing;
+
+import com.message.codec.BodyCodec;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.MessageTracer;
+import com.message.metrics.Metrics;
+import com.message.store.ClaimCheck;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Background consumer that keeps long-polling one queue into a bounded in-memory buffer, so that ProcessMessage can
+ * hand out messages without a receive round trip.
+ *
+ * Polling pauses once the buffer reaches the high watermark and resumes when it has drained to the low watermark.
+ * Buffered messages are still in flight in SQS: each one carries the deadline at which its visibility timeout runs
+ * out, and messages that come within safetyMarginSeconds of it are released with ChangeMessageVisibility(0) so that
+ * another consumer can pick them up right away instead of after the timeout.
+ *
+ * With -Dsqs.adaptive.enabled=true the number of pollers and their batch size follow the queue's
+ * AdaptiveReceiveController; otherwise a single poller receives batches of 10.
+ */
+public class PrefetchingConsumer {
+
+    private static final ConcurrentHashMap<String, PrefetchingConsumer> CONSUMERS = new ConcurrentHashMap<>();
+
+    private static final int MAX_RECEIVE = 10;
+    private static final int LONG_POLL_SECONDS = 20;
+
+    private final String queueName;
+    private final String queueUrl;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long safetyMarginNanos;
+    private final long visibilityTimeoutNanos;
+
+    private final LinkedBlockingDeque<BufferedMessage> buffer = new LinkedBlockingDeque<>();
+    private final Object watermarkMonitor = new Object();
+    private final List<Thread> pollers = new CopyOnWriteArrayList<>();
+    private final Object receiversMonitor = new Object();
+    private final AdaptiveReceiveController controller;
+    private final ScheduledExecutorService janitor;
+    private volatile boolean running = true;
+    private volatile boolean paused;
+
+    private PrefetchingConsumer(String queueName) {
+        this.queueName = queueName;
+        this.queueUrl = SQSUtility.resolveQueueUrl(queueName);
+        this.highWatermark = SQSConfiguration.getInt("sqs.prefetch.highWatermark", 100);
+        this.lowWatermark = Math.min(highWatermark - 1, SQSConfiguration.getInt("sqs.prefetch.lowWatermark", 20));
+        this.safetyMarginNanos = TimeUnit.SECONDS.toNanos(
+                SQSConfiguration.getInt("sqs.prefetch.safetyMarginSeconds", 5));
+        this.visibilityTimeoutNanos = TimeUnit.SECONDS.toNanos(Integer.parseInt(
+                SQSUtility.getCachedAttributesValueForQueue(queueUrl, QueueAttributeName.VISIBILITY_TIMEOUT)));
+
+        this.controller = AdaptiveReceiveController.isEnabled()
+                ? AdaptiveReceiveController.start(queueName, queueUrl) : null;
+        this.janitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "prefetch-janitor-" + queueName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a consumer for the queue unless one is already running and returns it.
+     */
+    public static PrefetchingConsumer start(String queueName) {
+        return CONSUMERS.computeIfAbsent(queueName, name -> {
+            PrefetchingConsumer consumer = new PrefetchingConsumer(name);
+            consumer.startPollers(consumer.getReceiverCount());
+            if (nonNull(consumer.controller)) {
+                consumer.controller.onDecision(decision -> consumer.startPollers(decision.getReceivers()));
+            }
+            consumer.janitor.scheduleWithFixedDelay(consumer::releaseExpiring, 1, 1, TimeUnit.SECONDS);
+            Metrics.gauge("sqs_prefetch_buffered_messages", "Messages waiting in the prefetch buffer",
+                    consumer::getBufferedCount, "queue", name);
+            Metrics.gauge("sqs_prefetch_paused", "1 while polling is paused at the high watermark",
+                    () -> consumer.isPaused() ? 1 : 0, "queue", name);
+            Metrics.gauge("sqs_prefetch_receivers", "Pollers currently receiving into the prefetch buffer",
+                    consumer::getReceiverCount, "queue", name);
+            AsyncLogger.info("Prefetching consumer started for %s (watermarks %d/%d)",
+                    name, consumer.lowWatermark, consumer.highWatermark);
+            return consumer;
+        });
+    }
+
+    /**
+     * Returns the running consumer for the queue, or null if the queue is not prefetched.
+     */
+    public static PrefetchingConsumer forQueue(String queueName) {
+        return CONSUMERS.get(queueName);
+    }
+
+    public static Collection<PrefetchingConsumer> all() {
+        return CONSUMERS.values();
+    }
+
+    public static void stopAll() {
+        CONSUMERS.values().forEach(PrefetchingConsumer::stop);
+        CONSUMERS.clear();
+    }
+
+    /**
+     * Takes up to maxNumberOfMessages buffered messages, waiting at most waitTimeSeconds for the first one - the same
+     * contract as a ReceiveMessage call.
+     */
+    public List<BufferedMessage> drain(int maxNumberOfMessages, int waitTimeSeconds) {
+        List<BufferedMessage> drained = new ArrayList<>(maxNumberOfMessages);
+        try {
+            long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+            while (drained.isEmpty()) {
+                long remaining = waitUntil - System.nanoTime();
+                BufferedMessage first = remaining > 0
+                        ? buffer.pollFirst(remaining, TimeUnit.NANOSECONDS)
+                        : buffer.pollFirst();
+                if (isNull(first)) {
+                    break;
+                }
+                if (first.isUsable(System.nanoTime())) {
+                    drained.add(first);
+                } else {
+                    release(List.of(first));
+                }
+            }
+            BufferedMessage next;
+            while (drained.size() < maxNumberOfMessages && (next = buffer.pollFirst()) != null) {
+                if (next.isUsable(System.nanoTime())) {
+                    drained.add(next);
+                } else {
+                    release(List.of(next));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        signalDrained();
+        return drained;
+    }
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public int getReceiverCount() {
+        return isNull(controller) ? 1 : controller.getDecision().getReceivers();
+    }
+
+    public void stop() {
+        running = false;
+        pollers.forEach(Thread::interrupt);
+        AdaptiveReceiveController.stop(queueName);
+        janitor.shutdownNow();
+        List<BufferedMessage> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        release(remaining);
+    }
+
+    /*
+     * Pollers are only ever added; a poller whose index is beyond the current receiver count parks until the
+     * controller scales back up.
+     */
+    private void startPollers(int receivers) {
+        synchronized (receiversMonitor) {
+            for (int index = pollers.size(); index < receivers && running; index++) {
+                int pollerIndex = index;
+                Thread poller = new Thread(() -> pollLoop(pollerIndex), "prefetch-" + queueName + "-" + index);
+                poller.setDaemon(true);
+                pollers.add(poller);
+                poller.start();
+            }
+            receiversMonitor.notifyAll();
+        }
+    }
+
+    private void pollLoop(int index) {
+        ReceiveMessageRequest.Builder receiveRequestBuilder = ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(MAX_RECEIVE)
+                .waitTimeSeconds(LONG_POLL_SECONDS)
+                .messageAttributeNames(BodyCodec.ENCODING_ATTRIBUTE, ClaimCheck.ATTRIBUTE,
+                        MessageTracer.SENT_AT_ATTRIBUTE, MessageTracer.CORRELATION_ATTRIBUTE);
+        if (queueName.endsWith(".fifo")) {
+            receiveRequestBuilder.attributeNamesWithStrings(MessageSystemAttributeName.MESSAGE_GROUP_ID.toString());
+        }
+        ReceiveMessageRequest receiveRequest = receiveRequestBuilder.build();
+        while (running) {
+            try {
+                awaitReceiverSlot(index);
+                awaitBelowLowWatermarkIfFull();
+                int batchSize = isNull(controller) ? MAX_RECEIVE : controller.getDecision().getBatchSize();
+                List<Message> messages = SQSUtility.receiveMessages(batchSize == MAX_RECEIVE ? receiveRequest
+                        : receiveRequest.toBuilder().maxNumberOfMessages(batchSize).build());
+                if (nonNull(controller)) {
+                    controller.recordReceive(messages.size());
+                }
+                long deadline = System.nanoTime() + visibilityTimeoutNanos;
+                Metrics.counter("sqs_prefetched_messages_total", "Messages received by prefetching consumers",
+                        "queue", queueName).add(messages.size());
+                for (Message message : messages) {
+                    buffer.addLast(new BufferedMessage(message, deadline));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SdkException e) {
+                AsyncLogger.error("Prefetch receive failed for %s : %s", queueName, e.getLocalizedMessage());
+                sleepQuietly(1000);
+            }
+        }
+    }
+
+    private void awaitReceiverSlot(int index) throws InterruptedException {
+        if (index < getReceiverCount()) {
+            return;
+        }
+        synchronized (receiversMonitor) {
+            while (running && index >= getReceiverCount()) {
+                receiversMonitor.wait(1000);
+            }
+        }
+    }
+
+    private void awaitBelowLowWatermarkIfFull() throws InterruptedException {
+        if (buffer.size() < highWatermark) {
+            return;
+        }
+        synchronized (watermarkMonitor) {
+            paused = true;
+            while (running && buffer.size() > lowWatermark) {
+                watermarkMonitor.wait(1000);
+            }
+            paused = false;
+        }
+    }
+
+    private void signalDrained() {
+        if (paused && buffer.size() <= lowWatermark) {
+            synchronized (watermarkMonitor) {
+                watermarkMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void releaseExpiring() {
+        try {
+            long now = System.nanoTime();
+            List<BufferedMessage> expiring = new ArrayList<>();
+            Iterator<BufferedMessage> iterator = buffer.iterator();
+            while (iterator.hasNext()) {
+                BufferedMessage buffered = iterator.next();
+                if (!buffered.isUsable(now) && buffer.removeFirstOccurrence(buffered)) {
+                    expiring.add(buffered);
+                }
+            }
+            release(expiring);
+            signalDrained();
+        } catch (RuntimeException e) {
+            AsyncLogger.error("Prefetch release failed for %s : %s", queueName, e.getLocalizedMessage());
+        }
+    }
+
+    /*
+     * Makes the messages visible again right away (visibility timeout 0) instead of letting them expire.
+     */
+    private void release(List<BufferedMessage> messages) {
+        for (int from = 0; from < messages.size(); from += MAX_RECEIVE) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            for (int i = from; i < Math.min(messages.size(), from + MAX_RECEIVE); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(String.valueOf(i))
+                        .receiptHandle(messages.get(i).message.receiptHandle())
+                        .visibilityTimeout(0)
+                        .build());
+            }
+            try {
+                SQSUtility.changeMessagesVisibilityBatch(ChangeMessageVisibilityBatchRequest.builder()
+                        .queueUrl(queueUrl)
+                        .entries(entries)
+                        .build());
+            } catch (SdkException e) {
+                // the messages become visible on their own once the timeout runs out
+                AsyncLogger.error("Prefetch release failed for %s : %s", queueName, e.getLocalizedMessage());
+            }
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public class BufferedMessage {
+        private final Message message;
+        private final long visibilityDeadlineNanos;
+
+        BufferedMessage(Message message, long visibilityDeadlineNanos) {
+            this.message = message;
+            this.visibilityDeadlineNanos = visibilityDeadlineNanos;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * Whole seconds left before SQS makes the message visible to other consumers again.
+         */
+        public int getRemainingVisibilitySeconds() {
+            return (int) Math.max(0, TimeUnit.NANOSECONDS.toSeconds(visibilityDeadlineNanos - System.nanoTime()));
+        }
+
+        boolean isUsable(long now) {
+            return visibilityDeadlineNanos - now > safetyMarginNanos;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.message.processing;
+
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Consumes a set of queues through one ProcessMessage call: "queueNames=urgent:8,normal:2,bulk:1".
+ *
+ * weighted - the queue asked first is chosen by smooth weighted round robin, so over many receives each queue is
+ *            asked in proportion to its weight, evenly interleaved.
+ * strict   - queues are asked in the order given, the first is the most urgent. So that the others are not starved,
+ *            a queue that has not been asked for sqs.priority.maxStarvationMillis (default 5000) goes first.
+ * Every receive short-polls queues in that order until the batch is full. A queue found empty is skipped for
+ * sqs.priority.emptyBackoffMillis (default 500), doubling with every further empty poll up to
+ * sqs.priority.maxEmptyBackoffMillis (default 30000), so idle queues cost few receives. When no queue had anything the
+ * receive long-polls the most urgent (strict) or heaviest (weighted) queue, where a new message is served at once.
+ *
+ * The state (round robin position, backoff) lives per distinct queue list / mode and is shared by all calls; lists
+ * that differ only in spacing or an explicit weight of 1 share it. At most sqs.priority.maxReceivers (default 1000)
+ * are kept, the least recently used one is dropped first.
+ */
+public class PriorityReceiver {
+
+    public enum Mode {
+        WEIGHTED, STRICT
+    }
+
+    private static final ConcurrentHashMap<String, PriorityReceiver> RECEIVERS = new ConcurrentHashMap<>();
+    private static final int MAX_RECEIVERS = Math.max(1, SQSConfiguration.getInt("sqs.priority.maxReceivers", 1000));
+
+    private final Mode mode;
+    private final List<Source> sources;
+    private final Source longPollSource;
+    private volatile long lastUsedNanos = System.nanoTime();
+    private final long maxStarvationNanos = TimeUnit.MILLISECONDS.toNanos(
+            SQSConfiguration.getLong("sqs.priority.maxStarvationMillis", 5000));
+    private final long emptyBackoffNanos = TimeUnit.MILLISECONDS.toNanos(
+            SQSConfiguration.getLong("sqs.priority.emptyBackoffMillis", 500));
+    private final long maxEmptyBackoffNanos = TimeUnit.MILLISECONDS.toNanos(
+            SQSConfiguration.getLong("sqs.priority.maxEmptyBackoffMillis", 30_000));
+
+    private PriorityReceiver(Mode mode, List<Source> sources) {
+        this.mode = mode;
+        this.sources = sources;
+        Source heaviest = sources.get(0);
+        for (Source source : sources) {
+            if (mode == Mode.WEIGHTED && source.weight > heaviest.weight) {
+                heaviest = source;
+            }
+        }
+        this.longPollSource = heaviest;
+    }
+
+    /**
+     * Returns the receiver for the queue list, "name[:weight],..." (weight defaults to 1).
+     */
+    public static PriorityReceiver forQueues(String queueNames, Mode mode) {
+        List<Source> sources = parse(queueNames);
+        StringBuilder key = new StringBuilder(mode.name());
+        for (Source source : sources) {
+            key.append('|').append(source.name).append(':').append(source.weight);
+        }
+        PriorityReceiver receiver = RECEIVERS.get(key.toString());
+        if (isNull(receiver)) {
+            evictIfNecessary();
+            receiver = RECEIVERS.computeIfAbsent(key.toString(), k -> new PriorityReceiver(mode, sources));
+        }
+        receiver.lastUsedNanos = System.nanoTime();
+        return receiver;
+    }
+
+    private static void evictIfNecessary() {
+        while (RECEIVERS.size() >= MAX_RECEIVERS) {
+            Map.Entry<String, PriorityReceiver> leastRecent = null;
+            for (Map.Entry<String, PriorityReceiver> entry : RECEIVERS.entrySet()) {
+                if (isNull(leastRecent) || entry.getValue().lastUsedNanos - leastRecent.getValue().lastUsedNanos < 0) {
+                    leastRecent = entry;
+                }
+            }
+            if (isNull(leastRecent)) {
+                return;
+            }
+            RECEIVERS.remove(leastRecent.getKey(), leastRecent.getValue());
+        }
+    }
+
+    private static List<Source> parse(String queueNames) {
+        List<Source> sources = new ArrayList<>();
+        for (String entry : queueNames.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int colon = trimmed.lastIndexOf(':');
+            String name = colon < 0 ? trimmed : trimmed.substring(0, colon);
+            int weight = colon < 0 ? 1 : Integer.parseInt(trimmed.substring(colon + 1));
+            if (weight < 1) {
+                throw new IllegalArgumentException("weight of " + name + " must be at least 1");
+            }
+            sources.add(new Source(name, weight));
+        }
+        if (sources.isEmpty()) {
+            throw new IllegalArgumentException("queueNames must name at least one queue");
+        }
+        return sources;
+    }
+
+    public List<String> getQueueNames() {
+        List<String> names = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            names.add(source.name);
+        }
+        return names;
+    }
+
+    /**
+     * Receives up to template.maxNumberOfMessages from the queues, see the class comment; the receiver makes the
+     * actual ReceiveMessage call. The messages are returned by queue name.
+     */
+    public CompletableFuture<Map<String, List<Message>>> receive(
+            ReceiveMessageRequest template,
+            Function<ReceiveMessageRequest, CompletableFuture<List<Message>>> receiver) {
+        List<Source> order = order();
+        Map<String, List<Message>> received = new LinkedHashMap<>();
+        int maxNumberOfMessages = template.maxNumberOfMessages() == null ? 1 : template.maxNumberOfMessages();
+        return poll(template, receiver, order, 0, maxNumberOfMessages, received).thenCompose(remaining -> {
+            Integer waitTimeSeconds = template.waitTimeSeconds();
+            if (!received.isEmpty() || isNull(waitTimeSeconds) || waitTimeSeconds == 0) {
+                return CompletableFuture.completedFuture(received);
+            }
+            return receiver.apply(template.toBuilder()
+                            .queueUrl(SQSUtility.resolveQueueUrl(longPollSource.name))
+                            .build())
+                    .thenApply(messages -> {
+                        polled(longPollSource, messages.size());
+                        if (!messages.isEmpty()) {
+                            received.put(longPollSource.name, messages);
+                        }
+                        return received;
+                    });
+        });
+    }
+
+    private CompletableFuture<Integer> poll(ReceiveMessageRequest template,
+                                            Function<ReceiveMessageRequest, CompletableFuture<List<Message>>> receiver,
+                                            List<Source> order, int next, int remaining,
+                                            Map<String, List<Message>> received) {
+        if (remaining == 0 || next == order.size()) {
+            return CompletableFuture.completedFuture(remaining);
+        }
+        Source source = order.get(next);
+        ReceiveMessageRequest request = template.toBuilder()
+                .queueUrl(SQSUtility.resolveQueueUrl(source.name))
+                .maxNumberOfMessages(remaining)
+                .waitTimeSeconds(0)
+                .build();
+        return receiver.apply(request).thenCompose(messages -> {
+            polled(source, messages.size());
+            if (!messages.isEmpty()) {
+                received.put(source.name, messages);
+            }
+            return poll(template, receiver, order, next + 1, remaining - messages.size(), received);
+        });
+    }
+
+    /*
+     * The queues not backed off, in the order this receive asks them.
+     */
+    private synchronized List<Source> order() {
+        long now = System.nanoTime();
+        List<Source> eligible = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            if (now - source.skipUntilNanos >= 0) {
+                eligible.add(source);
+            }
+        }
+        if (eligible.isEmpty()) {
+            return eligible;
+        }
+
+        Source first;
+        if (mode == Mode.STRICT) {
+            first = eligible.get(0);
+            for (Source source : eligible) {
+                if (now - source.lastPolledNanos > maxStarvationNanos) {
+                    first = source;
+                    break;
+                }
+            }
+        } else {
+            // smooth weighted round robin over the eligible queues
+            int totalWeight = 0;
+            first = eligible.get(0);
+            for (Source source : eligible) {
+                source.currentWeight += source.weight;
+                totalWeight += source.weight;
+                if (source.currentWeight > first.currentWeight) {
+                    first = source;
+                }
+            }
+            first.currentWeight -= totalWeight;
+        }
+
+        List<Source> order = new ArrayList<>(eligible.size());
+        order.add(first);
+        for (Source source : mode == Mode.STRICT ? eligible : byWeight(eligible)) {
+            if (source != first) {
+                order.add(source);
+            }
+        }
+        return order;
+    }
+
+    private static List<Source> byWeight(List<Source> sources) {
+        List<Source> sorted = new ArrayList<>(sources);
+        sorted.sort((a, b) -> Integer.compare(b.weight, a.weight));
+        return sorted;
+    }
+
+    private synchronized void polled(Source source, int messages) {
+        long now = System.nanoTime();
+        source.lastPolledNanos = now;
+        if (messages > 0) {
+            source.emptyPolls = 0;
+            source.skipUntilNanos = now;
+            Metrics.counter("sqs_priority_messages_total", "Messages received through priority consumption",
+                    "queue", source.name).add(messages);
+            return;
+        }
+        source.emptyPolls++;
+        long backoff = Math.min(maxEmptyBackoffNanos, emptyBackoffNanos << Math.min(source.emptyPolls - 1, 20));
+        source.skipUntilNanos = now + backoff;
+        Metrics.counter("sqs_priority_empty_polls_total", "Receives through priority consumption that found nothing",
+                "queue", source.name).increment();
+    }
+
+    // mutable fields guarded by the PriorityReceiver
+    private static class Source {
+        private final String name;
+        private final int weight;
+        private int currentWeight;
+        private int emptyPolls;
+        private long skipUntilNanos = System.nanoTime();
+        private long lastPolledNanos = System.nanoTime();
+
+        Source(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.message.processing;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/*
+ * Hierarchical timing wheel for a very large number of timers, each identified by a long (e.g. a journal handle).
+ *
+ * LEVELS wheels of 64 slots each; a slot of level l spans 64^l ticks, so six levels cover 64^6 ticks (over 2000 years
+ * at one tick a second). A timer goes to the level of the highest base-64 digit in which its due tick differs from the
+ * current tick, into the slot of its due tick's digit there: O(1). When the current tick enters a slot of a higher
+ * level, that slot is cascaded - its timers are re-inserted, each landing at least one level lower - so every timer
+ * is touched at most LEVELS times before it expires from level 0 in its exact tick.
+ *
+ * Slots are growable pairs of long arrays (timer, due tick): 16 bytes a timer and no object per timer. Slots emptied
+ * by expiry or cascading give their arrays back once they grew large. Not thread-safe, callers synchronize.
+ */
+public class TimingWheel {
+
+    private static final int LEVELS = 6;
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int RETAINED_CAPACITY = 1024;
+
+    private final Slot[][] levels = new Slot[LEVELS][SLOTS];
+    private long currentTick;
+    private long size;
+
+    public TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+        for (Slot[] level : levels) {
+            for (int i = 0; i < SLOTS; i++) {
+                level[i] = new Slot();
+            }
+        }
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Adds the timer. A due tick that is not after the current tick expires at the next advance.
+     */
+    public void add(long timer, long dueTick) {
+        place(timer, Math.max(dueTick, currentTick + 1));
+    }
+
+    // due is not before the current tick; a timer cascaded into the current tick expires in this advance
+    private void place(long timer, long due) {
+        long differing = due ^ currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && differing >>> (BITS * (level + 1)) != 0) {
+            level++;
+        }
+        long slotTick = due;
+        if (level == LEVELS - 1 && differing >>> (BITS * LEVELS) != 0) {
+            // beyond the top level: park it in the top slot furthest away, it is placed again when that slot cascades
+            slotTick = currentTick + ((long) MASK << (BITS * level));
+        }
+        levels[level][(int) (slotTick >>> (BITS * level)) & MASK].add(timer, due);
+        size++;
+    }
+
+    /**
+     * Moves the wheel to the tick, handing every timer due on the way to the consumer.
+     */
+    public void advanceTo(long tick, LongConsumer expired) {
+        while (currentTick < tick) {
+            currentTick++;
+            cascade(1);
+            Slot slot = levels[0][(int) currentTick & MASK];
+            for (int i = 0; i < slot.count; i++) {
+                expired.accept(slot.timers[i]);
+            }
+            size -= slot.count;
+            slot.clear();
+        }
+    }
+
+    /*
+     * The current tick enters a new slot of a level when its lower digits are all zero. Higher levels go first, so
+     * that everything due in the ticks starting now is on level 0 before it expires.
+     */
+    private void cascade(int level) {
+        if (level == LEVELS || (currentTick & ((1L << (BITS * level)) - 1)) != 0) {
+            return;
+        }
+        cascade(level + 1);
+        Slot slot = levels[level][(int) (currentTick >>> (BITS * level)) & MASK];
+        if (slot.count == 0) {
+            return;
+        }
+        long[] timers = slot.timers;
+        long[] dueTicks = slot.dueTicks;
+        int count = slot.count;
+        slot.detach();
+        size -= count;
+        for (int i = 0; i < count; i++) {
+            place(timers[i], dueTicks[i]);
+        }
+    }
+
+    private static class Slot {
+        private long[] timers = new long[INITIAL_CAPACITY];
+        private long[] dueTicks = new long[INITIAL_CAPACITY];
+        private int count;
+
+        void add(long timer, long dueTick) {
+            if (count == timers.length) {
+                int capacity = timers.length * 2;
+                timers = Arrays.copyOf(timers, capacity);
+                dueTicks = Arrays.copyOf(dueTicks, capacity);
+            }
+            timers[count] = timer;
+            dueTicks[count] = dueTick;
+            count++;
+        }
+
+        void clear() {
+            count = 0;
+            if (timers.length > RETAINED_CAPACITY) {
+                detach();
+            }
+        }
+
+        // hands the arrays to the caller and starts over with small ones
+        void detach() {
+            timers = new long[INITIAL_CAPACITY];
+            dueTicks = new long[INITIAL_CAPACITY];
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.message.processing;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import com.message.util.SQSUtility;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Process-wide heartbeat for in-flight messages.
+ *
+ * Every receipt handle whose visibility timeout may be extended is tracked as a Lease in a hashed timing wheel that
+ * is advanced by a single thread once per tick. Leases that come due in the same tick are grouped per queue and
+ * extended with ChangeMessageVisibilityBatch (10 entries per call) instead of one call and one thread per message.
+ *
+ * Registrations are handed to the wheel thread through a lock-free queue; cancelling a lease on ack only flips a flag
+ * (O(1)) and the wheel drops it the next time its bucket is visited.
+ */
+public class VisibilityLeaseManager {
+
+    private static final int MAX_BATCH_ENTRIES = 10;
+
+    private static final VisibilityLeaseManager INSTANCE = new VisibilityLeaseManager(
+            SQSConfiguration.getLong("sqs.visibility.tickMillis", 1000),
+            SQSConfiguration.getInt("sqs.visibility.wheelSize", 512));
+
+    private final long tickMillis;
+    private final ArrayDeque<Lease>[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Lease> registrations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeLeases = new AtomicInteger();
+    private final LongAdder extensions = Metrics.counter("sqs_visibility_extensions_total",
+            "Visibility timeout extensions granted by SQS");
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "visibility-lease-wheel");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService extender = Executors.newFixedThreadPool(
+            SQSConfiguration.getInt("sqs.visibility.extenderThreads", 2), r -> {
+                Thread thread = new Thread(r, "visibility-lease-extender");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final long startNanos = System.nanoTime();
+    private long currentTick;
+
+    @SuppressWarnings("unchecked")
+    private VisibilityLeaseManager(long tickMillis, int wheelSize) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.wheel = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.mask = size - 1;
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        Metrics.gauge("sqs_visibility_active_leases", "Messages whose visibility timeout is being extended",
+                this::getActiveLeaseCount);
+    }
+
+    public static VisibilityLeaseManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts tracking the receipt handle, whose initialVisibilityTimeout runs out at visibleUntilNanos
+     * (System.nanoTime) - the timeout was set when the message was received or leased, possibly well before now.
+     * The first extension happens one tick before that, every following one after extendBySeconds - the same cadence
+     * the per-message executor used to have.
+     */
+    public Lease register(String queueUrl, String receiptHandle, int initialVisibilityTimeout, long visibleUntilNanos,
+                          int extendBySeconds) {
+        Lease lease = new Lease(queueUrl, receiptHandle, new VisibilityTimeoutState(initialVisibilityTimeout),
+                extendBySeconds);
+        lease.dueAtNanos = visibleUntilNanos - startNanos - TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        activeLeases.incrementAndGet();
+        registrations.add(lease);
+        return lease;
+    }
+
+    public int getActiveLeaseCount() {
+        return activeLeases.get();
+    }
+
+    private long nowNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private void tick() {
+        try {
+            currentTick++;
+            transferRegistrations();
+            List<Lease> due = expireBucket(wheel[(int) (currentTick & mask)]);
+            if (!due.isEmpty()) {
+                extender.execute(() -> extend(due));
+            }
+        } catch (RuntimeException e) {
+            // never let an exception kill the wheel thread
+            AsyncLogger.error("Visibility lease tick failed: " + e.getLocalizedMessage());
+        }
+    }
+
+    private void transferRegistrations() {
+        Lease lease;
+        while ((lease = registrations.poll()) != null) {
+            schedule(lease);
+        }
+    }
+
+    private void schedule(Lease lease) {
+        if (lease.isCancelled()) {
+            return;
+        }
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long dueTick = Math.max(currentTick + 1, (lease.dueAtNanos + tickNanos - 1) / tickNanos);
+        lease.remainingRounds = (dueTick - currentTick - 1) / wheel.length;
+        wheel[(int) (dueTick & mask)].add(lease);
+    }
+
+    private List<Lease> expireBucket(ArrayDeque<Lease> bucket) {
+        List<Lease> due = new ArrayList<>();
+        Iterator<Lease> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Lease lease = iterator.next();
+            if (lease.isCancelled()) {
+                iterator.remove();
+            } else if (lease.remainingRounds > 0) {
+                lease.remainingRounds--;
+            } else {
+                iterator.remove();
+                due.add(lease);
+            }
+        }
+        return due;
+    }
+
+    private void extend(List<Lease> due) {
+        Map<String, List<Lease>> byQueue = new HashMap<>();
+        for (Lease lease : due) {
+            byQueue.computeIfAbsent(lease.queueUrl, url -> new ArrayList<>()).add(lease);
+        }
+        for (Map.Entry<String, List<Lease>> queue : byQueue.entrySet()) {
+            List<Lease> leases = queue.getValue();
+            for (int from = 0; from < leases.size(); from += MAX_BATCH_ENTRIES) {
+                extendBatch(queue.getKey(), leases.subList(from, Math.min(leases.size(), from + MAX_BATCH_ENTRIES)));
+            }
+        }
+    }
+
+    private void extendBatch(String queueUrl, List<Lease> leases) {
+        List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>(leases.size());
+        for (int i = 0; i < leases.size(); i++) {
+            entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                    .id(String.valueOf(i))
+                    .receiptHandle(leases.get(i).receiptHandle)
+                    .visibilityTimeout(leases.get(i).state.getVisibilityTimeout())
+                    .build());
+        }
+
+        List<Lease> rejected = new ArrayList<>();
+        try {
+            ChangeMessageVisibilityBatchResponse response = SQSUtility.changeMessagesVisibilityBatch(
+                    ChangeMessageVisibilityBatchRequest.builder().queueUrl(queueUrl).entries(entries).build());
+            for (BatchResultErrorEntry failed : response.failed()) {
+                AsyncLogger.error("Visibility extension failed for %s : %s", failed.id(), failed.message());
+                rejected.add(leases.get(Integer.parseInt(failed.id())));
+            }
+        } catch (SdkException e) {
+            // nothing was extended: keep the leases as they are and try again on the next tick, before they run out
+            AsyncLogger.error("Visibility extension batch failed: " + e.getLocalizedMessage());
+            for (Lease lease : leases) {
+                lease.dueAtNanos = nowNanos();
+                registrations.add(lease);
+            }
+            return;
+        }
+
+        for (Lease lease : leases) {
+            if (rejected.contains(lease)) {
+                // receipt handle is gone (message deleted or already visible again), stop extending it
+                lease.cancel();
+                continue;
+            }
+            Integer visibilityTimeout = lease.state.getVisibilityTimeout();
+            lease.state.setVisibilityTimeout(visibilityTimeout + lease.extendBySeconds);
+            extensions.increment();
+            AsyncLogger.info("Visibility changed from %d s to %d s", visibilityTimeout,
+                    lease.state.getVisibilityTimeout());
+            lease.dueAtNanos = nowNanos() + TimeUnit.SECONDS.toNanos(lease.extendBySeconds);
+            registrations.add(lease);
+        }
+    }
+
+    public class Lease {
+        private final String queueUrl;
+        private final String receiptHandle;
+        private final VisibilityTimeoutState state;
+        private final int extendBySeconds;
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile long dueAtNanos;
+        private long remainingRounds;
+
+        private Lease(String queueUrl, String receiptHandle, VisibilityTimeoutState state, int extendBySeconds) {
+            this.queueUrl = queueUrl;
+            this.receiptHandle = receiptHandle;
+            this.state = state;
+            this.extendBySeconds = extendBySeconds;
+        }
+
+        /**
+         * Stops extending the message, typically right after it was deleted. Safe to call more than once.
+         */
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                activeLeases.decrementAndGet();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled.get();
+        }
+
+        public VisibilityTimeoutState getVisibilityTimeoutState() {
+            return state;
+        }
+    }
+}
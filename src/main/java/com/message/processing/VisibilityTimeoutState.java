@@ -0,0 +1,17 @@
+package com.message.processing;
+
+public class VisibilityTimeoutState {
+    private volatile Integer visibilityTimeout;
+
+    public VisibilityTimeoutState(Integer visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    public Integer getVisibilityTimeout() {
+        return visibilityTimeout;
+    }
+
+    public void setVisibilityTimeout(Integer visibilityTimeout) {
+        this.visibilityTimeout = visibilityTimeout;
+    }
+}
@@ -0,0 +1,89 @@
+package com.message.request;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+public class CreateQueuePayload {
+
+    private String queueName;
+    private String visibilityTimeOut;
+    private Boolean longPolling;
+    private String waitTimeSeconds;
+    // optional: a logical queue of that many physical queues, see LogicalQueue
+    private Integer shards;
+    // optional with shards: dead-letter queue all shards are linked to
+    private String dlQueueName;
+    private Integer maxReceiveCount;
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public void setQueueName(String queueName) {
+        this.queueName = queueName;
+    }
+
+    public String getVisibilityTimeOut() {
+        return visibilityTimeOut;
+    }
+
+    public void setVisibilityTimeOut(String visibilityTimeOut) {
+        this.visibilityTimeOut = visibilityTimeOut;
+    }
+
+    public Boolean getLongPolling() {
+        return longPolling;
+    }
+
+    public void setLongPolling(Boolean longPolling) {
+        this.longPolling = longPolling;
+    }
+
+    public String getWaitTimeSeconds() {
+        return waitTimeSeconds;
+    }
+
+    public void setWaitTimeSeconds(String waitTimeSeconds) {
+        this.waitTimeSeconds = waitTimeSeconds;
+    }
+
+    public Integer getShards() {
+        return shards;
+    }
+
+    public void setShards(Integer shards) {
+        this.shards = shards;
+    }
+
+    public String getDlQueueName() {
+        return dlQueueName;
+    }
+
+    public void setDlQueueName(String dlQueueName) {
+        this.dlQueueName = dlQueueName;
+    }
+
+    public Integer getMaxReceiveCount() {
+        return maxReceiveCount;
+    }
+
+    public void setMaxReceiveCount(Integer maxReceiveCount) {
+        this.maxReceiveCount = maxReceiveCount;
+    }
+
+    public void validate() {
+        if (isNull(queueName) || isNull(visibilityTimeOut) || isNull(longPolling) || isNull(waitTimeSeconds)) {
+            throw new IllegalArgumentException(
+                    "queueName, visibilityTimeOut, longPolling and waitTimeSeconds are required");
+        }
+        if (nonNull(shards) && shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        if (nonNull(dlQueueName) && isNull(shards)) {
+            throw new IllegalArgumentException("dlQueueName is only supported together with shards");
+        }
+        if (nonNull(dlQueueName) && dlQueueName.endsWith(".fifo") != queueName.endsWith(".fifo")) {
+            throw new IllegalArgumentException("the dead-letter queue of a FIFO queue must be a FIFO queue and vice versa");
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.message.request;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+public class DeadLetterQueuePayload {
+
+    private String queueName;
+    private String queueVisibilityTimeout;
+    private String dlQueueName;
+    private String dlQueueVisibilityTimeout;
+    // receives before SQS moves a message to the dead-letter queue, default 5
+    private Integer maxReceiveCount;
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public void setQueueName(String queueName) {
+        this.queueName = queueName;
+    }
+
+    public String getQueueVisibilityTimeout() {
+        return queueVisibilityTimeout;
+    }
+
+    public void setQueueVisibilityTimeout(String queueVisibilityTimeout) {
+        this.queueVisibilityTimeout = queueVisibilityTimeout;
+    }
+
+    public String getDlQueueName() {
+        return dlQueueName;
+    }
+
+    public void setDlQueueName(String dlQueueName) {
+        this.dlQueueName = dlQueueName;
+    }
+
+    public String getDlQueueVisibilityTimeout() {
+        return dlQueueVisibilityTimeout;
+    }
+
+    public void setDlQueueVisibilityTimeout(String dlQueueVisibilityTimeout) {
+        this.dlQueueVisibilityTimeout = dlQueueVisibilityTimeout;
+    }
+
+    public Integer getMaxReceiveCount() {
+        return maxReceiveCount;
+    }
+
+    public void setMaxReceiveCount(Integer maxReceiveCount) {
+        this.maxReceiveCount = maxReceiveCount;
+    }
+
+    public void validate() {
+        if (isNull(queueName) || isNull(queueVisibilityTimeout) || isNull(dlQueueName)
+                || isNull(dlQueueVisibilityTimeout)) {
+            throw new IllegalArgumentException(
+                    "queueName, queueVisibilityTimeout, dlQueueName and dlQueueVisibilityTimeout are required");
+        }
+        if (nonNull(maxReceiveCount) && (maxReceiveCount < 1 || maxReceiveCount > 1000)) {
+            throw new IllegalArgumentException("maxReceiveCount must be between 1 and 1000");
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.message.request;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+public class RedrivePayload {
+
+    private String dlQueueName;
+    // defaults to the single queue whose redrive policy points at the dead-letter queue
+    private String targetQueueName;
+    // only messages carrying all of these message attributes with these string values are moved
+    private Map<String, String> messageAttributes;
+    private String bodyContains;
+    private String bodyPattern;
+    // messages moved per second, 0 = unlimited; defaults to sqs.redrive.messagesPerSecond
+    private Double messagesPerSecond;
+    // parallel long-poll receivers; defaults to sqs.redrive.receivers
+    private Integer receivers;
+    // stop after this many matching messages
+    private Long maxMessages;
+    // count what would be moved, without sending or deleting anything
+    private boolean dryRun;
+
+    public String getDlQueueName() {
+        return dlQueueName;
+    }
+
+    public void setDlQueueName(String dlQueueName) {
+        this.dlQueueName = dlQueueName;
+    }
+
+    public String getTargetQueueName() {
+        return targetQueueName;
+    }
+
+    public void setTargetQueueName(String targetQueueName) {
+        this.targetQueueName = targetQueueName;
+    }
+
+    public Map<String, String> getMessageAttributes() {
+        return messageAttributes;
+    }
+
+    public void setMessageAttributes(Map<String, String> messageAttributes) {
+        this.messageAttributes = messageAttributes;
+    }
+
+    public String getBodyContains() {
+        return bodyContains;
+    }
+
+    public void setBodyContains(String bodyContains) {
+        this.bodyContains = bodyContains;
+    }
+
+    public String getBodyPattern() {
+        return bodyPattern;
+    }
+
+    public void setBodyPattern(String bodyPattern) {
+        this.bodyPattern = bodyPattern;
+    }
+
+    public Double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    public void setMessagesPerSecond(Double messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+    }
+
+    public Integer getReceivers() {
+        return receivers;
+    }
+
+    public void setReceivers(Integer receivers) {
+        this.receivers = receivers;
+    }
+
+    public Long getMaxMessages() {
+        return maxMessages;
+    }
+
+    public void setMaxMessages(Long maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public void validate() {
+        if (isNull(dlQueueName)) {
+            throw new IllegalArgumentException("dlQueueName is required");
+        }
+        if (nonNull(receivers) && receivers < 1) {
+            throw new IllegalArgumentException("receivers must be at least 1");
+        }
+        if (nonNull(maxMessages) && maxMessages < 1) {
+            throw new IllegalArgumentException("maxMessages must be at least 1");
+        }
+        if (nonNull(messagesPerSecond) && messagesPerSecond < 0) {
+            throw new IllegalArgumentException("messagesPerSecond must not be negative");
+        }
+        if (nonNull(bodyPattern)) {
+            try {
+                Pattern.compile(bodyPattern);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("bodyPattern is not a valid regular expression", e);
+            }
+        }
+    }
+}
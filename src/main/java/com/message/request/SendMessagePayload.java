@@ -0,0 +1,88 @@
+package com.message.request;
+
+import static java.util.Objects.isNull;
+import static software.amazon.awssdk.utils.StringUtils.isNotBlank;
+
+public class SendMessagePayload {
+
+    private String queueName;
+    private String messageBody;
+    private String messageAttributeKey;
+    private String messageAttributeValue;
+    private String messageGroupId;
+    private String messageDeduplicationId;
+    // delay - lets you postpone the delivery of new messages to a queue for a number of seconds
+    private Integer delay;
+
+    public String getQueueName() {
+        return queueName;
+    }
+
+    public void setQueueName(String queueName) {
+        this.queueName = queueName;
+    }
+
+    public String getMessageBody() {
+        return messageBody;
+    }
+
+    public void setMessageBody(String messageBody) {
+        this.messageBody = messageBody;
+    }
+
+    public String getMessageAttributeKey() {
+        return messageAttributeKey;
+    }
+
+    public void setMessageAttributeKey(String messageAttributeKey) {
+        this.messageAttributeKey = messageAttributeKey;
+    }
+
+    public String getMessageAttributeValue() {
+        return messageAttributeValue;
+    }
+
+    public void setMessageAttributeValue(String messageAttributeValue) {
+        this.messageAttributeValue = messageAttributeValue;
+    }
+
+    public String getMessageGroupId() {
+        return messageGroupId;
+    }
+
+    public void setMessageGroupId(String messageGroupId) {
+        this.messageGroupId = messageGroupId;
+    }
+
+    public String getMessageDeduplicationId() {
+        return messageDeduplicationId;
+    }
+
+    public void setMessageDeduplicationId(String messageDeduplicationId) {
+        this.messageDeduplicationId = messageDeduplicationId;
+    }
+
+    public Integer getDelay() {
+        return delay;
+    }
+
+    public void setDelay(Integer delay) {
+        this.delay = delay;
+    }
+
+    public boolean isFifo() {
+        return isNotBlank(queueName) && queueName.endsWith(".fifo");
+    }
+
+    public void validate() {
+        if (isNull(queueName) || isNull(messageBody) || isNull(delay)) {
+            throw new IllegalArgumentException("queueName, messageBody and delay are required");
+        }
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay must not be negative");
+        }
+        if (isFifo() && isNull(messageGroupId)) {
+            throw new IllegalArgumentException("messageGroupId is required for fifo queues");
+        }
+    }
+}
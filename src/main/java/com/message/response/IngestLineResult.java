@@ -0,0 +1,40 @@
+package com.message.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/*
+ * Outcome of one line of a bulk ingest: the id SQS assigned to the message, or why it was not sent.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class IngestLineResult {
+
+    long line;
+    String messageId;
+    String error;
+
+    private IngestLineResult(long line, String messageId, String error) {
+        this.line = line;
+        this.messageId = messageId;
+        this.error = error;
+    }
+
+    public static IngestLineResult sent(long line, String messageId) {
+        return new IngestLineResult(line, messageId, null);
+    }
+
+    public static IngestLineResult failed(long line, String error) {
+        return new IngestLineResult(line, null, error);
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
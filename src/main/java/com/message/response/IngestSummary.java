@@ -0,0 +1,33 @@
+package com.message.response;
+
+/*
+ * Last line of a bulk ingest response.
+ */
+public class IngestSummary {
+
+    long lines;
+    long sent;
+    long failed;
+
+    public IngestSummary(long lines, long sent, long failed) {
+        this.lines = lines;
+        this.sent = sent;
+        this.failed = failed;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public boolean isDone() {
+        return true;
+    }
+}
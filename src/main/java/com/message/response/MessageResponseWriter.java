@@ -0,0 +1,97 @@
+package com.message.response;
+
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.message.codec.JsonCodec;
+import com.message.metrics.AsyncLogger;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Collects the StandardMessageResponse of every processed message and writes it to the HTTP response.
+ *
+ * By default the responses are buffered and written as one JSON array once the whole batch is done. A client asking
+ * for NDJSON (format=ndjson or Accept: application/x-ndjson) gets one line per message instead, written and flushed
+ * as soon as that message completes, so large batches are never held in memory.
+ * Both modes may be fed from several worker threads.
+ */
+public class MessageResponseWriter {
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    private final HttpServletResponse resp;
+    private final boolean streaming;
+    private final List<StandardMessageResponse> buffered = new ArrayList<>();
+    private SequenceWriter ndjson;
+
+    private MessageResponseWriter(HttpServletResponse resp, boolean streaming) {
+        this.resp = resp;
+        this.streaming = streaming;
+    }
+
+    public static MessageResponseWriter forRequest(HttpServletRequest req, HttpServletResponse resp) {
+        String accept = req.getHeader("Accept");
+        boolean streaming = "ndjson".equalsIgnoreCase(req.getParameter("format"))
+                || (nonNull(accept) && accept.contains(NDJSON));
+        return new MessageResponseWriter(resp, streaming);
+    }
+
+    public synchronized void accept(StandardMessageResponse response) {
+        if (!streaming) {
+            buffered.add(response);
+            return;
+        }
+        try {
+            if (isNull(ndjson)) {
+                resp.setContentType(NDJSON);
+                resp.setCharacterEncoding("UTF-8");
+                resp.setStatus(201);
+                ndjson = JsonCodec.ndjson(resp.getWriter());
+            }
+            ndjson.write(response);
+            ndjson.flush();
+            resp.flushBuffer();
+        } catch (IOException e) {
+            // the client went away; processing and deletes still complete normally
+            AsyncLogger.error(e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * True once the status line was sent, i.e. an error can no longer be reported with a status code.
+     */
+    public synchronized boolean isCommitted() {
+        return nonNull(ndjson) || resp.isCommitted();
+    }
+
+    public synchronized void complete() throws ServletException {
+        try {
+            if (streaming) {
+                if (isNull(ndjson)) {
+                    resp.setContentType(NDJSON);
+                    resp.setCharacterEncoding("UTF-8");
+                    resp.setStatus(201);
+                } else {
+                    ndjson.close();
+                }
+                resp.getWriter().flush();
+                return;
+            }
+            resp.setContentType("application/json");
+            resp.setCharacterEncoding("UTF-8");
+            resp.setStatus(201);
+            JsonCodec.write(resp.getWriter(), buffered);
+            resp.getWriter().flush();
+        } catch (IOException e) {
+            AsyncLogger.error(e.getLocalizedMessage());
+            throw new ServletException(e);
+        }
+    }
+}
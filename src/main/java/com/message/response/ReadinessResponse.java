@@ -0,0 +1,35 @@
+package com.message.response;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/*
+ * Answer of the readiness endpoint: whether startup warm-up has completed, how long each of its phases took and why
+ * a phase failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_EMPTY)
+public class ReadinessResponse {
+
+    boolean ready;
+    Map<String, Long> phaseMillis;
+    Map<String, String> phaseErrors;
+
+    public ReadinessResponse(boolean ready, Map<String, Long> phaseMillis, Map<String, String> phaseErrors) {
+        this.ready = ready;
+        this.phaseMillis = phaseMillis;
+        this.phaseErrors = phaseErrors;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Map<String, Long> getPhaseMillis() {
+        return phaseMillis;
+    }
+
+    public Map<String, String> getPhaseErrors() {
+        return phaseErrors;
+    }
+}
@@ -0,0 +1,110 @@
+package com.message.store;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import com.message.util.SQSConfiguration;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * Claim-check mode (-Dsqs.claimcheck.path=<directory>): a body of more than sqs.claimcheck.thresholdBytes UTF-8 bytes
+ * (default 250 KB, leaving headroom for attributes under the 256 KB SQS limit) is put into the PayloadStore and the
+ * message carries only the pointer, marked by the ClaimCheck message attribute.
+ *
+ * The claim check is taken after BodyCodec, so a compressed body is stored compressed and its ContentEncoding
+ * attribute still applies once the pointer is resolved. The payload is released when the message has been deleted.
+ */
+public class ClaimCheck {
+
+    public static final String ATTRIBUTE = "ClaimCheck";
+
+    private static final PayloadStore STORE = PayloadStore.fromConfiguration();
+    private static final int THRESHOLD_BYTES = SQSConfiguration.getInt("sqs.claimcheck.thresholdBytes", 250 * 1024);
+
+    static {
+        if (STORE instanceof MappedSegmentPayloadStore) {
+            MappedSegmentPayloadStore segments = (MappedSegmentPayloadStore) STORE;
+            Metrics.gauge("sqs_claimcheck_segments", "Segment files of the claim-check payload store",
+                    segments::getSegmentCount);
+            Metrics.gauge("sqs_claimcheck_live_payloads", "Claim-check payloads not yet released",
+                    segments::getLivePayloadCount);
+        }
+    }
+
+    private ClaimCheck() {
+    }
+
+    public static boolean isEnabled() {
+        return nonNull(STORE);
+    }
+
+    /**
+     * Returns the body to send: the body itself, or - if it is over the threshold - the pointer to the stored body,
+     * in which case the ClaimCheck attribute has been added to messageAttributes.
+     */
+    public static String check(String body, Map<String, MessageAttributeValue> messageAttributes) {
+        // a UTF-8 byte is at most one char, so shorter strings cannot be over the threshold
+        if (!isEnabled() || isNull(body) || body.length() <= THRESHOLD_BYTES / 3) {
+            return body;
+        }
+        byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+        if (payload.length <= THRESHOLD_BYTES) {
+            return body;
+        }
+        String pointer = STORE.put(payload);
+        messageAttributes.put(ATTRIBUTE, MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue("segment")
+                .build());
+        Metrics.counter("sqs_claimcheck_stored_bytes_total", "Body bytes moved to the claim-check store")
+                .add(payload.length);
+        return pointer;
+    }
+
+    public static boolean isClaimCheck(Message message) {
+        return message.hasMessageAttributes() && message.messageAttributes().containsKey(ATTRIBUTE);
+    }
+
+    /**
+     * Returns the message with its stored body in place of the pointer, or the message itself if it is no claim check.
+     */
+    public static Message resolve(Message message) {
+        if (!isClaimCheck(message)) {
+            return message;
+        }
+        if (!isEnabled()) {
+            throw new IllegalStateException("Message " + message.messageId()
+                    + " is a claim check but sqs.claimcheck.path is not set");
+        }
+        // decoded straight from the mapped segment, there is no intermediate read buffer
+        String body = StandardCharsets.UTF_8.decode(STORE.get(message.body())).toString();
+        return message.toBuilder().body(body).build();
+    }
+
+    /**
+     * Releases the stored body of a deleted message. The message passed in is the one received, holding the pointer.
+     */
+    public static void release(Message message) {
+        if (!isClaimCheck(message) || !isEnabled()) {
+            return;
+        }
+        try {
+            STORE.release(message.body());
+        } catch (IllegalArgumentException e) {
+            AsyncLogger.error("MESSAGE = %s ; claim check not released : %s", message.messageId(),
+                    e.getLocalizedMessage());
+        }
+    }
+
+    public static void close() {
+        if (isEnabled()) {
+            STORE.close();
+        }
+    }
+}
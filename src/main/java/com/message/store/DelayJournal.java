@@ -0,0 +1,260 @@
+package com.message.store;
+
+import com.message.metrics.AsyncLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Journal of delayed messages waiting for their delivery time: append-only, memory-mapped segment files
+ * (delay-<id>.dat) in one directory, laid out like MappedSegmentPayloadStore.
+ *
+ * Record layout: [int length][byte state][long dueAtMillis][payload]. The length is written last, so a record only
+ * becomes visible to the startup scan once it is complete; a zero length marks the end of a segment.
+ * A record is addressed by a handle, (segment id << 32) | offset, so callers can hold millions of them in primitive
+ * arrays. Completing a record flips its state byte in place; a segment is deleted once it is full and all of its
+ * records are completed. On startup the pending records are handed to the caller again.
+ *
+ * One process writes a directory at a time.
+ */
+public class DelayJournal implements AutoCloseable {
+
+    /**
+     * Receives the pending records found on startup.
+     */
+    public interface PendingConsumer {
+        void accept(long handle, long dueAtMillis);
+    }
+
+    private static final String PREFIX = "delay-";
+    private static final String SUFFIX = ".dat";
+    private static final int HEADER = Integer.BYTES + 1 + Long.BYTES;
+    private static final byte PENDING = 1;
+    private static final byte COMPLETED = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ConcurrentHashMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final AtomicLong pending = new AtomicLong();
+
+    // guarded by appendLock
+    private Segment active;
+    private long nextSegmentId;
+
+    public DelayJournal(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Maps the existing segments and reports every pending record; call once, before the first append.
+     */
+    public void recover(PendingConsumer consumer) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id;
+            try {
+                id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = map(id, file, (int) Files.size(file));
+            segment.sealed = true;
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+            segments.put(id, segment);
+            scan(segment, consumer);
+            if (segment.live.get() == 0) {
+                delete(segment);
+            }
+        }
+        AsyncLogger.info("Delay journal %s opened, %d segments with %d pending messages", directory,
+                segments.size(), pending.get());
+    }
+
+    public long append(long dueAtMillis, byte[] payload) {
+        appendLock.lock();
+        try {
+            int recordSize = HEADER + payload.length;
+            if (isNull(active) || active.buffer.remaining() < recordSize + Integer.BYTES) {
+                if (!isNull(active)) {
+                    seal(active);
+                }
+                active = createSegment(Math.max(segmentBytes, recordSize + Integer.BYTES));
+            }
+            Segment segment = active;
+            int offset = segment.buffer.position();
+            segment.buffer.put(offset + Integer.BYTES, PENDING);
+            segment.buffer.putLong(offset + Integer.BYTES + 1, dueAtMillis);
+            segment.buffer.position(offset + HEADER);
+            segment.buffer.put(payload);
+            segment.buffer.putInt(offset, payload.length);
+            segment.live.incrementAndGet();
+            pending.incrementAndGet();
+            return segment.id << 32 | offset;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long getDueAtMillis(long handle) {
+        Segment segment = segmentOf(handle);
+        return segment.buffer.getLong(offsetOf(handle) + Integer.BYTES + 1);
+    }
+
+    /**
+     * @return a read-only view of the payload of a pending record
+     */
+    public ByteBuffer read(long handle) {
+        Segment segment = segmentOf(handle);
+        int offset = offsetOf(handle);
+        int length = segment.buffer.getInt(offset);
+        return segment.buffer.asReadOnlyBuffer()
+                .position(offset + HEADER)
+                .limit(offset + HEADER + length)
+                .slice();
+    }
+
+    /**
+     * Marks the record as delivered; its space is reclaimed with its segment.
+     */
+    public void complete(long handle) {
+        Segment segment = segmentOf(handle);
+        int offset = offsetOf(handle);
+        appendLock.lock();
+        try {
+            if (segment.buffer.get(offset + Integer.BYTES) != PENDING) {
+                return;
+            }
+            segment.buffer.put(offset + Integer.BYTES, COMPLETED);
+            pending.decrementAndGet();
+            if (segment.live.decrementAndGet() == 0 && segment.sealed) {
+                delete(segment);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            AsyncLogger.error("Could not close delay journal: " + e.getLocalizedMessage());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Segment segmentOf(long handle) {
+        Segment segment = segments.get(handle >>> 32);
+        if (isNull(segment)) {
+            throw new IllegalArgumentException("Delayed message " + Long.toHexString(handle) + " is gone");
+        }
+        return segment;
+    }
+
+    private static int offsetOf(long handle) {
+        return (int) handle;
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        long id = nextSegmentId++;
+        Segment segment = map(id, directory.resolve(String.format("%s%016d%s", PREFIX, id, SUFFIX)), size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    // caller holds appendLock
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.live.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.id);
+        try {
+            segment.channel.close();
+            // the mapping itself is released by the garbage collector
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            AsyncLogger.error("Could not delete delay segment %s: %s", segment.path, e.getLocalizedMessage());
+        }
+    }
+
+    private void scan(Segment segment, PendingConsumer consumer) {
+        MappedByteBuffer buffer = segment.buffer;
+        while (buffer.remaining() >= HEADER) {
+            int offset = buffer.position();
+            int length = buffer.getInt(offset);
+            if (length <= 0 || buffer.remaining() < HEADER + length) {
+                break;
+            }
+            if (buffer.get(offset + Integer.BYTES) == PENDING) {
+                segment.live.incrementAndGet();
+                pending.incrementAndGet();
+                consumer.accept(segment.id << 32 | offset, buffer.getLong(offset + Integer.BYTES + 1));
+            }
+            buffer.position(offset + HEADER + length);
+        }
+    }
+
+    private static Segment map(long id, Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile boolean sealed;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
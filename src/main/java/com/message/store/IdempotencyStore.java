@@ -0,0 +1,74 @@
+package com.message.store;
+
+import com.message.util.SQSConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Remembers which message ids were already processed (and by which request correlation id), so that a message
+ * delivered twice by SQS is not processed twice.
+ *
+ *      sqs.dedupe.maxEntries    - upper bound of remembered ids (default 100000)
+ *      sqs.dedupe.ttlSeconds    - how long an id is remembered (default 86400)
+ *      sqs.dedupe.log.path      - optional file; when set, ids are also appended to a memory-mapped log and
+ *                                 reloaded from it on startup, so they survive a restart or redeploy
+ *      sqs.dedupe.log.sizeBytes - size of the mapped log before it is compacted (default 64 MB)
+ */
+public interface IdempotencyStore extends AutoCloseable {
+
+    /**
+     * Records the message id unless it is already known.
+     * @return the correlation id stored for the message before, or null if the message id is new
+     */
+    String putIfAbsent(String messageId, String correlationId);
+
+    /**
+     * @return the correlation id stored for the message, or null if the message id is unknown
+     */
+    String get(String messageId);
+
+    /**
+     * Whether the message id is known, without counting as a hit or miss.
+     */
+    boolean contains(String messageId);
+
+    int size();
+
+    /**
+     * Rough heap footprint of the stored entries in bytes.
+     */
+    long getEstimatedBytes();
+
+    /**
+     * Number of get calls that found the message id. putIfAbsent is not counted, it follows a get that missed.
+     */
+    long getHitCount();
+
+    /**
+     * Number of get calls that did not find the message id.
+     */
+    long getMissCount();
+
+    @Override
+    void close();
+
+    static IdempotencyStore fromConfiguration() {
+        StripedIdempotencyStore memory = new StripedIdempotencyStore(
+                SQSConfiguration.getInt("sqs.dedupe.maxEntries", 100_000),
+                SQSConfiguration.getLong("sqs.dedupe.ttlSeconds", 86_400), TimeUnit.SECONDS);
+
+        String logPath = SQSConfiguration.getString("sqs.dedupe.log.path", "");
+        if (logPath.isBlank()) {
+            return memory;
+        }
+        try {
+            return new MappedLogIdempotencyStore(memory, Paths.get(logPath),
+                    SQSConfiguration.getInt("sqs.dedupe.log.sizeBytes", 64 * 1024 * 1024));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
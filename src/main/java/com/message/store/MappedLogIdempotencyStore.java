@@ -0,0 +1,219 @@
+package com.message.store;
+
+import com.message.metrics.AsyncLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Idempotency store that keeps its entries in a StripedIdempotencyStore and additionally appends every new message id
+ * to a memory-mapped log on local disk. On startup the log is replayed, so ids processed before a restart are still
+ * known afterwards.
+ *
+ * Record layout: [int idLength][id bytes][int correlationIdLength][correlation id bytes][long createdAtMillis].
+ * The leading length is written last, which makes a record visible to the replay only once it is complete; a zero
+ * length marks the end of the log. When the mapped region is full the log is compacted: live entries of the memory
+ * tier are written to a fresh file that atomically replaces the old one.
+ */
+public class MappedLogIdempotencyStore implements IdempotencyStore {
+
+    private static final int RECORD_OVERHEAD = Integer.BYTES * 2 + Long.BYTES;
+
+    private final StripedIdempotencyStore memory;
+    private final Path path;
+    private final int capacity;
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer log;
+
+    public MappedLogIdempotencyStore(StripedIdempotencyStore memory, Path path, int capacity) throws IOException {
+        this.memory = memory;
+        this.path = path;
+        this.capacity = capacity;
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        open();
+        int restored = replay();
+        AsyncLogger.info("Idempotency log %s replayed, %d message ids restored", path, restored);
+    }
+
+    @Override
+    public String putIfAbsent(String messageId, String correlationId) {
+        String previous = memory.putIfAbsent(messageId, correlationId);
+        if (previous == null) {
+            append(messageId, correlationId, System.currentTimeMillis());
+        }
+        return previous;
+    }
+
+    @Override
+    public String get(String messageId) {
+        return memory.get(messageId);
+    }
+
+    @Override
+    public boolean contains(String messageId) {
+        return memory.contains(messageId);
+    }
+
+    @Override
+    public int size() {
+        return memory.size();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return memory.getEstimatedBytes();
+    }
+
+    @Override
+    public long getHitCount() {
+        return memory.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return memory.getMissCount();
+    }
+
+    /**
+     * Bytes of the mapped log already used by records.
+     */
+    public int getLogBytesUsed() {
+        appendLock.lock();
+        try {
+            return log.position();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            log.force();
+            channel.close();
+        } catch (IOException e) {
+            AsyncLogger.error("Could not close idempotency log: " + e.getLocalizedMessage());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private int replay() {
+        int restored = 0;
+        while (log.remaining() >= Integer.BYTES) {
+            int start = log.position();
+            int idLength = log.getInt(start);
+            if (idLength <= 0 || log.remaining() < idLength + RECORD_OVERHEAD) {
+                break;
+            }
+            log.position(start + Integer.BYTES);
+            String messageId = readString(idLength);
+            int correlationIdLength = log.getInt();
+            if (correlationIdLength < 0 || log.remaining() < correlationIdLength + Long.BYTES) {
+                log.position(start);
+                break;
+            }
+            String correlationId = readString(correlationIdLength);
+            long createdAtMillis = log.getLong();
+            memory.restore(messageId, correlationId, createdAtMillis);
+            restored++;
+        }
+        return restored;
+    }
+
+    private void append(String messageId, String correlationId, long createdAtMillis) {
+        byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+        byte[] correlation = correlationId == null ? new byte[0] : correlationId.getBytes(StandardCharsets.UTF_8);
+        int recordSize = id.length + correlation.length + RECORD_OVERHEAD;
+
+        appendLock.lock();
+        try {
+            // keep room for the zero end marker after the record
+            if (log.remaining() < recordSize + Integer.BYTES) {
+                // the new id is already in the memory tier, so compaction writes it along with the other live ids
+                if (!compact()) {
+                    AsyncLogger.error("Idempotency log %s is full, some message ids are only kept in memory",
+                            path);
+                }
+                return;
+            }
+            int start = log.position();
+            log.position(start + Integer.BYTES);
+            log.put(id);
+            log.putInt(correlation.length);
+            log.put(correlation);
+            log.putLong(createdAtMillis);
+            log.putInt(start, id.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /*
+     * Caller holds appendLock. Returns false if not every live entry fitted into the new log.
+     */
+    private boolean compact() throws IOException {
+        boolean[] complete = {true};
+        Path compacted = path.resolveSibling(path.getFileName() + ".compact");
+        Files.deleteIfExists(compacted);
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = target.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            memory.forEachLive((messageId, correlationId, createdAtMillis) -> {
+                byte[] id = messageId.getBytes(StandardCharsets.UTF_8);
+                byte[] correlation = correlationId.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() >= id.length + correlation.length + RECORD_OVERHEAD + Integer.BYTES) {
+                    buffer.putInt(id.length);
+                    buffer.put(id);
+                    buffer.putInt(correlation.length);
+                    buffer.put(correlation);
+                    buffer.putLong(createdAtMillis);
+                } else {
+                    complete[0] = false;
+                }
+            });
+            buffer.force();
+        }
+
+        channel.close();
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        // skip over the records just written
+        while (log.remaining() >= Integer.BYTES) {
+            int idLength = log.getInt(log.position());
+            if (idLength <= 0) {
+                break;
+            }
+            log.position(log.position() + Integer.BYTES + idLength);
+            int correlationIdLength = log.getInt();
+            log.position(log.position() + correlationIdLength + Long.BYTES);
+        }
+        return complete[0];
+    }
+
+    private String readString(int length) {
+        byte[] bytes = new byte[length];
+        log.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,263 @@
+package com.message.store;
+
+import com.message.metrics.AsyncLogger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Payload store made of append-only, memory-mapped segment files (segment-<id>.dat) in one directory.
+ *
+ * Record layout: [int length][byte state][payload]. As in the idempotency log the length is written last, so a record
+ * only becomes visible to the startup scan once it is complete, and a zero length marks the end of a segment.
+ * Pointers are "<segment id>:<offset>:<length>"; reads return a read-only slice of the mapping, no bytes are copied.
+ *
+ * Releasing a payload flips its state byte in place. Pointers live in SQS messages and cannot be rewritten, so live
+ * payloads are never moved: a segment is deleted as a whole once it has been filled and every payload in it was
+ * released. On startup the segments are scanned, live payloads are counted from their state bytes and fully released
+ * segments are deleted. A payload larger than a segment gets a segment of its own.
+ *
+ * One process writes a directory at a time.
+ */
+public class MappedSegmentPayloadStore implements PayloadStore {
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+    private static final int HEADER = Integer.BYTES + 1;
+    private static final byte LIVE = 1;
+    private static final byte RELEASED = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final ConcurrentHashMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // guarded by appendLock
+    private Segment active;
+    private long nextSegmentId;
+
+    public MappedSegmentPayloadStore(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        int live = recover();
+        AsyncLogger.info("Payload store %s opened, %d segments with %d live payloads", directory, segments.size(),
+                live);
+    }
+
+    @Override
+    public String put(byte[] payload) {
+        appendLock.lock();
+        try {
+            int recordSize = HEADER + payload.length;
+            if (isNull(active) || active.buffer.remaining() < recordSize + Integer.BYTES) {
+                if (!isNull(active)) {
+                    seal(active);
+                }
+                active = createSegment(Math.max(segmentBytes, recordSize + Integer.BYTES));
+            }
+            Segment segment = active;
+            int offset = segment.buffer.position();
+            segment.buffer.put(offset + Integer.BYTES, LIVE);
+            segment.buffer.position(offset + HEADER);
+            segment.buffer.put(payload);
+            segment.buffer.putInt(offset, payload.length);
+            segment.live.incrementAndGet();
+            return segment.id + ":" + offset + ":" + payload.length;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public ByteBuffer get(String pointer) {
+        Location location = locate(pointer);
+        if (location.segment.buffer.get(location.offset + Integer.BYTES) != LIVE) {
+            throw new IllegalArgumentException("Payload " + pointer + " was already released");
+        }
+        return location.segment.buffer.asReadOnlyBuffer()
+                .position(location.offset + HEADER)
+                .limit(location.offset + HEADER + location.length)
+                .slice();
+    }
+
+    @Override
+    public void release(String pointer) {
+        Location location = locate(pointer);
+        Segment segment = location.segment;
+        appendLock.lock();
+        try {
+            if (segment.buffer.get(location.offset + Integer.BYTES) != LIVE) {
+                return;
+            }
+            segment.buffer.put(location.offset + Integer.BYTES, RELEASED);
+            if (segment.live.decrementAndGet() == 0 && segment.sealed) {
+                delete(segment);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public long getLivePayloadCount() {
+        return segments.values().stream().mapToLong(segment -> segment.live.get()).sum();
+    }
+
+    @Override
+    public void close() {
+        appendLock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+        } catch (IOException e) {
+            AsyncLogger.error("Could not close payload store: " + e.getLocalizedMessage());
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private Location locate(String pointer) {
+        String[] parts = pointer.split(":");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Malformed payload pointer " + pointer);
+        }
+        try {
+            Segment segment = segments.get(Long.parseLong(parts[0]));
+            int offset = Integer.parseInt(parts[1]);
+            int length = Integer.parseInt(parts[2]);
+            if (isNull(segment)) {
+                throw new IllegalArgumentException("Payload " + pointer + " was already released");
+            }
+            if (offset < 0 || offset + HEADER + length > segment.buffer.capacity()
+                    || segment.buffer.getInt(offset) != length) {
+                throw new IllegalArgumentException("Malformed payload pointer " + pointer);
+            }
+            return new Location(segment, offset, length);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed payload pointer " + pointer, e);
+        }
+    }
+
+    private Segment createSegment(int size) throws IOException {
+        long id = nextSegmentId++;
+        Segment segment = map(id, directory.resolve(String.format("%s%016d%s", PREFIX, id, SUFFIX)), size);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    /*
+     * Caller holds appendLock. A sealed segment takes no more payloads and goes away with its last live one.
+     */
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.live.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.id);
+        try {
+            segment.channel.close();
+            // the mapping itself is released by the garbage collector
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            AsyncLogger.error("Could not delete payload segment %s: %s", segment.path, e.getLocalizedMessage());
+        }
+    }
+
+    private int recover() throws IOException {
+        int live = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long id;
+                try {
+                    id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Segment segment = map(id, file, (int) Files.size(file));
+                scan(segment);
+                segment.sealed = true;
+                nextSegmentId = Math.max(nextSegmentId, id + 1);
+                if (segment.live.get() == 0) {
+                    delete(segment);
+                } else {
+                    segments.put(id, segment);
+                    live += segment.live.get();
+                }
+            }
+        }
+        return live;
+    }
+
+    private void scan(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        while (buffer.remaining() >= HEADER) {
+            int offset = buffer.position();
+            int length = buffer.getInt(offset);
+            if (length <= 0 || buffer.remaining() < HEADER + length) {
+                break;
+            }
+            if (buffer.get(offset + Integer.BYTES) == LIVE) {
+                segment.live.incrementAndGet();
+            }
+            buffer.position(offset + HEADER + length);
+        }
+    }
+
+    private static Segment map(long id, Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+    }
+
+    private static class Segment {
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile boolean sealed;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.message.store;
+
+import com.message.util.SQSConfiguration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+/*
+ * Blob store behind the claim-check mode (see ClaimCheck): message bodies too large for SQS are put here and only the
+ * returned pointer travels through the queue.
+ *
+ *      sqs.claimcheck.path         - directory of the default segment store; claim checks are off while unset
+ *      sqs.claimcheck.segmentBytes - size of one segment file (default 64 MB)
+ */
+public interface PayloadStore extends AutoCloseable {
+
+    /**
+     * Stores the payload and returns the pointer under which it can be read until it is released.
+     */
+    String put(byte[] payload);
+
+    /**
+     * @return a read-only view of the payload; implementations may hand out the stored bytes without copying them
+     * @throws IllegalArgumentException if the pointer is malformed or the payload was already released
+     */
+    ByteBuffer get(String pointer);
+
+    /**
+     * Marks the payload as no longer needed; its space is reclaimed once the store gets to it.
+     */
+    void release(String pointer);
+
+    @Override
+    void close();
+
+    static PayloadStore fromConfiguration() {
+        String path = SQSConfiguration.getString("sqs.claimcheck.path", "");
+        if (path.isBlank()) {
+            return null;
+        }
+        try {
+            return new MappedSegmentPayloadStore(Paths.get(path),
+                    SQSConfiguration.getInt("sqs.claimcheck.segmentBytes", 64 * 1024 * 1024));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
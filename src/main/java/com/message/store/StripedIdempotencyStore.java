@@ -0,0 +1,217 @@
+package com.message.store;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.isNull;
+
+/*
+ * In-memory idempotency store split into independently locked stripes, so concurrent workers rarely contend.
+ *
+ * Each stripe keeps its entries in insertion order. As all entries live for the same ttl, the head of a stripe is
+ * always its oldest entry: expired entries and, once a stripe is over its share of maxEntries, the oldest ones are
+ * removed from the head on every insert.
+ */
+public class StripedIdempotencyStore implements IdempotencyStore {
+
+    // object headers, map node and the two strings' headers - a rough figure is enough for monitoring
+    private static final int ENTRY_OVERHEAD_BYTES = 120;
+
+    private final Stripe[] stripes;
+    private final int maxEntriesPerStripe;
+    private final long ttlMillis;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    public StripedIdempotencyStore(int maxEntries, long ttl, TimeUnit unit) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.maxEntriesPerStripe = Math.max(1, maxEntries / stripeCount);
+        this.ttlMillis = unit.toMillis(ttl);
+    }
+
+    @Override
+    public String putIfAbsent(String messageId, String correlationId) {
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            Entry existing = stripe.entries.get(messageId);
+            if (!isNull(existing) && !existing.isExpired(now, ttlMillis)) {
+                return existing.correlationId;
+            }
+            stripe.insert(messageId, new Entry(correlationId, now), now);
+            return null;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public String get(String messageId) {
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.entries.get(messageId);
+            if (isNull(entry) || entry.isExpired(now, ttlMillis)) {
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return entry.correlationId;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String messageId) {
+        long now = System.currentTimeMillis();
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.entries.get(messageId);
+            return !isNull(entry) && !entry.isExpired(now, ttlMillis);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.entries.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Restores an entry read back from a persistent log, keeping its original creation time.
+     */
+    void restore(String messageId, String correlationId, long createdAtMillis) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(correlationId, createdAtMillis);
+        if (entry.isExpired(now, ttlMillis)) {
+            return;
+        }
+        Stripe stripe = stripeFor(messageId);
+        stripe.lock.lock();
+        try {
+            stripe.insert(messageId, entry, now);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Visits every live entry, one stripe at a time.
+     */
+    void forEachLive(EntryVisitor visitor) {
+        long now = System.currentTimeMillis();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (Map.Entry<String, Entry> e : stripe.entries.entrySet()) {
+                    if (!e.getValue().isExpired(now, ttlMillis)) {
+                        visitor.visit(e.getKey(), e.getValue().correlationId, e.getValue().createdAtMillis);
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    interface EntryVisitor {
+        void visit(String messageId, String correlationId, long createdAtMillis);
+    }
+
+    private Stripe stripeFor(String messageId) {
+        int hash = messageId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private static long footprint(String messageId, Entry entry) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (messageId.length() + entry.correlationId.length());
+    }
+
+    private class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+        // caller holds the lock
+        void insert(String messageId, Entry entry, long now) {
+            Entry replaced = entries.remove(messageId);
+            if (!isNull(replaced)) {
+                estimatedBytes.addAndGet(-footprint(messageId, replaced));
+            }
+            entries.put(messageId, entry);
+            estimatedBytes.addAndGet(footprint(messageId, entry));
+
+            Iterator<Map.Entry<String, Entry>> oldestFirst = entries.entrySet().iterator();
+            while (oldestFirst.hasNext()) {
+                Map.Entry<String, Entry> oldest = oldestFirst.next();
+                if (entries.size() <= maxEntriesPerStripe && !oldest.getValue().isExpired(now, ttlMillis)) {
+                    break;
+                }
+                oldestFirst.remove();
+                estimatedBytes.addAndGet(-footprint(oldest.getKey(), oldest.getValue()));
+            }
+        }
+    }
+
+    private static class Entry {
+        private final String correlationId;
+        private final long createdAtMillis;
+
+        Entry(String correlationId, long createdAtMillis) {
+            // a message processed without correlation id must still count as known
+            this.correlationId = isNull(correlationId) ? "" : correlationId;
+            this.createdAtMillis = createdAtMillis;
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            return now - createdAtMillis >= ttlMillis;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.message.util;
+
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Thrown instead of making an SQS call when the client side has decided not to: the queue's rate limit is exhausted
+ * (429) or its circuit breaker is open (503). Endpoints pass the status and Retry-After on to their caller.
+ */
+public class CallRejectedException extends SdkClientException {
+
+    public static final int TOO_MANY_REQUESTS = 429;
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    private final int status;
+    private final long retryAfterSeconds;
+
+    private CallRejectedException(String message, int status, long retryAfterSeconds) {
+        super(SdkClientException.builder().message(message));
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    static CallRejectedException throttled(String operation, String queue) {
+        return new CallRejectedException(operation + " on " + queue + " rejected: client-side rate limit reached",
+                TOO_MANY_REQUESTS, 1);
+    }
+
+    static CallRejectedException circuitOpen(String operation, String queue, long retryAfterMillis) {
+        return new CallRejectedException(operation + " on " + queue + " rejected: circuit breaker open",
+                SERVICE_UNAVAILABLE, Math.max(1, (retryAfterMillis + 999) / 1000));
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * Returns the CallRejectedException somewhere in the cause chain of the error, or null.
+     */
+    public static CallRejectedException find(Throwable error) {
+        for (Throwable cause = error; !isNull(cause); cause = cause.getCause()) {
+            if (cause instanceof CallRejectedException) {
+                return (CallRejectedException) cause;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package com.message.util;
+
+import com.message.metrics.AsyncLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Circuit breaker over the SQS calls of one queue.
+ *
+ * CLOSED    - calls go through; outcomes are counted in windows of windowMillis. Once a window has seen minimumCalls
+ *             calls and failureRatePercent of them failed, the breaker opens.
+ * OPEN      - calls are rejected right away for openMillis.
+ * HALF_OPEN - up to halfOpenTrials calls are let through; the first success closes the breaker, a failure opens it
+ *             again.
+ * Only failures that point at SQS itself (throttling, 5xx, timeouts, connection errors) count; an answer such as
+ * QueueDoesNotExist is a success as far as the breaker is concerned.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final String name;
+    private final int failureRatePercent;
+    private final int minimumCalls;
+    private final long windowNanos;
+    private final long openNanos;
+    private final int halfOpenTrials;
+
+    private State state = State.CLOSED;
+    private long windowStartedAt = System.nanoTime();
+    private int calls;
+    private int failures;
+    private long openedAt;
+    private int trials;
+
+    public CircuitBreaker(String name, int failureRatePercent, int minimumCalls, long windowMillis, long openMillis,
+                          int halfOpenTrials) {
+        this.name = name;
+        this.failureRatePercent = failureRatePercent;
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.halfOpenTrials = Math.max(1, halfOpenTrials);
+    }
+
+    /**
+     * @return whether a call may go out now
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            transition(State.HALF_OPEN);
+            trials = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trials >= halfOpenTrials) {
+                return false;
+            }
+            trials++;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back the permit of a call that tells nothing about SQS - it was not made, or failed inside the client -
+     * so that a half-open breaker can let another trial through.
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN && trials > 0) {
+            trials--;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            transition(State.CLOSED);
+            resetWindow(System.nanoTime());
+            return;
+        }
+        record(false);
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (calls >= minimumCalls && failures * 100L >= (long) failureRatePercent * calls) {
+                open();
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Milliseconds until an open breaker lets a trial call through, 0 if it is not open.
+     */
+    public synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)));
+    }
+
+    private void record(boolean failed) {
+        long now = System.nanoTime();
+        if (now - windowStartedAt > windowNanos) {
+            resetWindow(now);
+        }
+        calls++;
+        if (failed) {
+            failures++;
+        }
+    }
+
+    private void resetWindow(long now) {
+        windowStartedAt = now;
+        calls = 0;
+        failures = 0;
+    }
+
+    private void open() {
+        openedAt = System.nanoTime();
+        transition(State.OPEN);
+    }
+
+    private void transition(State next) {
+        if (state != next) {
+            AsyncLogger.info("Circuit breaker %s: %s -> %s (%d of %d calls failed)", name, state, next, failures,
+                    calls);
+            state = next;
+        }
+    }
+}
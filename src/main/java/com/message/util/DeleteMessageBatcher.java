@@ -0,0 +1,98 @@
+package com.message.util;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Opt-in ack mode (-Dsqs.delete.batching.enabled=true): receipt handles are buffered per queue url and deleted with
+ * DeleteMessageBatch once 10 are pending or sqs.delete.batching.lingerMillis have passed.
+ * Entries the batch call reports as failed are retried one by one with a plain DeleteMessage.
+ */
+public class DeleteMessageBatcher extends RequestBatcher<DeleteMessageRequest, Void> {
+
+    public static final int MAX_BATCH_ENTRIES = 10;
+
+    private static final DeleteMessageBatcher INSTANCE = new DeleteMessageBatcher(
+            SQSConfiguration.getLong("sqs.delete.batching.lingerMillis", 50),
+            SQSConfiguration.getInt("sqs.delete.batching.maxAttempts", 3),
+            SQSConfiguration.getInt("sqs.delete.batching.dispatcherThreads", 4));
+
+    public DeleteMessageBatcher(long lingerMillis, int maxAttempts, int dispatcherThreads) {
+        super("delete-batcher", MAX_BATCH_ENTRIES, Long.MAX_VALUE, lingerMillis, maxAttempts, dispatcherThreads);
+    }
+
+    public static DeleteMessageBatcher getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return SQSConfiguration.getBoolean("sqs.delete.batching.enabled", false);
+    }
+
+    /**
+     * When true (default) ProcessMessage flushes the pending deletes of its queue and waits for them before it
+     * responds, so the HTTP response only lists messages that are really gone from the queue.
+     */
+    public static boolean isFlushBeforeResponse() {
+        return SQSConfiguration.getBoolean("sqs.delete.batching.flushBeforeResponse", true);
+    }
+
+    public CompletableFuture<Void> delete(DeleteMessageRequest request) {
+        return submit(request.queueUrl(), request);
+    }
+
+    @Override
+    protected void execute(String queueUrl, List<PendingEntry<DeleteMessageRequest, Void>> batch) {
+        Map<String, PendingEntry<DeleteMessageRequest, Void>> byId = new HashMap<>();
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String id = String.valueOf(i);
+            byId.put(id, batch.get(i));
+            entries.add(DeleteMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .receiptHandle(batch.get(i).getEntry().receiptHandle())
+                    .build());
+        }
+
+        DeleteMessageBatchResponse response = SQSUtility.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+
+        for (DeleteMessageBatchResultEntry result : response.successful()) {
+            byId.remove(result.id()).getResult().complete(null);
+        }
+
+        for (BatchResultErrorEntry error : response.failed()) {
+            PendingEntry<DeleteMessageRequest, Void> pending = byId.remove(error.id());
+            if (Boolean.TRUE.equals(error.senderFault())) {
+                // e.g. ReceiptHandleIsInvalid - a single delete would fail the same way
+                pending.getResult().completeExceptionally(SendMessageBatcher.toException(error));
+            } else {
+                deleteIndividually(pending);
+            }
+        }
+
+        byId.values().forEach(this::deleteIndividually);
+    }
+
+    @Override
+    protected long sizeOf(DeleteMessageRequest request) {
+        return SendMessageBatcher.utf8Length(request.receiptHandle());
+    }
+
+    private void deleteIndividually(PendingEntry<DeleteMessageRequest, Void> pending) {
+        try {
+            SQSUtility.deleteMessage(pending.getEntry());
+            pending.getResult().complete(null);
+        } catch (SdkException e) {
+            retryOrFail(pending, e, e.retryable());
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package com.message.util;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/*
+ * A logical queue spread over N physical queues (shards) to get past the throughput limit of a single queue.
+ * Shard i of "orders" is "orders-shard-i", of "orders.fifo" it is "orders-shard-i.fifo".
+ *
+ * Send    - FIFO messages are placed on a consistent-hash ring by messageGroupId (VIRTUAL_NODES points per shard), so
+ *           a group always lands on the same shard and keeps its order; adding a shard moves only the groups the new
+ *           shard's points take over, about 1/N of them. Standard messages go round-robin.
+ * Receive - every receive starts at the next shard in turn and short-polls the shards from there until the batch is
+ *           full; only when all of them are empty does it long-poll its starting shard.
+ *
+ * Logical queues are known from CreateQueue with "shards", from sqs.shards.<queueName>, or found once by listing the
+ * queues named <base>-shard-; names without shards are remembered as plain queues for
+ * sqs.shards.negativeTtlSeconds (default 60), a failed listing for a few seconds. The listing runs outside the map
+ * lock, concurrent callers for the same name wait for it; at most sqs.shards.maxPlainEntries (default 10000) plain
+ * names are remembered. A group remapped by a newly added shard may have messages on both shards for a while, its
+ * order is only guaranteed again once the old shard drained.
+ */
+public class LogicalQueue {
+
+    private static final int VIRTUAL_NODES = 512;
+    private static final int MAX_QUEUE_NAME_LENGTH = 80;
+    private static final String SHARD_INFIX = "-shard-";
+    private static final String FIFO_SUFFIX = ".fifo";
+    private static final Pattern SHARD_NAME = Pattern.compile(".*" + Pattern.quote(SHARD_INFIX) + "\\d+");
+
+    // answers "not a logical queue" and failed lookups expire, so shards created later are still found
+    private static final long NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(
+            SQSConfiguration.getLong("sqs.shards.negativeTtlSeconds", 60));
+    private static final long FAILED_LOOKUP_TTL_NANOS = Math.min(NEGATIVE_TTL_NANOS, TimeUnit.SECONDS.toNanos(5));
+    // names are client-supplied, so the plain ones must not pile up
+    private static final int MAX_PLAIN_ENTRIES = Math.max(1, SQSConfiguration.getInt("sqs.shards.maxPlainEntries",
+            10_000));
+
+    private static final ConcurrentHashMap<String, Lookup> QUEUES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final boolean fifo;
+    private final AtomicInteger nextSend = new AtomicInteger();
+    private final AtomicInteger nextReceive = new AtomicInteger();
+    private volatile Ring ring;
+
+    private LogicalQueue(String name, int shards) {
+        this.name = name;
+        this.fifo = name.endsWith(FIFO_SUFFIX);
+        this.ring = new Ring(name, shards);
+        Metrics.gauge("sqs_logical_queue_shards", "Physical queues behind a logical queue",
+                () -> ring.shardNames.size(), "queue", name);
+    }
+
+    /**
+     * Returns the logical queue of that name, or null if it is a plain queue.
+     */
+    public static LogicalQueue forName(String queueName) {
+        if (isShardName(queueName)) {
+            return null;
+        }
+        long now = System.nanoTime();
+        Lookup cached = QUEUES.get(queueName);
+        if (nonNull(cached) && !cached.isExpired(now)) {
+            return cached.await();
+        }
+
+        Lookup fresh = new Lookup();
+        Lookup winner = QUEUES.compute(queueName, (key, current) ->
+                nonNull(current) && !current.isExpired(now) ? current : fresh);
+        if (winner != fresh) {
+            return winner.await();
+        }
+
+        // ListQueues is a remote call, it must not run under the lock of the map bin
+        try {
+            LogicalQueue logicalQueue = lookup(queueName, fresh);
+            if (isNull(logicalQueue)) {
+                evictPlainIfNecessary();
+            }
+            return logicalQueue;
+        } catch (Throwable t) {
+            QUEUES.remove(queueName, fresh);
+            fresh.queue.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    private static LogicalQueue lookup(String queueName, Lookup lookup) {
+        int shards = SQSConfiguration.getInt("sqs.shards." + queueName, 0);
+        if (shards < 1) {
+            try {
+                shards = discoverShards(queueName);
+            } catch (SdkException e) {
+                // treated as a plain queue for now, asked again shortly
+                AsyncLogger.error("Shards of %s could not be listed: %s", queueName, e.getLocalizedMessage());
+                return lookup.complete(null, System.nanoTime() + FAILED_LOOKUP_TTL_NANOS);
+            }
+        }
+        return shards < 1
+                ? lookup.complete(null, System.nanoTime() + NEGATIVE_TTL_NANOS)
+                : lookup.complete(new LogicalQueue(queueName, shards), Long.MAX_VALUE);
+    }
+
+    /*
+     * Forgets expired plain names first and, if that is not enough, all plain names; they are simply looked up again.
+     */
+    private static void evictPlainIfNecessary() {
+        if (QUEUES.size() <= MAX_PLAIN_ENTRIES) {
+            return;
+        }
+        long now = System.nanoTime();
+        QUEUES.values().removeIf(lookup -> lookup.isPlain() && lookup.isExpired(now));
+        if (QUEUES.size() > MAX_PLAIN_ENTRIES) {
+            QUEUES.values().removeIf(Lookup::isPlain);
+        }
+    }
+
+    /*
+     * Counts the shards that exist; only an unbroken run from shard 0 counts.
+     */
+    private static int discoverShards(String queueName) {
+        Pattern shardPattern = Pattern.compile(Pattern.quote(baseName(queueName) + SHARD_INFIX) + "(\\d+)"
+                + (queueName.endsWith(FIFO_SUFFIX) ? Pattern.quote(FIFO_SUFFIX) : "") + "$");
+        List<Integer> found = new ArrayList<>();
+        for (String url : SQSUtility.listQueueUrls(baseName(queueName) + SHARD_INFIX)) {
+            Matcher matcher = shardPattern.matcher(url.substring(url.lastIndexOf('/') + 1));
+            if (matcher.matches()) {
+                found.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        found.sort(null);
+        int shards = 0;
+        while (shards < found.size() && found.get(shards) == shards) {
+            shards++;
+        }
+        if (shards > 0) {
+            AsyncLogger.info("Logical queue %s found with %d shards", queueName, shards);
+        }
+        return shards;
+    }
+
+    /**
+     * Creates the shards of a logical queue, or the missing ones of an existing logical queue, in parallel, and links
+     * each of them to the dead-letter queue if one is given. Shards are never removed: a smaller count than the queue
+     * already has is rejected.
+     */
+    public static LogicalQueue provision(String queueName, int shards, Map<QueueAttributeName, String> attributes,
+                                         String dlQueueName, Integer maxReceiveCount) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        if (shardName(queueName, shards - 1).length() > MAX_QUEUE_NAME_LENGTH) {
+            throw new IllegalArgumentException("shard names of " + queueName + " are longer than "
+                    + MAX_QUEUE_NAME_LENGTH + " characters");
+        }
+        LogicalQueue existing = forName(queueName);
+        if (nonNull(existing) && existing.getShardCount() > shards) {
+            throw new IllegalArgumentException(queueName + " already has " + existing.getShardCount()
+                    + " shards, shards cannot be removed");
+        }
+
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService provisioners = Executors.newFixedThreadPool(Math.min(shards, 8), runnable -> {
+            Thread thread = new Thread(runnable, "shard-provisioner-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            CompletableFuture<String> dlQueueUrl = isNull(dlQueueName)
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.supplyAsync(() -> SQSUtility.createQueue(CreateQueueRequest.builder()
+                            .queueName(dlQueueName)
+                            .attributes(dlQueueName.endsWith(FIFO_SUFFIX)
+                                    ? Map.of(QueueAttributeName.FIFO_QUEUE, Boolean.TRUE.toString())
+                                    : Map.of())
+                            .build()), provisioners);
+            CompletableFuture<?>[] created = new CompletableFuture[shards];
+            for (int i = 0; i < shards; i++) {
+                CreateQueueRequest request = CreateQueueRequest.builder()
+                        .queueName(shardName(queueName, i))
+                        .attributes(new HashMap<>(attributes))
+                        .build();
+                created[i] = CompletableFuture.supplyAsync(() -> SQSUtility.createQueue(request), provisioners)
+                        .thenCombine(dlQueueUrl, (shardUrl, dlUrl) -> {
+                            if (nonNull(dlUrl)) {
+                                SQSUtility.linkDeadLetterQueue(shardUrl, dlUrl, maxReceiveCount);
+                            }
+                            return shardUrl;
+                        });
+            }
+            CompletableFuture.allOf(created).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } finally {
+            provisioners.shutdown();
+        }
+
+        LogicalQueue logicalQueue = QUEUES.compute(queueName, (key, current) -> {
+            LogicalQueue known = nonNull(current) ? current.queue.getNow(null) : null;
+            if (nonNull(known)) {
+                known.resize(shards);
+                return current;
+            }
+            Lookup provisioned = new Lookup();
+            provisioned.complete(new LogicalQueue(queueName, shards), Long.MAX_VALUE);
+            return provisioned;
+        }).queue.join();
+        AsyncLogger.info("Logical queue %s provisioned with %d shards", queueName, shards);
+        return logicalQueue;
+    }
+
+    public static String shardName(String queueName, int shard) {
+        return baseName(queueName) + SHARD_INFIX + shard + (queueName.endsWith(FIFO_SUFFIX) ? FIFO_SUFFIX : "");
+    }
+
+    private static String baseName(String queueName) {
+        return queueName.endsWith(FIFO_SUFFIX)
+                ? queueName.substring(0, queueName.length() - FIFO_SUFFIX.length())
+                : queueName;
+    }
+
+    private static boolean isShardName(String queueName) {
+        return SHARD_NAME.matcher(baseName(queueName)).matches();
+    }
+
+    private void resize(int shards) {
+        if (shards > ring.shardNames.size()) {
+            ring = new Ring(name, shards);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getShardCount() {
+        return ring.shardNames.size();
+    }
+
+    public List<String> getShardNames() {
+        return ring.shardNames;
+    }
+
+    /**
+     * The shard a message goes to: by messageGroupId on FIFO queues, round-robin otherwise.
+     */
+    public String route(String messageGroupId) {
+        Ring current = ring;
+        if (fifo && nonNull(messageGroupId)) {
+            return current.shardNames.get(current.shardOf(messageGroupId));
+        }
+        return current.shardNames.get(Math.floorMod(nextSend.getAndIncrement(), current.shardNames.size()));
+    }
+
+    /**
+     * Receives up to template.maxNumberOfMessages from the shards, see the class comment; the receiver makes the
+     * actual ReceiveMessage call. The messages are returned by the url of the shard they came from, which is where
+     * they have to be deleted.
+     */
+    public CompletableFuture<Map<String, List<Message>>> receive(
+            ReceiveMessageRequest template,
+            Function<ReceiveMessageRequest, CompletableFuture<List<Message>>> receiver) {
+        List<String> shardNames = ring.shardNames;
+        int start = Math.floorMod(nextReceive.getAndIncrement(), shardNames.size());
+        int maxNumberOfMessages = nonNull(template.maxNumberOfMessages()) ? template.maxNumberOfMessages() : 1;
+        Map<String, List<Message>> received = new LinkedHashMap<>();
+        return sweep(template, receiver, shardNames, start, 0, maxNumberOfMessages, received)
+                .thenCompose(remaining -> {
+                    Integer waitTimeSeconds = template.waitTimeSeconds();
+                    if (!received.isEmpty() || isNull(waitTimeSeconds) || waitTimeSeconds == 0) {
+                        return CompletableFuture.completedFuture(received);
+                    }
+                    String url = SQSUtility.resolveQueueUrl(shardNames.get(start));
+                    return receiver.apply(template.toBuilder().queueUrl(url).build())
+                            .thenApply(messages -> {
+                                if (!messages.isEmpty()) {
+                                    received.put(url, messages);
+                                }
+                                return received;
+                            });
+                });
+    }
+
+    private CompletableFuture<Integer> sweep(ReceiveMessageRequest template,
+                                             Function<ReceiveMessageRequest, CompletableFuture<List<Message>>> receiver,
+                                             List<String> shardNames, int start, int visited, int remaining,
+                                             Map<String, List<Message>> received) {
+        if (remaining == 0 || visited == shardNames.size()) {
+            return CompletableFuture.completedFuture(remaining);
+        }
+        String url = SQSUtility.resolveQueueUrl(shardNames.get((start + visited) % shardNames.size()));
+        ReceiveMessageRequest request = template.toBuilder()
+                .queueUrl(url)
+                .maxNumberOfMessages(remaining)
+                .waitTimeSeconds(0)
+                .build();
+        return receiver.apply(request).thenCompose(messages -> {
+            if (!messages.isEmpty()) {
+                received.put(url, messages);
+            }
+            return sweep(template, receiver, shardNames, start, visited + 1, remaining - messages.size(), received);
+        });
+    }
+
+    /*
+     * Consistent-hash ring; immutable, replaced as a whole when shards are added. The points of a shard depend only
+     * on the queue name and the shard index, so the points of the existing shards stay where they are.
+     */
+    private static class Ring {
+        private final List<String> shardNames;
+        private final long[] points;
+        private final int[] owners;
+
+        Ring(String queueName, int shards) {
+            List<String> names = new ArrayList<>(shards);
+            long[][] entries = new long[shards * VIRTUAL_NODES][];
+            for (int shard = 0; shard < shards; shard++) {
+                String shardName = shardName(queueName, shard);
+                names.add(shardName);
+                for (int node = 0; node < VIRTUAL_NODES; node++) {
+                    entries[shard * VIRTUAL_NODES + node] = new long[]{hash(shardName + '#' + node), shard};
+                }
+            }
+            Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+            this.shardNames = List.copyOf(names);
+            this.points = new long[entries.length];
+            this.owners = new int[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                points[i] = entries[i][0];
+                owners[i] = (int) entries[i][1];
+            }
+        }
+
+        int shardOf(String key) {
+            int index = Arrays.binarySearch(points, hash(key));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            return owners[index == points.length ? 0 : index];
+        }
+    }
+
+    /*
+     * 64-bit FNV-1a over the UTF-16 chars, finished with the murmur3 mixer so that similar keys spread over the ring.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    // result of looking a name up: the logical queue, or null for a plain queue; never expires while in flight
+    private static class Lookup {
+        private final CompletableFuture<LogicalQueue> queue = new CompletableFuture<>();
+        private volatile long expiresAtNanos = Long.MAX_VALUE;
+
+        LogicalQueue complete(LogicalQueue logicalQueue, long expiresAtNanos) {
+            this.expiresAtNanos = expiresAtNanos;
+            queue.complete(logicalQueue);
+            return logicalQueue;
+        }
+
+        LogicalQueue await() {
+            try {
+                return queue.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        boolean isPlain() {
+            return queue.isDone() && !queue.isCompletedExceptionally() && isNull(queue.getNow(null));
+        }
+
+        boolean isExpired(long now) {
+            return expiresAtNanos != Long.MAX_VALUE && now - expiresAtNanos > 0;
+        }
+    }
+}
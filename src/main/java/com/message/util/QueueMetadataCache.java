@@ -0,0 +1,174 @@
+package com.message.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Concurrent cache for queue metadata (queue name -> url, queue url -> attributes).
+ *
+ * Entries expire after a fixed time-to-live and the cache never holds more than maxEntries keys; when the bound is
+ * exceeded expired entries are dropped first and then the oldest ones.
+ * Loading is single-flight: concurrent callers asking for the same cold key wait on one shared future, so only one
+ * remote call is made to SQS. Such callers count as neither hit nor miss but as coalesced.
+ */
+public class QueueMetadataCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public QueueMetadataCache(long ttl, TimeUnit unit, int maxEntries) {
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the cached value for the key, calling the loader at most once per expired or missing key.
+     * If the loader fails nothing is cached and every waiting caller sees the same exception.
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.nanoTime();
+        Entry<V> current = entries.get(key);
+        if (!isNull(current) && !current.isExpired(now)) {
+            (current.value.isDone() ? hits : coalesced).increment();
+            return await(current.value);
+        }
+
+        Entry<V> fresh = new Entry<>(now + ttlNanos);
+        Entry<V> winner = entries.compute(key, (k, existing) ->
+                isNull(existing) || existing.isExpired(now) ? fresh : existing);
+        if (winner != fresh) {
+            (winner.value.isDone() ? hits : coalesced).increment();
+            return await(winner.value);
+        }
+
+        misses.increment();
+        try {
+            V value = loader.apply(key);
+            fresh.value.complete(value);
+            evictIfNecessary();
+            return value;
+        } catch (Throwable t) {
+            // whatever the loader threw, the waiters must not block on the entry forever
+            entries.remove(key, fresh);
+            fresh.value.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    public void put(K key, V value) {
+        Entry<V> entry = new Entry<>(System.nanoTime() + ttlNanos);
+        entry.value.complete(value);
+        entries.put(key, entry);
+        evictIfNecessary();
+    }
+
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Drops every key currently mapped to the given value, e.g. all names that resolved to a deleted queue url.
+     */
+    public void invalidateValue(V value) {
+        entries.entrySet().removeIf(e -> e.getValue().value.isDone()
+                && !e.getValue().value.isCompletedExceptionally()
+                && value.equals(e.getValue().value.getNow(null)));
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Callers that waited for a load already in flight.
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void evictIfNecessary() {
+        if (entries.size() <= maxEntries) {
+            return;
+        }
+        long now = System.nanoTime();
+        entries.entrySet().removeIf(e -> {
+            boolean expired = e.getValue().isExpired(now);
+            if (expired) {
+                evictions.increment();
+            }
+            return expired;
+        });
+
+        int overflow = entries.size() - maxEntries;
+        if (overflow <= 0) {
+            return;
+        }
+        List<Map.Entry<K, Entry<V>>> oldestFirst = new ArrayList<>(entries.entrySet());
+        oldestFirst.sort(Comparator.comparingLong(e -> e.getValue().expiresAt));
+        for (int i = 0; i < overflow && i < oldestFirst.size(); i++) {
+            Map.Entry<K, Entry<V>> victim = oldestFirst.get(i);
+            if (entries.remove(victim.getKey(), victim.getValue())) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class Entry<V> {
+        private final CompletableFuture<V> value = new CompletableFuture<>();
+        private final long expiresAt;
+
+        Entry(long expiresAt) {
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.message.util;
+
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * Coalesces single-entry calls made against the same queue url into SQS batch calls.
+ *
+ * A batch is flushed as soon as it holds maxEntries entries or maxBytes of payload, or when lingerMillis have passed
+ * since its first entry was added - whichever comes first. Every caller gets its own future which is completed from
+ * the per-entry result of the batch call. Entries that fail with a retryable error are put back into the buffer
+ * until maxAttempts is reached. A batch call that fails as a whole is not retried here: it went through SQSUtility,
+ * whose resilience layer already retried it as far as its budget allowed, so its entries fail right away.
+ *
+ * T - the single request type (e.g. SendMessageRequest), R - the per-entry result handed back to the caller.
+ */
+public abstract class RequestBatcher<T, R> {
+
+    private final String name;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long lingerMillis;
+    private final int maxAttempts;
+
+    private final ConcurrentHashMap<String, Buffer> buffers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService lingerTimer;
+    private final ExecutorService dispatcher;
+
+    protected RequestBatcher(String name, int maxEntries, long maxBytes, long lingerMillis,
+                             int maxAttempts, int dispatcherThreads) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.lingerMillis = lingerMillis;
+        this.maxAttempts = maxAttempts;
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads(name + "-linger"));
+        this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, daemonThreads(name + "-dispatch"));
+        Metrics.gauge("sqs_batcher_pending_entries", "Entries waiting in a request batcher",
+                this::pendingCount, "batcher", name);
+    }
+
+    /**
+     * Sends the batch to SQS and completes (or retries) every pending entry from its own result.
+     */
+    protected abstract void execute(String queueUrl, List<PendingEntry<T, R>> batch);
+
+    /**
+     * Approximate payload size of one entry, used for the maxBytes limit.
+     */
+    protected abstract long sizeOf(T entry);
+
+    public CompletableFuture<R> submit(String queueUrl, T entry) {
+        PendingEntry<T, R> pending = new PendingEntry<>(queueUrl, entry, sizeOf(entry));
+        enqueue(pending);
+        return pending.result;
+    }
+
+    /**
+     * Sends whatever is buffered for the queue right away instead of waiting for the linger timer.
+     */
+    public void flush(String queueUrl) {
+        Buffer buffer = buffers.get(queueUrl);
+        if (nonNull(buffer)) {
+            dispatch(queueUrl, buffer.drain());
+        }
+    }
+
+    public void flushAll() {
+        buffers.keySet().forEach(this::flush);
+    }
+
+    public void shutdown() {
+        flushAll();
+        lingerTimer.shutdown();
+        dispatcher.shutdown();
+    }
+
+    /**
+     * Number of entries buffered but not yet handed to SQS.
+     */
+    public int pendingCount() {
+        return buffers.values().stream().mapToInt(Buffer::size).sum();
+    }
+
+    /**
+     * Hands the entry back to the buffer if it may be retried, otherwise fails the caller's future.
+     */
+    protected void retryOrFail(PendingEntry<T, R> pending, RuntimeException cause, boolean retryable) {
+        if (retryable && pending.attempts < maxAttempts) {
+            enqueue(pending);
+        } else {
+            pending.result.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Waits for a future returned by submit and rethrows the original SQS exception instead of a CompletionException.
+     */
+    public static <R> R await(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void enqueue(PendingEntry<T, R> pending) {
+        Buffer buffer = buffers.computeIfAbsent(pending.queueUrl, url -> new Buffer());
+        List<PendingEntry<T, R>> full = buffer.add(pending);
+        if (nonNull(full)) {
+            dispatch(pending.queueUrl, full);
+        }
+    }
+
+    private void dispatch(String queueUrl, List<PendingEntry<T, R>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        dispatcher.execute(() -> {
+            batch.forEach(p -> p.attempts++);
+            try {
+                execute(queueUrl, batch);
+            } catch (SdkException e) {
+                AsyncLogger.error("%s batch for %s failed: %s", name, queueUrl, e.getMessage());
+                batch.forEach(p -> p.result.completeExceptionally(e));
+            } catch (RuntimeException e) {
+                batch.forEach(p -> p.result.completeExceptionally(e));
+            }
+        });
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static class PendingEntry<T, R> {
+        private final String queueUrl;
+        private final T entry;
+        private final long size;
+        private final CompletableFuture<R> result = new CompletableFuture<>();
+        private volatile int attempts;
+
+        PendingEntry(String queueUrl, T entry, long size) {
+            this.queueUrl = queueUrl;
+            this.entry = entry;
+            this.size = size;
+        }
+
+        public T getEntry() {
+            return entry;
+        }
+
+        public CompletableFuture<R> getResult() {
+            return result;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private class Buffer {
+        private List<PendingEntry<T, R>> entries = new ArrayList<>();
+        private long bytes;
+        private ScheduledFuture<?> lingerFlush;
+
+        /**
+         * Adds the entry and returns a batch that is ready to be sent, or null if the buffer may still grow.
+         */
+        synchronized List<PendingEntry<T, R>> add(PendingEntry<T, R> pending) {
+            List<PendingEntry<T, R>> ready = null;
+            if (!entries.isEmpty() && bytes + pending.size > maxBytes) {
+                ready = drain();
+            }
+            entries.add(pending);
+            bytes += pending.size;
+            if (entries.size() >= maxEntries || bytes >= maxBytes) {
+                List<PendingEntry<T, R>> full = drain();
+                if (nonNull(ready)) {
+                    dispatch(pending.queueUrl, ready);
+                }
+                return full;
+            }
+            if (entries.size() == 1) {
+                String queueUrl = pending.queueUrl;
+                lingerFlush = lingerTimer.schedule(() -> flush(queueUrl), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            return ready;
+        }
+
+        synchronized List<PendingEntry<T, R>> drain() {
+            List<PendingEntry<T, R>> drained = entries;
+            entries = new ArrayList<>();
+            bytes = 0;
+            if (nonNull(lingerFlush)) {
+                lingerFlush.cancel(false);
+                lingerFlush = null;
+            }
+            return drained;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
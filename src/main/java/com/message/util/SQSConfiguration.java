@@ -0,0 +1,37 @@
+package com.message.util;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * Tuning knobs are read from JVM system properties first (e.g. -Dsqs.cache.ttlSeconds=60) and then from
+ * environment variables, where the key is upper-cased and dots are replaced with underscores (SQS_CACHE_TTLSECONDS).
+ */
+public class SQSConfiguration {
+
+    private SQSConfiguration() {
+    }
+
+    public static String getString(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (nonNull(value)) {
+            return value;
+        }
+        value = System.getenv(key.toUpperCase().replace('.', '_'));
+        return nonNull(value) ? value : defaultValue;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return nonNull(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return nonNull(value) ? Long.parseLong(value.trim()) : defaultValue;
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return nonNull(value) ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
@@ -1,19 +1,169 @@
 package com.message.util;
 
+import com.message.broker.InMemorySqsAsyncClient;
+import com.message.broker.InMemorySqsClient;
+import com.message.metrics.AsyncLogger;
+import com.message.metrics.Metrics;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 public class SQSUtility {
 
-    private static final SqsClient sqsClient = SqsClient.builder()
-            .region(Region.US_EAST_2)
-            .build();
+    /*
+     * -Dsqs.client.backend=memory replaces AWS with the in-process broker (com.message.broker), so the endpoints can
+     * be load tested and benchmarked without a network.
+     */
+    private static final boolean IN_MEMORY_BACKEND =
+            "memory".equalsIgnoreCase(SQSConfiguration.getString("sqs.client.backend", "aws"));
+
+    /*
+     * Retries are done by RESILIENCE, not by the SDK. sqs.client.callTimeoutMillis bounds every attempt; receives get
+     * their long-poll wait on top of it.
+     */
+    private static final long CALL_TIMEOUT_MILLIS = SQSConfiguration.getLong("sqs.client.callTimeoutMillis", 10_000);
+    private static final SqsResilience RESILIENCE = new SqsResilience();
+
+    private static final SqsClient sqsClient = IN_MEMORY_BACKEND
+            ? InMemorySqsClient.getInstance()
+            : SqsClient.builder()
+                    .region(Region.US_EAST_2)
+                    .httpClientBuilder(ApacheHttpClient.builder()
+                            .maxConnections(SQSConfiguration.getInt("sqs.http.maxConnections", 50))
+                            .connectionAcquisitionTimeout(Duration.ofMillis(
+                                    SQSConfiguration.getLong("sqs.http.acquireTimeoutMillis", 2_000))))
+                    .overrideConfiguration(clientConfiguration())
+                    .build();
+
+    /*
+     * Queue urls and queue attributes rarely change, so they are cached instead of being looked up on every request.
+     * Entries are dropped when SQS reports QueueDoesNotExist for the url.
+     */
+    private static final QueueMetadataCache<String, String> QUEUE_URL_CACHE = new QueueMetadataCache<>(
+            SQSConfiguration.getLong("sqs.cache.ttlSeconds", 300), TimeUnit.SECONDS,
+            SQSConfiguration.getInt("sqs.cache.maxEntries", 1000));
+
+    private static final QueueMetadataCache<String, Map<QueueAttributeName, String>> QUEUE_ATTRIBUTE_CACHE =
+            new QueueMetadataCache<>(
+                    SQSConfiguration.getLong("sqs.cache.ttlSeconds", 300), TimeUnit.SECONDS,
+                    SQSConfiguration.getInt("sqs.cache.maxEntries", 1000));
+
+    static {
+        Metrics.counter("sqs_metadata_cache_hits_total", "Queue metadata cache hits",
+                QUEUE_URL_CACHE::getHitCount, "cache", "url");
+        Metrics.counter("sqs_metadata_cache_misses_total", "Queue metadata cache misses",
+                QUEUE_URL_CACHE::getMissCount, "cache", "url");
+        Metrics.counter("sqs_metadata_cache_hits_total", "Queue metadata cache hits",
+                QUEUE_ATTRIBUTE_CACHE::getHitCount, "cache", "attributes");
+        Metrics.counter("sqs_metadata_cache_misses_total", "Queue metadata cache misses",
+                QUEUE_ATTRIBUTE_CACHE::getMissCount, "cache", "attributes");
+        Metrics.counter("sqs_metadata_cache_coalesced_total", "Queue metadata lookups that waited for a load in flight",
+                QUEUE_URL_CACHE::getCoalescedCount, "cache", "url");
+        Metrics.counter("sqs_metadata_cache_coalesced_total", "Queue metadata lookups that waited for a load in flight",
+                QUEUE_ATTRIBUTE_CACHE::getCoalescedCount, "cache", "attributes");
+        Metrics.gauge("sqs_metadata_cache_entries", "Entries held by the queue metadata cache",
+                QUEUE_URL_CACHE::size, "cache", "url");
+        Metrics.gauge("sqs_metadata_cache_entries", "Entries held by the queue metadata cache",
+                QUEUE_ATTRIBUTE_CACHE::size, "cache", "attributes");
+    }
+
+    /*
+     * Non-blocking client used by the *Async methods (-Dsqs.async.enabled=true). It is only built on first use so
+     * that deployments running in synchronous mode never start the Netty event loop.
+     */
+    private static class AsyncClientHolder {
+        private static final SqsAsyncClient sqsAsyncClient = IN_MEMORY_BACKEND
+                ? new InMemorySqsAsyncClient(sqsClient)
+                : SqsAsyncClient.builder()
+                        .region(Region.US_EAST_2)
+                        .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                                .maxConcurrency(SQSConfiguration.getInt("sqs.async.maxConcurrency", 500))
+                                .maxPendingConnectionAcquires(
+                                        SQSConfiguration.getInt("sqs.async.maxPendingAcquires", 10_000))
+                                .connectionAcquisitionTimeout(Duration.ofMillis(
+                                        SQSConfiguration.getLong("sqs.http.acquireTimeoutMillis", 2_000))))
+                        .overrideConfiguration(clientConfiguration())
+                        .build();
+    }
+
+    private static ClientOverrideConfiguration clientConfiguration() {
+        return ClientOverrideConfiguration.builder()
+                .retryPolicy(RetryPolicy.none())
+                .apiCallAttemptTimeout(Duration.ofMillis(CALL_TIMEOUT_MILLIS))
+                .build();
+    }
+
+    public static boolean isAsyncEnabled() {
+        return SQSConfiguration.getBoolean("sqs.async.enabled", false);
+    }
+
+    /**
+     * Builds the clients now - the synchronous one with this class, the asynchronous one if async mode is on - instead
+     * of on the first request.
+     */
+    public static void initializeClients() {
+        if (isAsyncEnabled()) {
+            AsyncClientHolder.sqsAsyncClient.serviceName();
+        }
+    }
+
+    /**
+     * Opens up to the given number of pooled connections by making that many cheap calls (ListQueues) at once, so that
+     * the first requests do not pay for connection setup and TLS handshakes.
+     * @return the number of calls that succeeded
+     */
+    public static int primeConnections(int connections) {
+        if (connections <= 0) {
+            return 0;
+        }
+        ListQueuesRequest request = ListQueuesRequest.builder().queueNamePrefix("warmup-").maxResults(1).build();
+        List<CompletableFuture<?>> calls = new ArrayList<>(connections);
+        ExecutorService callers = Executors.newFixedThreadPool(connections);
+        try {
+            for (int i = 0; i < connections; i++) {
+                calls.add(CompletableFuture.runAsync(
+                        () -> execute("ListQueues", null, () -> sqsClient.listQueues(request)), callers));
+                if (isAsyncEnabled()) {
+                    calls.add(executeAsync("ListQueues", null,
+                            () -> AsyncClientHolder.sqsAsyncClient.listQueues(request)));
+                }
+            }
+            int succeeded = 0;
+            for (CompletableFuture<?> call : calls) {
+                try {
+                    call.join();
+                    succeeded++;
+                } catch (CompletionException e) {
+                    AsyncLogger.error("Connection warm-up call failed: %s", e.getCause().getLocalizedMessage());
+                }
+            }
+            return succeeded;
+        } finally {
+            callers.shutdown();
+        }
+    }
 
     /**
      * This method creates Queue OR returns the url of an existing queue
@@ -23,16 +173,26 @@ public class SQSUtility {
     public static String createQueue(CreateQueueRequest request){
         String url = null;
         try{
-            url = sqsClient.createQueue(request).queueUrl();
+            url = execute("CreateQueue", null, () -> sqsClient.createQueue(request).queueUrl());
         } catch (SqsException e){
             url = getQueueUrl(request.queueName());
         }
+        QUEUE_URL_CACHE.put(request.queueName(), url);
         return url;
     }
 
+    /**
+     * Returns the url of the queue, creating it on first use. The result is cached, so only a cold queue name
+     * costs a round trip to SQS.
+     */
+    public static String resolveQueueUrl(String queueName) {
+        return QUEUE_URL_CACHE.get(queueName,
+                name -> createQueue(CreateQueueRequest.builder().queueName(name).build()));
+    }
+
     public static String getQueueUrl(String queueName) {
         GetQueueUrlRequest queueUrlRequest = GetQueueUrlRequest.builder().queueName(queueName).build();
-        return sqsClient.getQueueUrl(queueUrlRequest).queueUrl();
+        return execute("GetQueueUrl", null, () -> sqsClient.getQueueUrl(queueUrlRequest).queueUrl());
     }
 
     /**
@@ -53,26 +213,18 @@ public class SQSUtility {
                 .attributes(queueAttributes)
                 .build();
 
-        sqsClient.setQueueAttributes(setAttrsRequest);
+        execute("SetQueueAttributes", url, () -> sqsClient.setQueueAttributes(setAttrsRequest));
+        QUEUE_ATTRIBUTE_CACHE.invalidate(url);
     }
 
     public static List<Message> receiveMessages(ReceiveMessageRequest receiveMessageRequest) {
-        try {
-            return sqsClient.receiveMessage(receiveMessageRequest).messages();
-        } catch (SqsException e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            throw e;
-        }
+        ReceiveMessageRequest request = withReceiveTimeout(receiveMessageRequest);
+        return execute("ReceiveMessage", request.queueUrl(), () -> sqsClient.receiveMessage(request).messages());
     }
 
     public static void linkDeadLetterQueue(String srcUrl , String deadLetterQueueUrl, Integer maxReceiveCount) {
         // 1. Get Queue ARN for the dead letter queue.
-        GetQueueAttributesResponse queueAttrs = sqsClient.getQueueAttributes(
-                GetQueueAttributesRequest.builder()
-                        .queueUrl(deadLetterQueueUrl)
-                        .attributeNames(QueueAttributeName.QUEUE_ARN).build());
-
-        String dlQueueArn = queueAttrs.attributes().get(QueueAttributeName.QUEUE_ARN);
+        String dlQueueArn = getCachedAttributesValueForQueue(deadLetterQueueUrl, QueueAttributeName.QUEUE_ARN);
 
         // 2. Set REDRIVE_POLICY in src queue
         HashMap<QueueAttributeName, String> attributes = new HashMap<QueueAttributeName, String>();
@@ -88,25 +240,54 @@ public class SQSUtility {
                 .attributes(attributes)
                 .build();
 
-        sqsClient.setQueueAttributes(setAttrRequest);
+        execute("SetQueueAttributes", srcUrl, () -> sqsClient.setQueueAttributes(setAttrRequest));
+        QUEUE_ATTRIBUTE_CACHE.invalidate(srcUrl);
+    }
+
+    /**
+     * Urls of the queues whose name starts with the prefix.
+     */
+    public static List<String> listQueueUrls(String queueNamePrefix) {
+        ListQueuesRequest request = ListQueuesRequest.builder().queueNamePrefix(queueNamePrefix).build();
+        return execute("ListQueues", null, () -> sqsClient.listQueues(request).queueUrls());
+    }
+
+    /**
+     * Urls of the queues whose redrive policy points at the dead-letter queue.
+     */
+    public static List<String> listDeadLetterSourceQueues(String deadLetterQueueUrl) {
+        ListDeadLetterSourceQueuesRequest request = ListDeadLetterSourceQueuesRequest.builder()
+                .queueUrl(deadLetterQueueUrl)
+                .build();
+        return execute("ListDeadLetterSourceQueues", deadLetterQueueUrl,
+                () -> sqsClient.listDeadLetterSourceQueues(request).queueUrls());
     }
 
     public static void deleteMessage(DeleteMessageRequest deleteMessageRequest){
-        try {
-            sqsClient.deleteMessage(deleteMessageRequest);
-        } catch (SqsException e) {
-                System.err.println(e.awsErrorDetails().errorMessage());
-                throw e;
-        }
+        execute("DeleteMessage", deleteMessageRequest.queueUrl(),
+                () -> sqsClient.deleteMessage(deleteMessageRequest));
+    }
+
+    /**
+     * Deletes up to 10 messages of the same queue in one call. Entries can fail individually - see
+     * DeleteMessageBatcher.
+     */
+    public static DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest deleteMessageBatchRequest){
+        return execute("DeleteMessageBatch", deleteMessageBatchRequest.queueUrl(),
+                () -> sqsClient.deleteMessageBatch(deleteMessageBatchRequest));
     }
 
     public static SendMessageResponse sendMessage(SendMessageRequest sendMsgRequest){
-        try {
-            return sqsClient.sendMessage(sendMsgRequest);
-        } catch (SqsException e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            throw e;
-        }
+        return execute("SendMessage", sendMsgRequest.queueUrl(), () -> sqsClient.sendMessage(sendMsgRequest));
+    }
+
+    /**
+     * Sends up to 10 messages in one call. Entries can fail individually, so callers must inspect
+     * SendMessageBatchResponse.failed() - see SendMessageBatcher.
+     */
+    public static SendMessageBatchResponse sendMessageBatch(SendMessageBatchRequest sendMsgBatchRequest){
+        return execute("SendMessageBatch", sendMsgBatchRequest.queueUrl(),
+                () -> sqsClient.sendMessageBatch(sendMsgBatchRequest));
     }
 
     /*
@@ -115,37 +296,211 @@ public class SQSUtility {
     and hence use separate api changeMessageVisibility(ChangeMessageVisibilityRequest req)
      */
     public static void changeMessagesVisibility(ChangeMessageVisibilityRequest req) {
-        System.out.println("Change Message Visibility for " + req.visibilityTimeout());
-        try {
-            sqsClient.changeMessageVisibility(req);
-        } catch (SqsException e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            throw e;
-        }
+        AsyncLogger.info("Change Message Visibility for %d", req.visibilityTimeout());
+        execute("ChangeMessageVisibility", req.queueUrl(), () -> sqsClient.changeMessageVisibility(req));
+    }
+
+    /**
+     * Changes the visibility of up to 10 messages of the same queue in one call. Entries can fail individually,
+     * e.g. when the message was already deleted and its receipt handle is no longer valid.
+     */
+    public static ChangeMessageVisibilityBatchResponse changeMessagesVisibilityBatch(
+            ChangeMessageVisibilityBatchRequest req) {
+        return execute("ChangeMessageVisibilityBatch", req.queueUrl(),
+                () -> sqsClient.changeMessageVisibilityBatch(req));
     }
 
     public static String getAttributesValueForQueue(String queueUrl, QueueAttributeName attributeName){
-        try{
-            List<QueueAttributeName> atts = new ArrayList();
-            atts.add(attributeName);
+        List<QueueAttributeName> atts = new ArrayList();
+        atts.add(attributeName);
 
-            GetQueueAttributesRequest attributesRequest= GetQueueAttributesRequest.builder()
-                                                                .queueUrl(queueUrl)
-                                                                .attributeNames(atts)
-                                                                .build();
-            GetQueueAttributesResponse response = sqsClient.getQueueAttributes(attributesRequest);
+        GetQueueAttributesRequest attributesRequest= GetQueueAttributesRequest.builder()
+                                                            .queueUrl(queueUrl)
+                                                            .attributeNames(atts)
+                                                            .build();
+        GetQueueAttributesResponse response = execute("GetQueueAttributes", queueUrl,
+                () -> sqsClient.getQueueAttributes(attributesRequest));
 
-            Map<QueueAttributeName, String> queueAtts = response.attributes();
+        Map<QueueAttributeName, String> queueAtts = response.attributes();
 
-            for (Map.Entry<QueueAttributeName,String> queueAtt : queueAtts.entrySet()){
-                    if(queueAtt.getKey().equals(attributeName)){
-                        return queueAtt.getValue();
-                    }
-            }
-        } catch (SqsException e) {
-            System.err.println(e.awsErrorDetails().errorMessage());
-            throw e;
+        for (Map.Entry<QueueAttributeName,String> queueAtt : queueAtts.entrySet()){
+                if(queueAtt.getKey().equals(attributeName)){
+                    return queueAtt.getValue();
+                }
         }
         return null;
     }
+
+    /**
+     * Same as getAttributesValueForQueue but served from the attribute cache. Only use it for attributes that do not
+     * change on their own (VisibilityTimeout, QueueArn, FifoQueue ...), never for the ApproximateNumberOf* counters.
+     */
+    public static String getCachedAttributesValueForQueue(String queueUrl, QueueAttributeName attributeName) {
+        return QUEUE_ATTRIBUTE_CACHE.get(queueUrl, SQSUtility::getAllAttributesForQueue).get(attributeName);
+    }
+
+    public static QueueMetadataCache<String, String> getQueueUrlCache() {
+        return QUEUE_URL_CACHE;
+    }
+
+    public static QueueMetadataCache<String, Map<QueueAttributeName, String>> getQueueAttributeCache() {
+        return QUEUE_ATTRIBUTE_CACHE;
+    }
+
+    private static Map<QueueAttributeName, String> getAllAttributesForQueue(String queueUrl) {
+        return execute("GetQueueAttributes", queueUrl, () -> sqsClient.getQueueAttributes(
+                GetQueueAttributesRequest.builder()
+                        .queueUrl(queueUrl)
+                        .attributeNames(QueueAttributeName.ALL)
+                        .build()).attributes());
+    }
+
+    public static CompletableFuture<List<Message>> receiveMessagesAsync(ReceiveMessageRequest receiveMessageRequest) {
+        ReceiveMessageRequest request = withReceiveTimeout(receiveMessageRequest);
+        return executeAsync("ReceiveMessage", request.queueUrl(),
+                () -> AsyncClientHolder.sqsAsyncClient.receiveMessage(request))
+                .thenApply(ReceiveMessageResponse::messages);
+    }
+
+    public static CompletableFuture<SendMessageResponse> sendMessageAsync(SendMessageRequest sendMsgRequest) {
+        return executeAsync("SendMessage", sendMsgRequest.queueUrl(),
+                () -> AsyncClientHolder.sqsAsyncClient.sendMessage(sendMsgRequest));
+    }
+
+    public static CompletableFuture<SendMessageBatchResponse> sendMessageBatchAsync(
+            SendMessageBatchRequest sendMsgBatchRequest) {
+        return executeAsync("SendMessageBatch", sendMsgBatchRequest.queueUrl(),
+                () -> AsyncClientHolder.sqsAsyncClient.sendMessageBatch(sendMsgBatchRequest));
+    }
+
+    public static CompletableFuture<ChangeMessageVisibilityBatchResponse> changeMessagesVisibilityBatchAsync(
+            ChangeMessageVisibilityBatchRequest req) {
+        return executeAsync("ChangeMessageVisibilityBatch", req.queueUrl(),
+                () -> AsyncClientHolder.sqsAsyncClient.changeMessageVisibilityBatch(req));
+    }
+
+    public static CompletableFuture<Void> deleteMessageAsync(DeleteMessageRequest deleteMessageRequest) {
+        return executeAsync("DeleteMessage", deleteMessageRequest.queueUrl(),
+                () -> AsyncClientHolder.sqsAsyncClient.deleteMessage(deleteMessageRequest))
+                .thenApply(response -> null);
+    }
+
+    /*
+     * A long poll legitimately takes its wait time, so the attempt timeout of a receive is extended by it.
+     */
+    private static ReceiveMessageRequest withReceiveTimeout(ReceiveMessageRequest request) {
+        if (IN_MEMORY_BACKEND || isNull(request.waitTimeSeconds()) || request.waitTimeSeconds() == 0) {
+            return request;
+        }
+        return request.toBuilder()
+                .overrideConfiguration(AwsRequestOverrideConfiguration.builder()
+                        .apiCallAttemptTimeout(Duration.ofMillis(
+                                TimeUnit.SECONDS.toMillis(request.waitTimeSeconds()) + CALL_TIMEOUT_MILLIS))
+                        .build())
+                .build();
+    }
+
+    /*
+     * Every SQS call goes through here: it is admitted by the queue's rate limit and circuit breaker, timed per
+     * operation and retried while RESILIENCE allows; failures are counted and logged, and cached metadata of a queue
+     * that no longer exists is dropped.
+     */
+    private static <T> T execute(String operation, String queueUrl, Supplier<T> call) {
+        SqsResilience.QueueGuard guard = RESILIENCE.admit(operation, queueUrl);
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                T result = call.get();
+                guard.onSuccess();
+                return result;
+            } catch (SdkException e) {
+                onFailure(operation, queueUrl, e);
+                long retryDelay = guard.onFailure(e, attempt);
+                if (retryDelay < 0) {
+                    throw e;
+                }
+                sleepBeforeRetry(retryDelay, e);
+            } catch (RuntimeException | Error e) {
+                guard.onClientError();
+                throw e;
+            } finally {
+                Metrics.sqsLatency(operation).recordSince(start);
+            }
+        }
+    }
+
+    private static <T> CompletableFuture<T> executeAsync(String operation, String queueUrl,
+                                                         Supplier<CompletableFuture<T>> call) {
+        SqsResilience.QueueGuard guard;
+        try {
+            guard = RESILIENCE.admit(operation, queueUrl);
+        } catch (CallRejectedException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attemptAsync(operation, queueUrl, call, guard, 1, result);
+        return result;
+    }
+
+    private static <T> void attemptAsync(String operation, String queueUrl, Supplier<CompletableFuture<T>> call,
+                                         SqsResilience.QueueGuard guard, int attempt, CompletableFuture<T> result) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((value, error) -> {
+            Metrics.sqsLatency(operation).recordSince(start);
+            if (isNull(error)) {
+                guard.onSuccess();
+                result.complete(value);
+                return;
+            }
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof SdkException) {
+                onFailure(operation, queueUrl, (SdkException) cause);
+                long retryDelay = guard.onFailure((SdkException) cause, attempt);
+                if (retryDelay >= 0) {
+                    CompletableFuture.delayedExecutor(retryDelay, TimeUnit.MILLISECONDS).execute(
+                            () -> attemptAsync(operation, queueUrl, call, guard, attempt + 1, result));
+                    return;
+                }
+            } else {
+                guard.onClientError();
+            }
+            result.completeExceptionally(cause);
+        });
+    }
+
+    private static void sleepBeforeRetry(long millis, SdkException failure) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+    private static void onFailure(String operation, String queueUrl, SdkException e) {
+        if (!(e instanceof SqsException)) {
+            Metrics.sqsErrors(operation, e.getClass().getSimpleName()).increment();
+            AsyncLogger.error("%s failed: %s", operation, e.getMessage());
+            return;
+        }
+        SqsException sqsException = (SqsException) e;
+        String errorCode = nonNull(sqsException.awsErrorDetails()) ? sqsException.awsErrorDetails().errorCode() : null;
+        Metrics.sqsErrors(operation, nonNull(errorCode) ? errorCode : "Unknown").increment();
+        if (e instanceof QueueDoesNotExistException && nonNull(queueUrl)) {
+            invalidateQueue(queueUrl);
+        }
+        AsyncLogger.error("%s failed: %s", operation, nonNull(sqsException.awsErrorDetails())
+                ? sqsException.awsErrorDetails().errorMessage() : e.getMessage());
+    }
+
+    private static void invalidateQueue(String queueUrl) {
+        QUEUE_URL_CACHE.invalidateValue(queueUrl);
+        QUEUE_ATTRIBUTE_CACHE.invalidate(queueUrl);
+    }
 }
@@ -0,0 +1,151 @@
+package com.message.util;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.sqs.model.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Objects.nonNull;
+
+/*
+ * Opt-in send mode (-Dsqs.send.batching.enabled=true): concurrent SendMessage calls for the same queue are
+ * coalesced into SendMessageBatch calls of up to 10 entries / 256 KB, flushed after sqs.send.batching.lingerMillis.
+ * Each caller still receives its own SendMessageResponse, built from its entry of the batch result.
+ */
+public class SendMessageBatcher extends RequestBatcher<SendMessageRequest, SendMessageResponse> {
+
+    public static final int MAX_BATCH_ENTRIES = 10;
+    public static final long MAX_BATCH_BYTES = 256 * 1024;
+
+    private static final SendMessageBatcher INSTANCE = new SendMessageBatcher(
+            SQSConfiguration.getLong("sqs.send.batching.lingerMillis", 20),
+            SQSConfiguration.getInt("sqs.send.batching.maxAttempts", 3),
+            SQSConfiguration.getInt("sqs.send.batching.dispatcherThreads", 8));
+
+    public SendMessageBatcher(long lingerMillis, int maxAttempts, int dispatcherThreads) {
+        this("send-batcher", lingerMillis, maxAttempts, dispatcherThreads);
+    }
+
+    public SendMessageBatcher(String name, long lingerMillis, int maxAttempts, int dispatcherThreads) {
+        super(name, MAX_BATCH_ENTRIES, MAX_BATCH_BYTES, lingerMillis, maxAttempts, dispatcherThreads);
+    }
+
+    public static SendMessageBatcher getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return SQSConfiguration.getBoolean("sqs.send.batching.enabled", false);
+    }
+
+    public CompletableFuture<SendMessageResponse> send(SendMessageRequest request) {
+        return submit(request.queueUrl(), request);
+    }
+
+    @Override
+    protected void execute(String queueUrl, List<PendingEntry<SendMessageRequest, SendMessageResponse>> batch) {
+        Map<String, PendingEntry<SendMessageRequest, SendMessageResponse>> byId = new HashMap<>();
+        List<SendMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String id = String.valueOf(i);
+            SendMessageRequest request = batch.get(i).getEntry();
+            byId.put(id, batch.get(i));
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(id)
+                    .messageBody(request.messageBody())
+                    .messageAttributes(request.messageAttributes())
+                    .delaySeconds(request.delaySeconds())
+                    .messageGroupId(request.messageGroupId())
+                    .messageDeduplicationId(request.messageDeduplicationId())
+                    .build());
+        }
+
+        SendMessageBatchResponse response = SQSUtility.sendMessageBatch(SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries)
+                .build());
+
+        for (SendMessageBatchResultEntry result : response.successful()) {
+            byId.remove(result.id()).getResult().complete(SendMessageResponse.builder()
+                    .messageId(result.messageId())
+                    .md5OfMessageBody(result.md5OfMessageBody())
+                    .md5OfMessageAttributes(result.md5OfMessageAttributes())
+                    .sequenceNumber(result.sequenceNumber())
+                    .build());
+        }
+
+        for (BatchResultErrorEntry error : response.failed()) {
+            PendingEntry<SendMessageRequest, SendMessageResponse> pending = byId.remove(error.id());
+            // senderFault = true means the entry itself is invalid, retrying it would fail again
+            retryOrFail(pending, toException(error), !Boolean.TRUE.equals(error.senderFault()));
+        }
+
+        // entries SQS did not report on at all
+        byId.values().forEach(pending -> retryOrFail(pending,
+                toException("MissingBatchResult", "No result returned for batch entry", false), true));
+    }
+
+    @Override
+    protected long sizeOf(SendMessageRequest request) {
+        return sizeOf(request.messageBody(), request.hasMessageAttributes() ? request.messageAttributes() : null);
+    }
+
+    /**
+     * Bytes the message counts with against the 256 KB limit of a message and of a batch.
+     */
+    public static long sizeOf(String messageBody, Map<String, MessageAttributeValue> messageAttributes) {
+        long size = utf8Length(messageBody);
+        if (nonNull(messageAttributes)) {
+            for (Map.Entry<String, MessageAttributeValue> attribute : messageAttributes.entrySet()) {
+                size += utf8Length(attribute.getKey());
+                size += utf8Length(attribute.getValue().dataType());
+                size += utf8Length(attribute.getValue().stringValue());
+                if (nonNull(attribute.getValue().binaryValue())) {
+                    size += attribute.getValue().binaryValue().asByteArrayUnsafe().length;
+                }
+            }
+        }
+        return size;
+    }
+
+    static SqsException toException(BatchResultErrorEntry error) {
+        return toException(error.code(), error.message(), Boolean.TRUE.equals(error.senderFault()));
+    }
+
+    // the status code tells a bad entry (4xx) from a failure on the SQS side (5xx), see SqsResilience.isTransient
+    static SqsException toException(String errorCode, String errorMessage, boolean senderFault) {
+        return (SqsException) SqsException.builder()
+                .message(errorMessage)
+                .statusCode(senderFault ? 400 : 500)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode(errorCode)
+                        .errorMessage(errorMessage)
+                        .build())
+                .build();
+    }
+
+    static long utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,170 @@
+package com.message.util;
+
+import com.message.metrics.Metrics;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryUtils;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.isNull;
+
+/*
+ * Client-side protection around the SQS calls of SQSUtility; the SDK's own retries are switched off in its favour.
+ *
+ * Rate limit - a token bucket per queue (sqs.throttle.callsPerSecond, per queue sqs.throttle.callsPerSecond.<queue>,
+ *              default 0 = off). A call waits at most sqs.throttle.maxWaitMillis (default 50) for a token and is
+ *              rejected with 429 otherwise.
+ * Breaker    - a CircuitBreaker per queue (sqs.breaker.failureRatePercent 50, minimumCalls 20, windowMillis 10000,
+ *              openMillis 5000, halfOpenTrials 1); calls to an open breaker are rejected with 503.
+ * Retry      - throttling, 5xx, timeouts and connection errors are retried up to sqs.retry.maxAttempts (default 3)
+ *              with full-jitter exponential backoff from sqs.retry.baseDelayMillis (50) up to maxDelayMillis (2000);
+ *              throttling backs off four times as long. Retries must also get a token from the queue's rate limit
+ *              and from a retry budget shared by all queues: every call deposits sqs.retry.budgetPercent (10) percent
+ *              of a retry, plus sqs.retry.minPerSecond (10) retries a second are always allowed. When SQS is in trouble
+ *              retries therefore stay a small fraction of the traffic instead of multiplying it.
+ */
+public class SqsResilience {
+
+    private static final String ACCOUNT = "account";
+
+    private final double defaultCallsPerSecond = SQSConfiguration.getInt("sqs.throttle.callsPerSecond", 0);
+    private final long maxThrottleWaitNanos = TimeUnit.MILLISECONDS.toNanos(
+            SQSConfiguration.getLong("sqs.throttle.maxWaitMillis", 50));
+    private final int maxAttempts = Math.max(1, SQSConfiguration.getInt("sqs.retry.maxAttempts", 3));
+    private final long baseDelayMillis = SQSConfiguration.getLong("sqs.retry.baseDelayMillis", 50);
+    private final long maxDelayMillis = SQSConfiguration.getLong("sqs.retry.maxDelayMillis", 2000);
+    private final double retryDeposit = SQSConfiguration.getInt("sqs.retry.budgetPercent", 10) / 100.0;
+    private final TokenBucket minimumRetries = new TokenBucket(SQSConfiguration.getInt("sqs.retry.minPerSecond", 10),
+            SQSConfiguration.getInt("sqs.retry.minPerSecond", 10));
+
+    private final ConcurrentHashMap<String, QueueGuard> guards = new ConcurrentHashMap<>();
+    // guarded by this
+    private double retryBalance;
+
+    /**
+     * Admits a call to the queue (null for account-level calls) or throws CallRejectedException.
+     */
+    public QueueGuard admit(String operation, String queueUrl) {
+        QueueGuard guard = guardFor(queueUrl);
+        if (!guard.breaker.tryAcquire()) {
+            Metrics.counter("sqs_calls_rejected_total", "SQS calls rejected on the client side",
+                    "queue", guard.queue, "reason", "circuit_open").increment();
+            throw CallRejectedException.circuitOpen(operation, guard.queue, guard.breaker.getRetryAfterMillis());
+        }
+        try {
+            if (!guard.rateLimit.tryAcquire(1, maxThrottleWaitNanos)) {
+                guard.breaker.release();
+                Metrics.counter("sqs_calls_rejected_total", "SQS calls rejected on the client side",
+                        "queue", guard.queue, "reason", "rate_limited").increment();
+                throw CallRejectedException.throttled(operation, guard.queue);
+            }
+        } catch (InterruptedException e) {
+            guard.breaker.release();
+            Thread.currentThread().interrupt();
+            throw CallRejectedException.throttled(operation, guard.queue);
+        }
+        synchronized (this) {
+            retryBalance = Math.min(100, retryBalance + retryDeposit);
+        }
+        return guard;
+    }
+
+    private QueueGuard guardFor(String queueUrl) {
+        return guards.computeIfAbsent(isNull(queueUrl) ? "" : queueUrl, key -> {
+            String queue = key.isEmpty() ? ACCOUNT : key.substring(key.lastIndexOf('/') + 1);
+            QueueGuard guard = new QueueGuard(queue);
+            Metrics.gauge("sqs_circuit_breaker_state", "Circuit breaker per queue: 0 closed, 1 half-open, 2 open",
+                    () -> guard.breaker.getState().ordinal(), "queue", queue);
+            return guard;
+        });
+    }
+
+    private boolean tryRetryBudget() {
+        synchronized (this) {
+            if (retryBalance >= 1) {
+                retryBalance -= 1;
+                return true;
+            }
+        }
+        return minimumRetries.tryAcquire(1);
+    }
+
+    static boolean isThrottling(SdkException e) {
+        return RetryUtils.isThrottlingException(e);
+    }
+
+    /*
+     * Failures that say something about the health of SQS (or the way to it), as opposed to a bad request.
+     */
+    public static boolean isTransient(SdkException e) {
+        if (e instanceof CallRejectedException) {
+            return false;
+        }
+        if (isThrottling(e) || e instanceof ApiCallAttemptTimeoutException || e instanceof ApiCallTimeoutException) {
+            return true;
+        }
+        if (e instanceof AwsServiceException) {
+            return ((AwsServiceException) e).statusCode() >= 500;
+        }
+        return e.retryable() || e.getCause() instanceof IOException;
+    }
+
+    public class QueueGuard {
+        private final String queue;
+        private final CircuitBreaker breaker;
+        private final TokenBucket rateLimit;
+
+        QueueGuard(String queue) {
+            this.queue = queue;
+            this.breaker = new CircuitBreaker(queue,
+                    SQSConfiguration.getInt("sqs.breaker.failureRatePercent", 50),
+                    SQSConfiguration.getInt("sqs.breaker.minimumCalls", 20),
+                    SQSConfiguration.getLong("sqs.breaker.windowMillis", 10_000),
+                    SQSConfiguration.getLong("sqs.breaker.openMillis", 5_000),
+                    SQSConfiguration.getInt("sqs.breaker.halfOpenTrials", 1));
+            double callsPerSecond = SQSConfiguration.getInt("sqs.throttle.callsPerSecond." + queue,
+                    (int) defaultCallsPerSecond);
+            this.rateLimit = new TokenBucket(callsPerSecond, callsPerSecond);
+        }
+
+        public void onSuccess() {
+            breaker.onSuccess();
+        }
+
+        /**
+         * Records an attempt that failed without an answer from the SDK (a bug or an unsupported operation in the
+         * client): final, and not held against SQS.
+         */
+        public void onClientError() {
+            breaker.release();
+        }
+
+        /**
+         * Records the failed attempt and decides about the next one.
+         * @return milliseconds to wait before retrying, or -1 if the failure is final
+         */
+        public long onFailure(SdkException e, int attempt) {
+            if (!isTransient(e)) {
+                // SQS answered, it just did not like the request
+                breaker.onSuccess();
+                return -1;
+            }
+            breaker.onFailure();
+            if (attempt >= maxAttempts || breaker.getState() != CircuitBreaker.State.CLOSED
+                    || !rateLimit.tryAcquire(1) || !tryRetryBudget()) {
+                return -1;
+            }
+            Metrics.counter("sqs_retries_total", "SQS calls retried after a transient failure",
+                    "queue", queue).increment();
+            long ceiling = Math.min(maxDelayMillis,
+                    (isThrottling(e) ? 4 : 1) * baseDelayMillis << Math.min(attempt - 1, 20));
+            return ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.message.util;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Rate limiter: permits accrue at ratePerSecond up to burst. acquire reserves its permits right away - the balance may
+ * go negative - and sleeps outside the lock until the reservation is covered, so callers are served in arrival order
+ * and a request for more permits than the burst size still goes through at the configured rate.
+ * A rate of 0 or less means unlimited.
+ */
+public class TokenBucket {
+
+    private final double ratePerNanosecond;
+    private final double burst;
+
+    private double tokens;
+    private long refilledAtNanos = System.nanoTime();
+
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.ratePerNanosecond = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+    }
+
+    public boolean isUnlimited() {
+        return ratePerNanosecond <= 0;
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        if (isUnlimited()) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= permits;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / ratePerNanosecond);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Takes the permits only if they are available right now.
+     */
+    public synchronized boolean tryAcquire(int permits) {
+        if (isUnlimited()) {
+            return true;
+        }
+        refill();
+        if (tokens < permits) {
+            return false;
+        }
+        tokens -= permits;
+        return true;
+    }
+
+    /**
+     * Waits for the permits if they become available within maxWaitNanos; otherwise takes nothing and returns false.
+     */
+    public boolean tryAcquire(int permits, long maxWaitNanos) throws InterruptedException {
+        if (isUnlimited()) {
+            return true;
+        }
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            waitNanos = tokens >= permits ? 0 : (long) ((permits - tokens) / ratePerNanosecond);
+            if (waitNanos > maxWaitNanos) {
+                return false;
+            }
+            tokens -= permits;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return true;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAtNanos) * ratePerNanosecond);
+        refilledAtNanos = now;
+    }
+}